@@ -0,0 +1,149 @@
+#!/bin/bash
+#
+# Startup-time benchmark: starts the application repeatedly and reports how long each
+# start took until /healthz first answered at all and until it first answered 200.
+#
+#   scripts/startup-benchmark.sh [-n runs] [-p port] [-t timeout-seconds] [mode ...] [-- app args]
+#
+# Modes (default: thin faststart):
+#   standard   java -jar target/webapp-<version>.jar (the Boot jar from mvn package)
+#   thin       the thin jar from mvn -Pfaststart package, without AOT or the CDS archive
+#   faststart  the same thin jar with the AOT context, the class-data sharing archive and
+#              the faststart profile (schema validate)
+#
+# All modes need a reachable database to become healthy; first-response-ms is measured
+# either way. JAVA_OPTS is passed to every JVM, e.g. JAVA_OPTS=-Dspring.profiles.active=prod;
+# arguments after -- go to the application. Build first with: mvn -Pfaststart package -DskipTests
+
+set -u
+
+RUNS=5
+PORT=8080
+TIMEOUT_S=120
+MODES=()
+APP_ARGS=()
+
+while [ $# -gt 0 ]; do
+    case "$1" in
+        -n) RUNS="$2"; shift 2 ;;
+        -p) PORT="$2"; shift 2 ;;
+        -t) TIMEOUT_S="$2"; shift 2 ;;
+        --) shift; APP_ARGS=("$@"); break ;;
+        standard|thin|faststart) MODES+=("$1"); shift ;;
+        *) echo "Unknown argument: $1" >&2; exit 2 ;;
+    esac
+done
+[ ${#MODES[@]} -eq 0 ] && MODES=(thin faststart)
+
+PROJECT_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+TARGET="$PROJECT_DIR/target"
+LOG_DIR="$TARGET/startup-benchmark"
+mkdir -p "$LOG_DIR"
+
+now_ms() {
+    echo $(( $(date +%s%N) / 1000000 ))
+}
+
+# Starts the application for $1 in the background; sets APP_PID
+start_app() {
+    local mode="$1" log="$2"
+    case "$mode" in
+        standard)
+            local jar
+            jar=$(ls "$TARGET"/webapp-*.jar 2>/dev/null | grep -v -- '-faststart' | head -1)
+            [ -n "$jar" ] || { echo "No jar in $TARGET; run mvn package first" >&2; return 1; }
+            (cd "$TARGET" && exec java ${JAVA_OPTS:-} -jar "$jar" \
+                --server.port="$PORT" "${APP_ARGS[@]}") > "$log" 2>&1 &
+            ;;
+        thin)
+            local jar
+            jar=$(cd "$TARGET/faststart" 2>/dev/null && ls webapp-*-faststart.jar 2>/dev/null | head -1)
+            [ -n "$jar" ] || { echo "No faststart build in $TARGET/faststart; run mvn -Pfaststart package" >&2; return 1; }
+            (cd "$TARGET/faststart" && exec java ${JAVA_OPTS:-} -jar "$jar" \
+                --server.port="$PORT" "${APP_ARGS[@]}") > "$log" 2>&1 &
+            ;;
+        faststart)
+            local jar
+            # The archive only matches the class path it was recorded with, so run from the
+            # build directory with the same relative jar name
+            jar=$(cd "$TARGET/faststart" 2>/dev/null && ls webapp-*-faststart.jar 2>/dev/null | head -1)
+            [ -n "$jar" ] || { echo "No faststart build in $TARGET/faststart; run mvn -Pfaststart package" >&2; return 1; }
+            (cd "$TARGET/faststart" && exec java ${JAVA_OPTS:-} -XX:SharedArchiveFile=webapp.jsa \
+                -Dspring.aot.enabled=true -jar "$jar" --spring.profiles.include=faststart \
+                --server.port="$PORT" "${APP_ARGS[@]}") > "$log" 2>&1 &
+            ;;
+    esac
+    APP_PID=$!
+}
+
+stop_app() {
+    kill "$APP_PID" 2>/dev/null
+    wait "$APP_PID" 2>/dev/null
+}
+
+# Prints "<first response ms> <first 200 ms>"; "-" for a milestone not reached
+measure() {
+    local mode="$1" log="$2" start first="-" healthy="-" code elapsed
+    start=$(now_ms)
+    start_app "$mode" "$log" || return 1
+    while true; do
+        code=$(curl -s -o /dev/null -w '%{http_code}' --max-time 1 "http://localhost:$PORT/healthz")
+        elapsed=$(( $(now_ms) - start ))
+        if [ "$code" != "000" ] && [ "$first" = "-" ]; then
+            first=$elapsed
+        fi
+        if [ "$code" = "200" ]; then
+            healthy=$elapsed
+            break
+        fi
+        if ! kill -0 "$APP_PID" 2>/dev/null; then
+            echo "$mode exited during startup, see $log" >&2
+            break
+        fi
+        if [ "$elapsed" -ge $(( TIMEOUT_S * 1000 )) ]; then
+            echo "$mode not healthy after ${TIMEOUT_S}s, see $log" >&2
+            break
+        fi
+        sleep 0.05
+    done
+    stop_app
+    echo "$first $healthy"
+}
+
+# Median and minimum of the numeric arguments
+summarize() {
+    printf '%s\n' "$@" | grep -E '^[0-9]+$' | sort -n | awk '
+        { v[NR] = $1 }
+        END {
+            if (NR == 0) { print "- -"; exit }
+            m = (NR % 2) ? v[(NR + 1) / 2] : int((v[NR / 2] + v[NR / 2 + 1]) / 2)
+            print m, v[1]
+        }'
+}
+
+if curl -s -o /dev/null --max-time 1 "http://localhost:$PORT/healthz"; then
+    echo "Something is already listening on port $PORT" >&2
+    exit 1
+fi
+
+printf '%-10s %4s %18s %18s\n' mode run first-response-ms healthy-ms
+declare -A SUMMARY
+for mode in "${MODES[@]}"; do
+    firsts=()
+    healthies=()
+    for run in $(seq 1 "$RUNS"); do
+        result=$(measure "$mode" "$LOG_DIR/$mode-$run.log") || exit 1
+        read -r first healthy <<< "$result"
+        printf '%-10s %4d %18s %18s\n' "$mode" "$run" "$first" "$healthy"
+        firsts+=("$first")
+        healthies+=("$healthy")
+    done
+    SUMMARY[$mode]="$(summarize "${firsts[@]}") $(summarize "${healthies[@]}")"
+done
+
+echo
+printf '%-10s %18s %18s %18s %18s\n' mode first-median-ms first-min-ms healthy-median-ms healthy-min-ms
+for mode in "${MODES[@]}"; do
+    read -r fm fmin hm hmin <<< "${SUMMARY[$mode]}"
+    printf '%-10s %18s %18s %18s %18s\n' "$mode" "$fm" "$fmin" "$hm" "$hmin"
+done
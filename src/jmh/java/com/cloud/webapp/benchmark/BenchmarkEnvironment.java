@@ -0,0 +1,144 @@
+package com.cloud.webapp.benchmark;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.hibernate.SessionFactory;
+
+import com.cloud.webapp.controller.S3Controller;
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.dao.FileVariantDAO;
+import com.cloud.webapp.dao.HealthDAO;
+import com.cloud.webapp.service.FileContentCache;
+import com.cloud.webapp.service.FileMetadataCache;
+import com.cloud.webapp.service.FileService;
+import com.cloud.webapp.service.HealthService;
+import com.cloud.webapp.service.ImageVariantService;
+import com.cloud.webapp.service.S3Resilience;
+import com.cloud.webapp.service.UploadJournal;
+import com.cloud.webapp.service.UploadRecovery;
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.HibernateUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The production service graph wired by hand: the same DAOs, caches, services and
+ * controller the application uses, with MySQL replaced by an in-memory H2 database (MySQL
+ * mode) and S3 by {@link InMemoryS3Client}. Settings mirror the defaults in
+ * application.properties.
+ */
+final class BenchmarkEnvironment implements AutoCloseable {
+
+	static final String BUCKET = "benchmark-bucket";
+
+	final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	final InMemoryS3Client s3Client;
+	final HikariDataSource dataSource;
+	final SessionFactory sessionFactory;
+	final Bulkhead s3Bulkhead;
+	final Bulkhead s3ReadBulkhead;
+	final Bulkhead dbBulkhead;
+	final Bulkhead healthBulkhead;
+	final Bulkhead imageBulkhead;
+	final Bulkhead uploadPartBulkhead;
+	final Bulkhead batchUploadBulkhead;
+	final Bulkhead asyncIoBulkhead;
+	final FileDAO fileDAO;
+	final FileVariantDAO fileVariantDAO;
+	final HealthDAO healthDAO;
+	final FileMetadataCache fileCache;
+	final FileContentCache contentCache;
+	final ImageVariantService imageVariants;
+	final Path journalDir;
+	final UploadJournal uploadJournal;
+	final UploadRecovery uploadRecovery;
+	final S3Resilience s3Resilience;
+	final FileService fileService;
+	final HealthService healthService;
+	final S3Controller s3Controller;
+
+	BenchmarkEnvironment(boolean retainContent) {
+		s3Client = new InMemoryS3Client(retainContent);
+
+		HikariConfig poolConfig = new HikariConfig();
+		poolConfig.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		poolConfig.setMaximumPoolSize(10);
+		poolConfig.setMinimumIdle(2);
+		dataSource = new HikariDataSource(poolConfig);
+
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		overrides.put("hibernate.show-sql", "false");
+		overrides.put("hibernate.jdbc.batch_size", "50");
+		overrides.put("hibernate.order_inserts", "true");
+		sessionFactory = HibernateUtil.buildSessionFactory(dataSource, overrides);
+
+		s3Bulkhead = new Bulkhead("s3", 24, 16, 300000, meterRegistry);
+		s3ReadBulkhead = new Bulkhead("s3-read", 16, 8, 300000, meterRegistry);
+		dbBulkhead = new Bulkhead("db", 8, 24, 10000, meterRegistry);
+		healthBulkhead = new Bulkhead("health", 1, 1, 5000, meterRegistry);
+		imageBulkhead = new Bulkhead("image", 2, 100, 60000, meterRegistry);
+		uploadPartBulkhead = new Bulkhead("upload-part", 16, 64, 300000, meterRegistry);
+		batchUploadBulkhead = new Bulkhead("batch-upload", 8, 200, 300000, meterRegistry);
+		asyncIoBulkhead = new Bulkhead("async-io", 8, 64, 300000, meterRegistry);
+		fileDAO = new FileDAO(sessionFactory, dbBulkhead, 500, meterRegistry);
+		fileVariantDAO = new FileVariantDAO(sessionFactory, dbBulkhead, meterRegistry);
+		healthDAO = new HealthDAO(sessionFactory, healthBulkhead, meterRegistry);
+		fileCache = new FileMetadataCache(10000, 3600, 10000, 30, meterRegistry);
+		try {
+			journalDir = Files.createTempDirectory("upload-journal");
+			uploadJournal = new UploadJournal(new ObjectMapper(), true, journalDir.resolve("upload-journal.log").toString(),
+					8L * 1024 * 1024, meterRegistry);
+			// Memory tier only; the disk tier would leave files in the temporary directory
+			contentCache = new FileContentCache(true, 64L * 1024 * 1024, 256 * 1024, 16L * 1024 * 1024,
+					journalDir.resolve("content-cache").toString(), 0, 0, meterRegistry);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		imageVariants = new ImageVariantService(fileVariantDAO, s3Client, imageBulkhead, BUCKET, true,
+				new int[] {160, 480, 1024}, 20L * 1024 * 1024, 40000000, 0.8f, 10000, 30, meterRegistry);
+		uploadRecovery = new UploadRecovery(uploadJournal, fileDAO, fileCache, s3Client, s3Bulkhead, BUCKET,
+				21600000, meterRegistry);
+		s3Resilience = new S3Resilience(s3Client, Optional.empty(), s3Bulkhead, s3ReadBulkhead, 30000, 3, 25, 0.1, 20, true, 0.95, 10, 1000,
+				0.5, 50, 20, 10000, meterRegistry);
+		fileService = new FileService(fileDAO, fileCache, contentCache, imageVariants, s3Client, s3Bulkhead, s3Resilience, uploadJournal, uploadRecovery, BUCKET,
+				8L * 1024 * 1024, 4, 16L * 1024 * 1024, uploadPartBulkhead, false, asyncIoBulkhead, batchUploadBulkhead, meterRegistry);
+		healthService = new HealthService(healthDAO, 2, 30000, meterRegistry);
+		s3Controller = new S3Controller(BUCKET, s3Client, s3Bulkhead, fileService, 100, 10000, 65536, 86400,
+				new ObjectMapper(), meterRegistry);
+	}
+
+	@Override
+	public void close() {
+		try {
+			uploadJournal.close();
+			Files.deleteIfExists(journalDir.resolve("upload-journal.log"));
+			Files.deleteIfExists(journalDir);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		s3Bulkhead.shutdown();
+		s3ReadBulkhead.shutdown();
+		dbBulkhead.shutdown();
+		healthBulkhead.shutdown();
+		imageBulkhead.shutdown();
+		uploadPartBulkhead.shutdown();
+		batchUploadBulkhead.shutdown();
+		asyncIoBulkhead.shutdown();
+		sessionFactory.close();
+		dataSource.close();
+		s3Client.close();
+		meterRegistry.close();
+	}
+}
@@ -0,0 +1,31 @@
+package com.cloud.webapp.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH entry point taking the usual JMH command line. Always attaches the GC profiler, so
+ * every result carries gc.alloc.rate and gc.alloc.rate.norm (bytes per operation) next to
+ * throughput and the latency percentiles, and writes JSON to target/jmh-result.json unless
+ * -rff is given, so two runs can be compared.
+ */
+public final class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class);
+		if (!commandLine.getResult().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON).result("target/jmh-result.json");
+		}
+		new Runner(options.build()).run();
+	}
+}
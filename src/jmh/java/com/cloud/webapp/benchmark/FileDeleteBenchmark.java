@@ -0,0 +1,57 @@
+package com.cloud.webapp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+
+/**
+ * {@link com.cloud.webapp.service.FileService#deleteFile}: lookup, reference-counted row
+ * delete and object removal. Every invocation needs a file of its own, so one is uploaded
+ * in a per-invocation setup; that is acceptable here because a delete costs a database
+ * transaction, far above the per-invocation timing overhead.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class FileDeleteBenchmark {
+
+	private BenchmarkEnvironment env;
+	private long sequence;
+	private String id;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		env = new BenchmarkEnvironment(false);
+	}
+
+	@Setup(Level.Invocation)
+	public void upload() throws Exception {
+		byte[] content = ("delete-" + ++sequence).getBytes();
+		id = env.fileService.uploadFile(new MockMultipartFile("profilePic", "delete.txt", "text/plain", content)).getId();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		env.close();
+	}
+
+	@Benchmark
+	public boolean deleteFile() {
+		return env.fileService.deleteFile(id);
+	}
+}
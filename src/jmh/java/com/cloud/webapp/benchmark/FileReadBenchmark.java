@@ -0,0 +1,83 @@
+package com.cloud.webapp.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockMultipartFile;
+
+import com.cloud.webapp.model.File;
+
+/**
+ * Metadata reads: {@code getFileById} served from the cache and from the database, and the
+ * controller's GET /v1/file/{id} and /v1/file/list response building on top of them.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileReadBenchmark {
+
+	private static final int FILES = 1000;
+
+	private BenchmarkEnvironment env;
+	private String[] ids;
+	private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		env = new BenchmarkEnvironment(false);
+		ids = new String[FILES];
+		for (int i = 0; i < FILES; i++) {
+			byte[] content = ("file-" + i).getBytes();
+			ids[i] = env.fileService.uploadFile(new MockMultipartFile("profilePic", "file-" + i + ".txt", "text/plain", content)).getId();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		env.close();
+	}
+
+	private String randomId() {
+		return ids[ThreadLocalRandom.current().nextInt(FILES)];
+	}
+
+	@Benchmark
+	public File getFileByIdCached() {
+		return env.fileService.getFileById(randomId());
+	}
+
+	// Evicting first forces the primary-key lookup; the eviction itself is negligible
+	@Benchmark
+	public File getFileByIdUncached() {
+		String id = randomId();
+		env.fileCache.invalidate(id);
+		return env.fileService.getFileById(id);
+	}
+
+	@Benchmark
+	public ResponseEntity<?> controllerGetFile() {
+		return env.s3Controller.getFile(randomId(), request).join();
+	}
+
+	@Benchmark
+	public ResponseEntity<?> controllerListObjects() {
+		return env.s3Controller.listObjects(100, null, null, request);
+	}
+}
@@ -0,0 +1,86 @@
+package com.cloud.webapp.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+
+import com.cloud.webapp.model.File;
+
+/**
+ * {@link com.cloud.webapp.service.FileService#uploadFile} at several payload sizes: hashing,
+ * the dedup lookup, the S3 transfer (single PUT below 16 MiB, multipart above) and the
+ * insert. {@code uploadUnique} changes the payload on every call so each upload is stored;
+ * {@code uploadDuplicate} repeats the same bytes and measures the deduplicated path.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileUploadBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class Environment {
+		BenchmarkEnvironment env;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			// Object bytes are discarded so long runs of large uploads do not fill the heap
+			env = new BenchmarkEnvironment(false);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			env.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Payload {
+		@Param({"1024", "1048576", "8388608", "33554432"})
+		int size;
+
+		byte[] content;
+		MockMultipartFile file;
+		long sequence;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			content = new byte[size];
+			ThreadLocalRandom.current().nextBytes(content);
+			file = new MockMultipartFile("profilePic", "payload-" + size + ".bin", "application/octet-stream", content);
+		}
+
+		// MockMultipartFile serves the array it was given, so rewriting its first bytes
+		// yields new content (and a new hash) without allocating another payload
+		MockMultipartFile unique() {
+			ByteBuffer.wrap(content).putLong(0, ++sequence ^ (Thread.currentThread().getId() << 48));
+			return file;
+		}
+	}
+
+	@Benchmark
+	public File uploadUnique(Environment environment, Payload payload) throws Exception {
+		return environment.env.fileService.uploadFile(payload.unique());
+	}
+
+	@Benchmark
+	public File uploadDuplicate(Environment environment, Payload payload) throws Exception {
+		return environment.env.fileService.uploadFile(payload.file);
+	}
+}
@@ -0,0 +1,52 @@
+package com.cloud.webapp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The background database probe (pool checkout plus {@code Connection.isValid}) and the
+ * /healthz read of its last result.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HealthBenchmark {
+
+	private BenchmarkEnvironment env;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		env = new BenchmarkEnvironment(false);
+		env.healthService.probe();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		env.close();
+	}
+
+	@Benchmark
+	public void probe() {
+		env.healthService.probe();
+	}
+
+	@Benchmark
+	public boolean isDbConnected() {
+		return env.healthService.isDbConnected();
+	}
+}
@@ -3,18 +3,33 @@ package com.cloud.webapp;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
 @SpringBootApplication
+@EnableScheduling
 public class WebappApplication implements CommandLineRunner{
 
 	public static void main(String[] args) {
 		Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
-        // Set system properties so that Spring Boot can resolve placeholders
-        System.setProperty("S3_BUCKET_NAME", dotenv.get("S3_BUCKET_NAME"));
-        System.setProperty("AWS_REGION", dotenv.get("AWS_REGION"));
-		SpringApplication.run(WebappApplication.class, args);
+        // Set system properties so that Spring Boot can resolve placeholders; without a .env
+        // (AOT processing, CDS training) the defaults in application.properties apply
+        setIfPresent("S3_BUCKET_NAME", dotenv.get("S3_BUCKET_NAME"));
+        setIfPresent("AWS_REGION", dotenv.get("AWS_REGION"));
+		ConfigurableApplicationContext context = SpringApplication.run(WebappApplication.class, args);
+		// The faststart build starts the application once with -Dwebapp.exit-after-start and
+		// records the classes it loaded into a class-data-sharing archive when it exits
+		if (Boolean.getBoolean("webapp.exit-after-start")) {
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+
+	private static void setIfPresent(String key, String value) {
+		if (value != null) {
+			System.setProperty(key, value);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,91 @@
+package com.cloud.webapp.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.cloud.webapp.util.Bulkhead;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class BulkheadConfig {
+
+	// Blocking S3 calls made on behalf of requests (uploads, deletes, listings)
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead s3Bulkhead(@Value("${bulkhead.s3.threads:24}") int threads,
+	                           @Value("${bulkhead.s3.queue-capacity:16}") int queueCapacity,
+	                           @Value("${bulkhead.s3.timeout-ms:300000}") long timeoutMs,
+	                           MeterRegistry meterRegistry) {
+		return new Bulkhead("s3", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+
+	// GetObject attempts of content reads (S3Resilience), hedges included
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead s3ReadBulkhead(@Value("${bulkhead.s3-read.threads:16}") int threads,
+	                               @Value("${bulkhead.s3-read.queue-capacity:8}") int queueCapacity,
+	                               @Value("${bulkhead.s3-read.timeout-ms:300000}") long timeoutMs,
+	                               MeterRegistry meterRegistry) {
+		return new Bulkhead("s3-read", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+
+	// FileDAO queries. Keep the thread count below db.pool.maximum-size so the health
+	// probe can still get a connection while this bulkhead is saturated.
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead dbBulkhead(@Value("${bulkhead.db.threads:8}") int threads,
+	                           @Value("${bulkhead.db.queue-capacity:24}") int queueCapacity,
+	                           @Value("${bulkhead.db.timeout-ms:10000}") long timeoutMs,
+	                           MeterRegistry meterRegistry) {
+		return new Bulkhead("db", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+
+	// The background database probe; a probe still stuck when the next one is due is refused
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead healthBulkhead(@Value("${bulkhead.health.threads:1}") int threads,
+	                               @Value("${bulkhead.health.queue-capacity:1}") int queueCapacity,
+	                               @Value("${bulkhead.health.timeout-ms:5000}") long timeoutMs,
+	                               MeterRegistry meterRegistry) {
+		return new Bulkhead("health", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+
+	// Background image variant work (ImageVariantService); a full queue drops the work
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead imageBulkhead(@Value("${bulkhead.image.threads:2}") int threads,
+	                              @Value("${bulkhead.image.queue-capacity:100}") int queueCapacity,
+	                              @Value("${bulkhead.image.timeout-ms:60000}") long timeoutMs,
+	                              MeterRegistry meterRegistry) {
+		return new Bulkhead("image", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+
+	// Multipart part uploads (S3MultipartUploader); each upload has at most
+	// aws.s3.upload.parallelism parts queued or running here
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead uploadPartBulkhead(@Value("${aws.s3.upload.max-threads:16}") int threads,
+	                                   @Value("${aws.s3.upload.queue-capacity:64}") int queueCapacity,
+	                                   @Value("${bulkhead.s3.timeout-ms:300000}") long timeoutMs,
+	                                   MeterRegistry meterRegistry) {
+		return new Bulkhead("upload-part", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+
+	// Files of POST /v1/file/batch; every file of a request is queued at once, so keep the
+	// queue at or above aws.s3.upload.batch-max-files
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead batchUploadBulkhead(@Value("${aws.s3.upload.batch-concurrency:8}") int threads,
+	                                    @Value("${aws.s3.upload.batch-queue-capacity:200}") int queueCapacity,
+	                                    @Value("${bulkhead.s3.timeout-ms:300000}") long timeoutMs,
+	                                    MeterRegistry meterRegistry) {
+		return new Bulkhead("batch-upload", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+
+	// Stages of the non-blocking upload/delete path (aws.s3.async.enabled): request preparation,
+	// spooling bodies to disk and settling results. Database and S3 calls are handed to their
+	// own bulkheads and composed, never waited for, so a small pool serves many requests in
+	// flight; a full queue fails the request with 503 instead of piling up
+	@Bean(destroyMethod = "shutdown")
+	public Bulkhead asyncIoBulkhead(@Value("${aws.s3.async.io-threads:8}") int threads,
+	                                @Value("${aws.s3.async.queue-capacity:64}") int queueCapacity,
+	                                @Value("${bulkhead.s3.timeout-ms:300000}") long timeoutMs,
+	                                MeterRegistry meterRegistry) {
+		return new Bulkhead("async-io", threads, queueCapacity, timeoutMs, meterRegistry);
+	}
+}
@@ -0,0 +1,109 @@
+package com.cloud.webapp.config;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.boot.Metadata;
+import org.hibernate.exception.JDBCConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+
+import com.cloud.webapp.util.HibernateUtil;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class DatabaseConfig {
+
+	private static final Logger logger = LoggerFactory.getLogger(DatabaseConfig.class);
+
+	// One bounded pool for the whole application. Pool size, active/idle/pending
+	// connections, acquire/usage time and timeouts are published as hikaricp.* meters.
+	@Bean(destroyMethod = "close")
+	public HikariDataSource dataSource(@Value("${db.pool.name:webapp-pool}") String poolName,
+	                                   @Value("${db.pool.maximum-size:10}") int maximumPoolSize,
+	                                   @Value("${db.pool.minimum-idle:2}") int minimumIdle,
+	                                   @Value("${db.pool.connection-timeout-ms:5000}") long connectionTimeoutMs,
+	                                   @Value("${db.pool.idle-timeout-ms:600000}") long idleTimeoutMs,
+	                                   @Value("${db.pool.max-lifetime-ms:1800000}") long maxLifetimeMs,
+	                                   @Value("${db.pool.leak-detection-threshold-ms:0}") long leakDetectionThresholdMs,
+	                                   MeterRegistry meterRegistry) {
+		HikariConfig config = HibernateUtil.buildPoolConfig();
+		config.setPoolName(poolName);
+		config.setMaximumPoolSize(maximumPoolSize);
+		config.setMinimumIdle(minimumIdle);
+		config.setConnectionTimeout(connectionTimeoutMs);
+		config.setIdleTimeout(idleTimeoutMs);
+		config.setMaxLifetime(maxLifetimeMs);
+		config.setLeakDetectionThreshold(leakDetectionThresholdMs);
+		// Do not fail startup when the database is down; /healthz reports it instead.
+		config.setInitializationFailTimeout(-1);
+		// Let the MySQL driver collapse JDBC batches into multi-row statements
+		config.addDataSourceProperty("rewriteBatchedStatements", "true");
+		config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+		return new HikariDataSource(config);
+	}
+
+	// schema-action is hibernate.hbm2ddl.auto: update migrates on every start, validate
+	// (the faststart profile) only checks the mapped tables and fails startup on a mismatch.
+	// The action runs after the SessionFactory is built; when the database cannot be reached
+	// it is retried every schema-retry-ms instead of failing startup, and /healthz reports the
+	// database as down meanwhile.
+	@Bean(destroyMethod = "close")
+	public SessionFactory sessionFactory(DataSource dataSource,
+	                                     @Value("${db.hibernate.show-sql:true}") boolean showSql,
+	                                     @Value("${db.hibernate.jdbc-batch-size:50}") int jdbcBatchSize,
+	                                     @Value("${db.hibernate.schema-action:update}") String schemaAction,
+	                                     @Value("${db.hibernate.schema-retry-ms:10000}") long schemaRetryMs,
+	                                     TaskScheduler taskScheduler) {
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("hibernate.hbm2ddl.auto", "none");
+		overrides.put("hibernate.show-sql", String.valueOf(showSql));
+		overrides.put("hibernate.jdbc.batch_size", String.valueOf(jdbcBatchSize));
+		overrides.put("hibernate.order_inserts", "true");
+		Metadata metadata = HibernateUtil.buildMetadata(dataSource, overrides);
+		SessionFactory sessionFactory = metadata.getSessionFactoryBuilder().build();
+		if (!applySchemaAction(metadata, sessionFactory, schemaAction)) {
+			AtomicReference<ScheduledFuture<?>> retry = new AtomicReference<>();
+			retry.set(taskScheduler.scheduleWithFixedDelay(() -> {
+				boolean done;
+				try {
+					done = applySchemaAction(metadata, sessionFactory, schemaAction);
+				} catch (RuntimeException e) {
+					// e.g. validate found a mismatch; retrying cannot fix that
+					logger.error("Schema action '{}' failed", schemaAction, e);
+					done = true;
+				}
+				if (done) {
+					retry.get().cancel(false);
+				}
+			}, Instant.now().plusMillis(schemaRetryMs), Duration.ofMillis(schemaRetryMs)));
+		}
+		return sessionFactory;
+	}
+
+	// false when no connection could be opened; any other failure is thrown
+	private static boolean applySchemaAction(Metadata metadata, SessionFactory sessionFactory, String schemaAction) {
+		try {
+			HibernateUtil.applySchemaAction(metadata, sessionFactory, schemaAction);
+			return true;
+		} catch (JDBCConnectionException e) {
+			logger.warn("Database unreachable, schema action '{}' deferred: {}", schemaAction, e.getMessage());
+			return false;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.cloud.webapp.config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+/**
+ * Turns the SDK's per-request HTTP metrics into Micrometer meters, one set per connection
+ * pool. Each request attempt reports the pool state it saw when acquiring a connection;
+ * the latest values are published as s3.http.connections{pool,state=leased|available|
+ * pending|max} and the time spent waiting for a connection as s3.http.connection.acquire.
+ * Leased close to max with a growing acquire time means the pool is too small for the
+ * concurrency actually reaching S3.
+ */
+@Component
+public class S3ClientMetrics {
+
+	private final MeterRegistry meterRegistry;
+	private final Map<String, PoolPublisher> publishers = new ConcurrentHashMap<>();
+
+	public S3ClientMetrics(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	/** The publisher for {@code pool}; clients sharing an HTTP client share its publisher. */
+	public MetricPublisher publisher(String pool) {
+		return publishers.computeIfAbsent(pool, PoolPublisher::new);
+	}
+
+	private final class PoolPublisher implements MetricPublisher {
+
+		private final AtomicInteger leased = new AtomicInteger();
+		private final AtomicInteger available = new AtomicInteger();
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicInteger max = new AtomicInteger();
+		private final Timer acquire;
+
+		PoolPublisher(String pool) {
+			gauge(pool, "leased", leased);
+			gauge(pool, "available", available);
+			gauge(pool, "pending", pending);
+			gauge(pool, "max", max);
+			this.acquire = Timer.builder("s3.http.connection.acquire")
+					.tag("pool", pool)
+					.description("Time a request attempt waited for a pooled connection")
+					.register(meterRegistry);
+		}
+
+		private void gauge(String pool, String state, AtomicInteger value) {
+			Gauge.builder("s3.http.connections", value, AtomicInteger::get)
+					.tag("pool", pool)
+					.tag("state", state)
+					.register(meterRegistry);
+		}
+
+		@Override
+		public void publish(MetricCollection metrics) {
+			update(metrics, HttpMetric.LEASED_CONCURRENCY, leased);
+			update(metrics, HttpMetric.AVAILABLE_CONCURRENCY, available);
+			update(metrics, HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pending);
+			update(metrics, HttpMetric.MAX_CONCURRENCY, max);
+			metrics.metricValues(HttpMetric.CONCURRENCY_ACQUIRE_DURATION).forEach(acquire::record);
+			// ApiCall -> ApiCallAttempt -> HttpClient
+			metrics.children().forEach(this::publish);
+		}
+
+		private void update(MetricCollection metrics, SdkMetric<Integer> metric, AtomicInteger target) {
+			for (Integer value : metrics.metricValues(metric)) {
+				target.set(value);
+			}
+		}
+
+		@Override
+		public void close() {
+			// Meters stay registered; the registry owns them
+		}
+	}
+}
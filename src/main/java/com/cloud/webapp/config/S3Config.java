@@ -0,0 +1,124 @@
+package com.cloud.webapp.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Every S3 client in the application. Blocking clients share one Apache connection pool;
+ * with aws.s3.async.enabled the non-blocking client gets one Netty pool. Both pools are
+ * sized and timed out by the aws.s3.http.* properties and report their state through
+ * {@link S3ClientMetrics} (pool=sync|async).
+ */
+@Configuration
+public class S3Config {
+
+	// The clients do not own their HTTP client, so it is closed here rather than by them
+	@Bean(destroyMethod = "close")
+	public SdkHttpClient s3HttpClient(@Value("${aws.s3.http.max-connections:64}") int maxConnections,
+	                                  @Value("${aws.s3.http.connection-acquisition-timeout-ms:2000}") long acquisitionTimeoutMs,
+	                                  @Value("${aws.s3.http.connection-timeout-ms:2000}") long connectionTimeoutMs,
+	                                  @Value("${aws.s3.http.socket-timeout-ms:30000}") long socketTimeoutMs,
+	                                  @Value("${aws.s3.http.connection-max-idle-ms:60000}") long maxIdleMs,
+	                                  @Value("${aws.s3.http.connection-ttl-ms:0}") long ttlMs,
+	                                  @Value("${aws.s3.http.tcp-keep-alive:true}") boolean tcpKeepAlive) {
+		ApacheHttpClient.Builder builder = ApacheHttpClient.builder()
+				.maxConnections(maxConnections)
+				.connectionAcquisitionTimeout(Duration.ofMillis(acquisitionTimeoutMs))
+				.connectionTimeout(Duration.ofMillis(connectionTimeoutMs))
+				.socketTimeout(Duration.ofMillis(socketTimeoutMs))
+				.connectionMaxIdleTime(Duration.ofMillis(maxIdleMs))
+				.useIdleConnectionReaper(true)
+				.tcpKeepAlive(tcpKeepAlive);
+		// 0 keeps connections until idle; a limit makes long-lived pools pick up DNS changes
+		if (ttlMs > 0) {
+			builder.connectionTimeToLive(Duration.ofMillis(ttlMs));
+		}
+		return builder.build();
+	}
+
+	// The client shared by every component that talks to the bucket; components take it
+	// as a constructor argument so it can be replaced. Keeps the SDK's default retries.
+	@Bean(destroyMethod = "close")
+	@Primary
+	public S3Client s3Client(@Value("${aws.region}") String region, SdkHttpClient s3HttpClient,
+	                         S3ClientMetrics s3ClientMetrics) {
+		return S3Client.builder()
+				.region(Region.of(region))
+				.credentialsProvider(DefaultCredentialsProvider.create())
+				.httpClient(s3HttpClient)
+				.overrideConfiguration(config -> config.addMetricPublisher(s3ClientMetrics.publisher("sync")))
+				.build();
+	}
+
+	// Used by S3Resilience for request-path reads and deletes, which it retries within a
+	// budget itself; SDK retries underneath would multiply the attempts.
+	@Bean(destroyMethod = "close")
+	public S3Client s3RequestClient(@Value("${aws.region}") String region, SdkHttpClient s3HttpClient,
+	                                S3ClientMetrics s3ClientMetrics) {
+		return S3Client.builder()
+				.region(Region.of(region))
+				.credentialsProvider(DefaultCredentialsProvider.create())
+				.httpClient(s3HttpClient)
+				.overrideConfiguration(config -> config
+						.retryPolicy(RetryPolicy.none())
+						.addMetricPublisher(s3ClientMetrics.publisher("sync")))
+				.build();
+	}
+
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(name = "aws.s3.async.enabled", havingValue = "true")
+	public SdkAsyncHttpClient s3AsyncHttpClient(@Value("${aws.s3.http.max-connections:64}") int maxConcurrency,
+	                                            @Value("${aws.s3.http.max-pending-acquires:1000}") int maxPendingAcquires,
+	                                            @Value("${aws.s3.http.connection-acquisition-timeout-ms:2000}") long acquisitionTimeoutMs,
+	                                            @Value("${aws.s3.http.connection-timeout-ms:2000}") long connectionTimeoutMs,
+	                                            @Value("${aws.s3.http.socket-timeout-ms:30000}") long socketTimeoutMs,
+	                                            @Value("${aws.s3.http.connection-max-idle-ms:60000}") long maxIdleMs,
+	                                            @Value("${aws.s3.http.connection-ttl-ms:0}") long ttlMs,
+	                                            @Value("${aws.s3.http.tcp-keep-alive:true}") boolean tcpKeepAlive) {
+		NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+				.maxConcurrency(maxConcurrency)
+				.maxPendingConnectionAcquires(maxPendingAcquires)
+				.connectionAcquisitionTimeout(Duration.ofMillis(acquisitionTimeoutMs))
+				.connectionTimeout(Duration.ofMillis(connectionTimeoutMs))
+				.readTimeout(Duration.ofMillis(socketTimeoutMs))
+				.writeTimeout(Duration.ofMillis(socketTimeoutMs))
+				.connectionMaxIdleTime(Duration.ofMillis(maxIdleMs))
+				.useIdleConnectionReaper(true)
+				.tcpKeepAlive(tcpKeepAlive);
+		if (ttlMs > 0) {
+			builder.connectionTimeToLive(Duration.ofMillis(ttlMs));
+		}
+		return builder.build();
+	}
+
+	// Only used through S3Resilience, which retries itself; SDK retries are disabled as for
+	// s3RequestClient
+	@Bean(destroyMethod = "close")
+	@ConditionalOnProperty(name = "aws.s3.async.enabled", havingValue = "true")
+	public S3AsyncClient s3AsyncClient(@Value("${aws.region}") String region, SdkAsyncHttpClient s3AsyncHttpClient,
+	                                   S3ClientMetrics s3ClientMetrics) {
+		return S3AsyncClient.builder()
+				.region(Region.of(region))
+				.credentialsProvider(DefaultCredentialsProvider.create())
+				.httpClient(s3AsyncHttpClient)
+				.overrideConfiguration(config -> config
+						.retryPolicy(RetryPolicy.none())
+						.addMetricPublisher(s3ClientMetrics.publisher("async")))
+				.build();
+	}
+}
@@ -0,0 +1,19 @@
+package com.cloud.webapp.controller;
+
+import com.cloud.webapp.model.File;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * JSON body for a single file's metadata. Serialized straight from the record, so there
+ * is no per-request map to build and the field order is stable.
+ */
+public record FileMetadataResponse(@JsonProperty("file_name") String fileName,
+                                   @JsonProperty("id") String id,
+                                   @JsonProperty("url") String url,
+                                   @JsonProperty("upload_date") String uploadDate) {
+
+	public static FileMetadataResponse of(File file) {
+		return new FileMetadataResponse(file.getFileName(), file.getId(), file.getUrl(),
+				file.getUploadDate().toString());
+	}
+}
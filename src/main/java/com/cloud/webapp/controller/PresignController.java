@@ -0,0 +1,133 @@
+package com.cloud.webapp.controller;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.service.FileService;
+import com.cloud.webapp.service.PresignService;
+import com.cloud.webapp.service.PresignedUrl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+
+// Opt-in direct-to-S3 flow (aws.s3.presign.enabled); every endpoint answers 404 when disabled
+@RestController
+@RequestMapping("/v1/file")
+class PresignController {
+
+	private static final Logger logger = LoggerFactory.getLogger(PresignController.class);
+	private static final int MAX_FILE_NAME_LENGTH = 255;
+
+	private final PresignService presignService;
+	private final FileService fileService;
+	private final Timer presignUploadTimer;
+	private final Timer completeUploadTimer;
+	private final Timer presignDownloadTimer;
+
+	public PresignController(PresignService presignService, FileService fileService, MeterRegistry meterRegistry) {
+		this.presignService = presignService;
+		this.fileService = fileService;
+		this.presignUploadTimer = meterRegistry.timer("api.s3.presign.upload.timer");
+		this.completeUploadTimer = meterRegistry.timer("api.s3.presign.complete.timer");
+		this.presignDownloadTimer = meterRegistry.timer("api.s3.presign.download.timer");
+	}
+
+	// Body: {"file_name": "...", "content_type": "..."}; returns the id and a presigned PUT url
+	@PostMapping("/presign")
+	public ResponseEntity<?> presignUpload(@RequestBody Map<String, String> body, HttpServletRequest request) {
+		return presignUploadTimer.record(() -> {
+		if (!presignService.isEnabled()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		String fileName = body.get("file_name");
+		if (!request.getParameterMap().isEmpty() || !isValidFileName(fileName)) {
+			logger.warn("Presigned upload request rejected: invalid body or query parameters");
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+		}
+		PresignedUrl presigned = presignService.presignUpload(fileName, body.get("content_type"));
+		Map<String, String> response = new HashMap<>();
+		response.put("id", presigned.id());
+		response.put("file_name", fileName);
+		response.put("upload_url", presigned.url());
+		response.put("expires_at", presigned.expiresAt().toString());
+		return ResponseEntity.status(HttpStatus.CREATED).body(response);
+		});
+	}
+
+	// Body: {"file_name": "..."}; called after the client's PUT to the presigned url succeeded
+	@PostMapping("/{id}/complete")
+	public ResponseEntity<?> completeUpload(@PathVariable("id") String id, @RequestBody Map<String, String> body,
+	                                        HttpServletRequest request) {
+		return completeUploadTimer.record(() -> {
+		if (!presignService.isEnabled()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		String fileName = body.get("file_name");
+		if (!request.getParameterMap().isEmpty() || !isUuid(id) || !isValidFileName(fileName)) {
+			logger.warn("Upload completion rejected: id={}", id);
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+		}
+		File fileEntity = presignService.completeUpload(id, fileName);
+		if (fileEntity == null) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		Map<String, String> response = new HashMap<>();
+		response.put("file_name", fileEntity.getFileName());
+		response.put("id", fileEntity.getId());
+		response.put("url", fileEntity.getUrl());
+		response.put("upload_date", fileEntity.getUploadDate().toString());
+		return ResponseEntity.status(HttpStatus.CREATED).body(response);
+		});
+	}
+
+	@GetMapping("/{id}/download-url")
+	public ResponseEntity<?> presignDownload(@PathVariable("id") String id, HttpServletRequest request) {
+		return presignDownloadTimer.record(() -> {
+		if (!presignService.isEnabled()) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		if (!request.getParameterMap().isEmpty()) {
+			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+		}
+		File fileEntity = fileService.getFileById(id);
+		if (fileEntity == null) {
+			return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+		}
+		PresignedUrl presigned = presignService.presignDownload(fileEntity);
+		Map<String, String> response = new HashMap<>();
+		response.put("id", presigned.id());
+		response.put("download_url", presigned.url());
+		response.put("expires_at", presigned.expiresAt().toString());
+		return ResponseEntity.ok()
+				.header("Cache-Control", "no-store")
+				.body(response);
+		});
+	}
+
+	private static boolean isValidFileName(String fileName) {
+		return fileName != null && !fileName.isBlank() && fileName.length() <= MAX_FILE_NAME_LENGTH
+				&& !fileName.contains("/");
+	}
+
+	private static boolean isUuid(String id) {
+		try {
+			return UUID.fromString(id).toString().equals(id);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+}
@@ -3,41 +3,72 @@ package com.cloud.webapp.controller;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.cloud.webapp.dao.FileListQuery;
+import com.cloud.webapp.exceptions.BulkheadFullException;
+import com.cloud.webapp.exceptions.CircuitOpenException;
 import com.cloud.webapp.model.File;
+import com.cloud.webapp.model.FileVariant;
+import com.cloud.webapp.service.BatchDeleteResult;
+import com.cloud.webapp.service.BatchUploadResult;
+import com.cloud.webapp.service.FileContentCache;
 import com.cloud.webapp.service.FileService;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.FileETags;
+import com.cloud.webapp.util.MetricTags;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 import org.springframework.web.bind.annotation.RestController;
 
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
-import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
-import software.amazon.awssdk.services.s3.model.ListObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
 import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
@@ -48,18 +79,44 @@ import software.amazon.awssdk.services.s3.model.S3Object;
 public class S3Controller {
 
     private final S3Client s3Client;
+    private final Bulkhead s3Bulkhead;
     private final String bucketName;
+    private final ObjectMapper objectMapper;
     private static final Logger logger = LoggerFactory.getLogger(S3Controller.class);
 
+    private static final int MAX_LIST_PAGE_SIZE = 1000;
+    private static final Set<String> LIST_PARAMS = Set.of("limit", "prefix", "continuationToken", "stream");
+    private static final Set<String> METADATA_LIST_PARAMS = Set.of("limit", "prefix", "from", "to", "continuationToken");
+    private static final Set<String> METADATA_STREAM_PARAMS = Set.of("prefix", "from", "to", "continuationToken", "stream");
+    private static final Set<String> CONTENT_PARAMS = Set.of("width");
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     
+    // Request timers are tagged with the response status and outcome when stopped
+    private static final String LIST_TIMER = "api.s3.list.timer";
+    private static final String METADATA_LIST_TIMER = "api.s3.metadata.list.timer";
+    private static final String UPLOAD_TIMER = "api.s3.upload.timer";
+    private static final String BATCH_UPLOAD_TIMER = "api.s3.upload.batch.timer";
+    private static final String GET_TIMER = "api.s3.get.timer";
+    private static final String CONTENT_TIMER = "api.s3.content.timer";
+    private static final String DELETE_TIMER = "api.s3.delete.timer";
+    private static final String BATCH_DELETE_TIMER = "api.s3.delete.batch.timer";
+
     private final Counter listObjectsCounter;
-    private final Timer listObjectsTimer;
+    private final Counter metadataListCounter;
     private final Counter uploadFileCounter;
-    private final Timer uploadFileTimer;
     private final Counter getFileCounter;
-    private final Timer getFileTimer;
+    private final Counter notModifiedCounter;
+    private final CacheControl metadataCacheControl;
+    private final Counter batchUploadCounter;
+    private final int maxBatchFiles;
+    private final Counter batchDeleteCounter;
+    private final int maxBatchDeleteIds;
+    private final Counter getContentCounter;
+    private final int downloadBufferSize;
+    private final DistributionSummary downloadedBytes;
     private final Counter deleteFileCounter;
-    private final Timer deleteFileTimer;
+    private final MeterRegistry meterRegistry;
     
     @Autowired
     FileService fileService;
@@ -69,86 +126,339 @@ public class S3Controller {
     }
 
     public S3Controller(@Value("${aws.s3.bucket}") String bucketName,
-                        @Value("${aws.region}") String region,FileService fileService,
-                        MeterRegistry meterRegistry) {
+                        S3Client s3Client, @Qualifier("s3Bulkhead") Bulkhead s3Bulkhead, FileService fileService,
+                        @Value("${aws.s3.upload.batch-max-files:100}") int maxBatchFiles,
+                        @Value("${aws.s3.delete.batch-max-ids:10000}") int maxBatchDeleteIds,
+                        @Value("${aws.s3.download.buffer-size:65536}") int downloadBufferSize,
+                        @Value("${file.http.max-age-seconds:86400}") long metadataMaxAgeSeconds,
+                        ObjectMapper objectMapper, MeterRegistry meterRegistry) {
         this.bucketName = bucketName;
-        this.s3Client = S3Client.builder()
-                .region(Region.of(region))
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+        this.objectMapper = objectMapper;
+        this.s3Client = s3Client;
+        this.s3Bulkhead = s3Bulkhead;
         this.fileService = fileService;
         this.listObjectsCounter = meterRegistry.counter("api.s3.list.count");
-        this.listObjectsTimer = meterRegistry.timer("api.s3.list.timer");
+        this.metadataListCounter = meterRegistry.counter("api.s3.metadata.list.count");
         this.uploadFileCounter = meterRegistry.counter("api.s3.upload.count");
-        this.uploadFileTimer = meterRegistry.timer("api.s3.upload.timer");
+        this.batchUploadCounter = meterRegistry.counter("api.s3.upload.batch.count");
+        this.maxBatchFiles = maxBatchFiles;
+        this.batchDeleteCounter = meterRegistry.counter("api.s3.delete.batch.count");
+        this.maxBatchDeleteIds = maxBatchDeleteIds;
         this.getFileCounter = meterRegistry.counter("api.s3.get.count");
-        this.getFileTimer = meterRegistry.timer("api.s3.get.timer");
+        this.notModifiedCounter = meterRegistry.counter("api.s3.get.not_modified.count");
+        this.metadataCacheControl = CacheControl.maxAge(Duration.ofSeconds(metadataMaxAgeSeconds))
+                .cachePublic().immutable();
+        this.getContentCounter = meterRegistry.counter("api.s3.content.count");
+        this.downloadedBytes = DistributionSummary.builder("s3.download.bytes")
+                .baseUnit("bytes").register(meterRegistry);
+        this.downloadBufferSize = downloadBufferSize;
         this.deleteFileCounter = meterRegistry.counter("api.s3.delete.count");
-        this.deleteFileTimer = meterRegistry.timer("api.s3.delete.timer");
+        this.meterRegistry = meterRegistry;
     }
 
-    // Endpoint to list all objects in the bucket
+    // Endpoint to list objects in the bucket, one page at a time. The body stays a JSON
+    // array of keys; when more keys exist the token for the next page is returned in the
+    // X-Continuation-Token header.
     @GetMapping("/list")
-    public ResponseEntity<List<String>> listObjects(HttpServletRequest request) {
-    	return listObjectsTimer.record(() -> {
+    public ResponseEntity<List<String>> listObjects(@RequestParam(value = "limit", required = false) Integer limit,
+                                                    @RequestParam(value = "prefix", required = false) String prefix,
+                                                    @RequestParam(value = "continuationToken", required = false) String continuationToken,
+                                                    HttpServletRequest request) {
+    	return timed(LIST_TIMER, () -> {
     	listObjectsCounter.increment();
-    	logger.info("Listing S3 bucket objects requested");
-    	if (hasExtraQueryParams(request)) {
+    	logger.info("Listing S3 bucket objects requested: prefix={}, limit={}", prefix, limit);
+    	if (hasUnknownListParams(request) || (limit != null && (limit < 1 || limit > MAX_LIST_PAGE_SIZE))) {
     		logger.warn("List objects request has invalid query parameters");
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
         }
         try {
-            ListObjectsRequest listReq = ListObjectsRequest.builder()
+            ListObjectsV2Request listReq = ListObjectsV2Request.builder()
                     .bucket(bucketName)
+                    .prefix(prefix)
+                    .maxKeys(limit != null ? limit : MAX_LIST_PAGE_SIZE)
+                    .continuationToken(continuationToken)
                     .build();
-            ListObjectsResponse listRes = s3Client.listObjects(listReq);
+            ListObjectsV2Response listRes = s3Bulkhead.execute(() -> s3Client.listObjectsV2(listReq));
             List<String> keys = listRes.contents().stream()
                     .map(S3Object::key)
                     .collect(Collectors.toList());
             logger.info("Successfully retrieved {} objects from bucket", keys.size());
-            return ResponseEntity.ok(keys);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (listRes.nextContinuationToken() != null) {
+                response.header("X-Continuation-Token", listRes.nextContinuationToken());
+            }
+            return response.body(keys);
+        } catch (S3Exception e) {
+            if (e.statusCode() == 400) {
+                logger.warn("Invalid list request, e.g. a bad continuation token: {}", e.getMessage());
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST).<List<String>>build();
+            }
+            logger.error("Error listing objects in S3 bucket", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).<List<String>>build();
+        } catch (BulkheadFullException e) {
+        	logger.warn("List objects rejected: {}", e.getMessage());
+        	return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").<List<String>>build();
         } catch (Exception e) {
         	logger.error("Error listing objects in S3 bucket", e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).<List<String>>build();
         }
     	});
     }
-    
+
+    // Listing as NDJSON (one {"key","size","last_modified"} object per line), written
+    // page by page so memory stays constant regardless of the number of keys. Without a
+    // limit the whole listing is sent; with one, at most limit keys, followed by a
+    // {"next_continuation_token"} line when more keys exist. Every ListObjectsV2 page runs
+    // on the s3 bulkhead. The first page is read before the response is committed, so a
+    // bad token or a full bulkhead is still answered with a status code.
+    @GetMapping(value = "/list", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamObjects(@RequestParam(value = "limit", required = false) Integer limit,
+                                                               @RequestParam(value = "prefix", required = false) String prefix,
+                                                               @RequestParam(value = "continuationToken", required = false) String continuationToken,
+                                                               HttpServletRequest request) {
+    	listObjectsCounter.increment();
+    	logger.info("Streaming S3 bucket listing requested: prefix={}, limit={}", prefix, limit);
+    	if (hasUnknownListParams(request) || (limit != null && (limit < 1 || limit > MAX_LIST_PAGE_SIZE))) {
+    		logger.warn("List objects request has invalid query parameters");
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+    	long maxKeys = limit != null ? limit : Long.MAX_VALUE;
+    	ListObjectsV2Response firstPage;
+    	try {
+    		firstPage = listPage(prefix, continuationToken, maxKeys);
+    	} catch (S3Exception e) {
+    		if (e.statusCode() == 400) {
+    			logger.warn("Invalid list request, e.g. a bad continuation token: {}", e.getMessage());
+    			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    		}
+    		logger.error("Error streaming objects in S3 bucket", e);
+    		return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    	} catch (BulkheadFullException e) {
+    		logger.warn("List objects rejected: {}", e.getMessage());
+    		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").build();
+    	}
+    	StreamingResponseBody body = out -> {
+    		Timer.Sample sample = Timer.start(meterRegistry);
+    		long count = 0;
+    		int status = HttpStatus.OK.value();
+    		try {
+    			ListObjectsV2Response page = firstPage;
+    			while (true) {
+    				for (S3Object object : page.contents()) {
+    					writeNdjsonLine(out, object);
+    					count++;
+    				}
+    				out.flush();
+    				String next = page.nextContinuationToken();
+    				if (next == null) {
+    					break;
+    				}
+    				if (count >= maxKeys) {
+    					out.write(objectMapper.writeValueAsBytes(Map.of("next_continuation_token", next)));
+    					out.write('\n');
+    					break;
+    				}
+    				page = listPage(prefix, next, maxKeys - count);
+    			}
+    			logger.info("Streamed {} objects from bucket", count);
+    		} catch (Exception e) {
+    			logger.error("Error streaming objects in S3 bucket after {} keys", count, e);
+    			status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+    			throw e;
+    		} finally {
+    			stopTimer(sample, LIST_TIMER, status);
+    		}
+    	};
+    	return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    // One ListObjectsV2 call on the s3 bulkhead, asking for no more than the keys still wanted
+    private ListObjectsV2Response listPage(String prefix, String continuationToken, long keysWanted) {
+    	ListObjectsV2Request listReq = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .prefix(prefix)
+                .maxKeys((int) Math.min(keysWanted, MAX_LIST_PAGE_SIZE))
+                .continuationToken(continuationToken)
+                .build();
+    	return s3Bulkhead.execute(() -> s3Client.listObjectsV2(listReq));
+    }
+
+    private void writeNdjsonLine(OutputStream out, S3Object object) throws IOException {
+    	Map<String, Object> line = new LinkedHashMap<>();
+    	line.put("key", object.key());
+    	line.put("size", object.size());
+    	line.put("last_modified", String.valueOf(object.lastModified()));
+    	out.write(objectMapper.writeValueAsBytes(line));
+    	out.write('\n');
+    }
+
+    private boolean hasUnknownListParams(HttpServletRequest request) {
+    	return hasUnknownParams(request, LIST_PARAMS);
+    }
+
+    // File metadata listed from the database in (upload_date, id) order, optionally
+    // filtered by file name prefix and an inclusive upload date range (yyyy-MM-dd). Pages
+    // are keyset-paginated: when more rows exist, X-Continuation-Token holds the position
+    // of the last row returned, so deep pages cost the same as the first.
+    @GetMapping("/metadata")
+    public ResponseEntity<?> listFileMetadata(@RequestParam(value = "limit", required = false) Integer limit,
+                                              @RequestParam(value = "prefix", required = false) String prefix,
+                                              @RequestParam(value = "from", required = false) String from,
+                                              @RequestParam(value = "to", required = false) String to,
+                                              @RequestParam(value = "continuationToken", required = false) String continuationToken,
+                                              HttpServletRequest request) {
+    	return timed(METADATA_LIST_TIMER, () -> {
+    	metadataListCounter.increment();
+    	logger.info("File metadata listing requested: prefix={}, from={}, to={}, limit={}", prefix, from, to, limit);
+    	FileListQuery query = FileListQuery.parse(prefix, from, to, continuationToken);
+    	if (query == null || hasUnknownParams(request, METADATA_LIST_PARAMS)
+    			|| (limit != null && (limit < 1 || limit > MAX_LIST_PAGE_SIZE))) {
+    		logger.warn("File metadata listing request has invalid query parameters");
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    	}
+    	int pageSize = limit != null ? limit : MAX_LIST_PAGE_SIZE;
+    	// One extra row tells whether another page exists without a COUNT
+    	List<File> rows = fileService.listFiles(query, pageSize + 1);
+    	ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    	if (rows.size() > pageSize) {
+    		rows = rows.subList(0, pageSize);
+    		response.header("X-Continuation-Token", FileListQuery.continuationToken(rows.get(pageSize - 1)));
+    	}
+    	logger.info("Listed {} file metadata rows", rows.size());
+    	return response.body(rows.stream().map(FileMetadataResponse::of).collect(Collectors.toList()));
+    	});
+    }
+
+    // Every matching row as NDJSON, one metadata object per line, read from the database
+    // in keyset pages so neither side buffers the whole result.
+    @GetMapping(value = "/metadata", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamFileMetadata(@RequestParam(value = "prefix", required = false) String prefix,
+                                                                    @RequestParam(value = "from", required = false) String from,
+                                                                    @RequestParam(value = "to", required = false) String to,
+                                                                    @RequestParam(value = "continuationToken", required = false) String continuationToken,
+                                                                    HttpServletRequest request) {
+    	metadataListCounter.increment();
+    	logger.info("File metadata stream requested: prefix={}, from={}, to={}", prefix, from, to);
+    	FileListQuery query = FileListQuery.parse(prefix, from, to, continuationToken);
+    	if (query == null || hasUnknownParams(request, METADATA_STREAM_PARAMS)) {
+    		logger.warn("File metadata stream request has invalid query parameters");
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    	}
+    	StreamingResponseBody body = out -> {
+    		Timer.Sample sample = Timer.start(meterRegistry);
+    		int status = HttpStatus.OK.value();
+    		try {
+    			long count = fileService.streamFiles(query, file -> {
+    				try {
+    					out.write(objectMapper.writeValueAsBytes(FileMetadataResponse.of(file)));
+    					out.write('\n');
+    				} catch (IOException e) {
+    					throw new UncheckedIOException(e);
+    				}
+    			});
+    			out.flush();
+    			logger.info("Streamed {} file metadata rows", count);
+    		} catch (UncheckedIOException e) {
+    			logger.warn("File metadata stream aborted: {}", e.getMessage());
+    			status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+    			throw e.getCause();
+    		} catch (RuntimeException e) {
+    			logger.error("Error streaming file metadata", e);
+    			status = errorStatus(e);
+    			throw e;
+    		} finally {
+    			stopTimer(sample, METADATA_LIST_TIMER, status);
+    		}
+    	};
+    	return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    private static boolean hasUnknownParams(HttpServletRequest request, Set<String> allowed) {
+    	return request.getParameterMap().keySet().stream().anyMatch(name -> !allowed.contains(name));
+    }
+
+    // Upload, get and delete complete asynchronously: with aws.s3.async.enabled=true the
+    // request thread is released while S3 is working. Timers are stopped on completion so
+    // they still measure end-to-end latency.
     @PostMapping
-    public ResponseEntity<?> uploadFile(@RequestParam("profilePic") MultipartFile file, HttpServletRequest request) {
-    	return uploadFileTimer.record(() -> {
+    public CompletableFuture<ResponseEntity<?>> uploadFile(@RequestParam("profilePic") MultipartFile file, HttpServletRequest request) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
     	uploadFileCounter.increment();
     	logger.info("File upload initiated: filename={}", file.getOriginalFilename());
     	try {
             // For a multipart request, we expect no query parameters.
             if (hasExtraQueryParams(request)) {
             	logger.warn("File upload request has invalid query parameters");
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+                return completed(sample, UPLOAD_TIMER, ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
             }
             // Optionally, check that only one part (the "profilePic") is present.
             if (request.getParts() != null && request.getParts().size() != 1) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+                return completed(sample, UPLOAD_TIMER, ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
             }
         } catch (Exception ex) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+            return completed(sample, UPLOAD_TIMER, ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
         }
+    	return fileService.uploadFileAsync(file)
+    			.<ResponseEntity<?>>thenApply(savedFile -> {
+    				logger.info("File uploaded successfully: id={}", savedFile.getId());
+    				return ResponseEntity.status(HttpStatus.CREATED).body(FileMetadataResponse.of(savedFile));
+    			})
+    			.exceptionally(e -> {
+    				if (BulkheadFullException.isCause(e)) {
+    					logger.warn("File upload rejected: {}", e.getMessage());
+    					return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").build();
+    				}
+    				logger.error("Failed to upload file", e);
+    				return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    			})
+    			.whenComplete((response, error) -> stopTimer(sample, UPLOAD_TIMER, response, error,
+    					Tags.of(MetricTags.sizeClass(file.getSize()))));
+    }
+
+    // Many "files" parts in one request. Returns one result per part, in request order:
+    // 201 when every file was stored, 207 when only some were, 400 when none were.
+    @PostMapping("/batch")
+    public ResponseEntity<?> uploadFiles(@RequestParam("files") List<MultipartFile> files, HttpServletRequest request) {
+    	return timed(BATCH_UPLOAD_TIMER, () -> {
+    	batchUploadCounter.increment();
+    	logger.info("Batch file upload initiated: files={}", files.size());
     	try {
-            File savedFile = fileService.uploadFile(file);
-            logger.info("File uploaded successfully: id={}", savedFile.getId());
-            Map<String, String> response = new HashMap<>();
-            response.put("file_name", savedFile.getFileName());
-            response.put("id", savedFile.getId());
-            response.put("url", savedFile.getUrl());
-            response.put("upload_date", savedFile.getUploadDate().toString());
-            return ResponseEntity.status(HttpStatus.CREATED).body(response);
-        } catch (Exception e) {
-            e.printStackTrace();
-            logger.error("Failed to upload file", e);
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
-        }
+    		if (hasExtraQueryParams(request)) {
+    			logger.warn("Batch upload request has invalid query parameters");
+    			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    		}
+    		if (files.isEmpty() || files.size() > maxBatchFiles
+    				|| request.getParts().stream().anyMatch(part -> !"files".equals(part.getName()))) {
+    			logger.warn("Batch upload rejected: files={}, max={}", files.size(), maxBatchFiles);
+    			return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    		}
+    	} catch (Exception ex) {
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    	}
+    	List<BatchUploadResult> results = fileService.uploadFiles(files);
+    	List<Map<String, Object>> response = new ArrayList<>();
+    	long succeeded = 0;
+    	for (BatchUploadResult result : results) {
+    		Map<String, Object> item = new HashMap<>();
+    		item.put("file_name", result.fileName());
+    		if (result.succeeded()) {
+    			succeeded++;
+    			item.put("status", HttpStatus.CREATED.value());
+    			item.put("id", result.file().getId());
+    			item.put("url", result.file().getUrl());
+    			item.put("upload_date", result.file().getUploadDate().toString());
+    		} else {
+    			item.put("status", HttpStatus.BAD_REQUEST.value());
+    			item.put("error", result.error());
+    		}
+    		response.add(item);
+    	}
+    	logger.info("Batch file upload finished: succeeded={}, failed={}", succeeded, results.size() - succeeded);
+    	HttpStatus status = succeeded == results.size() ? HttpStatus.CREATED
+    			: succeeded == 0 ? HttpStatus.BAD_REQUEST : HttpStatus.MULTI_STATUS;
+    	return ResponseEntity.status(status).body(response);
     	});
     }
-
     
     @GetMapping
     public ResponseEntity<Void> getMethodNotAllowed() {
@@ -157,28 +467,252 @@ public class S3Controller {
     }
     
     @GetMapping("/{id}")
-    public ResponseEntity<?> getFile(@PathVariable("id") String id,HttpServletRequest request) {
-    	return getFileTimer.record(() -> {
+    public CompletableFuture<ResponseEntity<?>> getFile(@PathVariable("id") String id,HttpServletRequest request) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
     	getFileCounter.increment();
     	logger.info("File retrieval requested: id={}", id);
     	if (hasExtraQueryParams(request)) {
     		logger.warn("File retrieval request has invalid query parameters");
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
-        }
-        File fileEntity = fileService.getFileById(id);
-        if (fileEntity == null) {
-        	logger.warn("File not found: id={}", id);
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            return completed(sample, GET_TIMER, ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
         }
-        
-        logger.info("File retrieved successfully: id={}", id);
-        Map<String, String> response = new HashMap<>();
-        response.put("file_name", fileEntity.getFileName());
-        response.put("id", fileEntity.getId());
-        response.put("url", fileEntity.getUrl());
-        response.put("upload_date", fileEntity.getUploadDate().toString());
-        return ResponseEntity.ok(response);
-    	});
+    	// Tagged fields never change, so a cached row whose tag the client already holds is
+    	// answered without a lookup; without a cached row the database decides.
+    	String ifNoneMatch = request.getHeader("If-None-Match");
+    	if (ifNoneMatch != null) {
+    		File cached = fileService.getCachedFileById(id);
+    		if (cached != null) {
+    			String etag = FileETags.of(cached);
+    			if (FileETags.matches(ifNoneMatch, etag)) {
+    				logger.info("File metadata not modified: id={}", id);
+    				notModifiedCounter.increment();
+    				return completed(sample, GET_TIMER, notModified(etag, cached));
+    			}
+    		}
+    	}
+        return fileService.getFileByIdAsync(id)
+        		.<ResponseEntity<?>>thenApply(fileEntity -> {
+        			if (fileEntity == null) {
+        				logger.warn("File not found: id={}", id);
+        				return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        			}
+        			String etag = FileETags.of(fileEntity);
+        			Instant ifModifiedSince = ifModifiedSince(request);
+        			// If-Modified-Since is only consulted when If-None-Match is absent (RFC 9110)
+        			boolean unchanged = ifNoneMatch != null ? FileETags.matches(ifNoneMatch, etag)
+        					: ifModifiedSince != null && !lastModified(fileEntity).isAfter(ifModifiedSince);
+        			if (unchanged) {
+        				logger.info("File metadata not modified: id={}", id);
+        				notModifiedCounter.increment();
+        				return notModified(etag, fileEntity);
+        			}
+        			logger.info("File retrieved successfully: id={}", id);
+        			return ResponseEntity.ok()
+        					.eTag(etag)
+        					.lastModified(lastModified(fileEntity))
+        					.cacheControl(metadataCacheControl)
+        					.body(FileMetadataResponse.of(fileEntity));
+        		})
+        		.whenComplete((response, error) -> stopTimer(sample, GET_TIMER, response, error, Tags.empty()));
+    }
+
+
+    // Streams the object bytes through a fixed-size buffer. Range, If-None-Match and
+    // If-Modified-Since are evaluated by S3, so partial and repeat fetches never move
+    // more bytes than needed. Files in the content cache are answered without S3 unless
+    // a range is requested, and complete S3 responses are copied into the cache.
+    // ?width=N serves the narrowest image variant at least N pixels wide instead, or the
+    // original when there is none (not an image, too narrow, or not processed yet).
+    @GetMapping("/{id}/content")
+    public void getFileContent(@PathVariable("id") String id, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	getContentCounter.increment();
+    	long bytesSent = 0;
+    	Throwable failure = null;
+    	try {
+    		logger.info("File content requested: id={}, range={}", id, request.getHeader("Range"));
+    		Integer width = variantWidth(request);
+    		if (hasUnknownParams(request, CONTENT_PARAMS) || (width != null && width <= 0)) {
+    			logger.warn("File content request has invalid query parameters");
+    			response.setStatus(HttpStatus.BAD_REQUEST.value());
+    			return;
+    		}
+    		File fileEntity = fileService.getFileById(id);
+    		if (fileEntity == null) {
+    			logger.warn("File not found: id={}", id);
+    			response.setStatus(HttpStatus.NOT_FOUND.value());
+    			return;
+    		}
+    		FileVariant variant = width != null ? fileService.findVariant(id, width) : null;
+    		String range = request.getHeader("Range");
+    		FileContentCache.Content cached = range == null && variant == null ? fileService.getCachedContent(id) : null;
+    		if (cached != null) {
+    			long sent = sendCached(cached, request.getHeader("If-None-Match"), ifModifiedSince(request), response);
+    			if (sent >= 0) {
+    				logger.info("File content served from cache: id={}", id);
+    				bytesSent = sent;
+    				return;
+    			}
+    			logger.info("Cached file content evicted before it was read: id={}", id);
+    		}
+    		try (ResponseInputStream<GetObjectResponse> in = variant != null
+    				? fileService.openVariant(variant, range, request.getHeader("If-None-Match"), ifModifiedSince(request))
+    				: fileService.openContent(fileEntity, range, request.getHeader("If-None-Match"), ifModifiedSince(request))) {
+    			GetObjectResponse object = in.response();
+    			response.setStatus(object.contentRange() != null
+    					? HttpStatus.PARTIAL_CONTENT.value() : HttpStatus.OK.value());
+    			response.setContentType(object.contentType());
+    			if (object.contentLength() != null) {
+    				response.setContentLengthLong(object.contentLength());
+    			}
+    			if (object.contentRange() != null) {
+    				response.setHeader("Content-Range", object.contentRange());
+    			}
+    			response.setHeader("Accept-Ranges", "bytes");
+    			response.setHeader("ETag", object.eTag());
+    			if (object.lastModified() != null) {
+    				response.setDateHeader("Last-Modified", object.lastModified().toEpochMilli());
+    			}
+    			FileContentCache.Capture capture = object.contentRange() == null && variant == null
+    					? fileService.captureContent(fileEntity, object) : null;
+    			try {
+    				bytesSent = copy(in, response.getOutputStream(), capture);
+    			} catch (IOException | RuntimeException e) {
+    				// Closing the stream normally would drain the rest of the object from S3
+    				// for a client that has gone away; drop the connection instead
+    				in.abort();
+    				throw e;
+    			}
+    			downloadedBytes.record(bytesSent);
+    		}
+    	} catch (S3Exception e) {
+    		int status = e.statusCode();
+    		if (status == HttpStatus.NOT_MODIFIED.value() || status == HttpStatus.PRECONDITION_FAILED.value()
+    				|| status == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value() || status == HttpStatus.NOT_FOUND.value()) {
+    			logger.info("File content request answered by S3 with {}: id={}", status, id);
+    			response.setStatus(status);
+    			String ifNoneMatch = request.getHeader("If-None-Match");
+    			if (status == HttpStatus.NOT_MODIFIED.value() && ifNoneMatch != null && !ifNoneMatch.contains(",")) {
+    				response.setHeader("ETag", ifNoneMatch);
+    			}
+    			return;
+    		}
+    		logger.error("Error streaming file content from S3: id={}", id, e);
+    		failure = e;
+    		throw e;
+    	} catch (IOException | RuntimeException e) {
+    		failure = e;
+    		throw e;
+    	} finally {
+    		int status = failure != null ? errorStatus(failure) : response.getStatus();
+    		sample.stop(meterRegistry.timer(CONTENT_TIMER,
+    				MetricTags.forStatus(status).and(MetricTags.sizeClass(bytesSent))));
+    	}
+    }
+
+    // The requested variant width: null without the parameter, 0 for anything but a
+    // single positive number
+    private static Integer variantWidth(HttpServletRequest request) {
+    	String[] values = request.getParameterValues("width");
+    	if (values == null) {
+    		return null;
+    	}
+    	try {
+    		return values.length == 1 ? Math.max(0, Integer.parseInt(values[0])) : 0;
+    	} catch (NumberFormatException e) {
+    		return 0;
+    	}
+    }
+
+    private ResponseEntity<?> notModified(String etag, File fileEntity) {
+    	ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+    			.eTag(etag)
+    			.cacheControl(metadataCacheControl);
+    	if (fileEntity != null) {
+    		builder.lastModified(lastModified(fileEntity));
+    	}
+    	return builder.build();
+    }
+
+    // upload_date only has day precision; the start of that day (UTC) is used
+    private static Instant lastModified(File fileEntity) {
+    	return fileEntity.getUploadDate().atStartOfDay(ZoneOffset.UTC).toInstant();
+    }
+
+    // capture, when not null, receives the same bytes and is completed only if the whole
+    // object reached the client
+    private long copy(InputStream in, OutputStream out, FileContentCache.Capture capture) throws IOException {
+    	byte[] buffer = new byte[downloadBufferSize];
+    	long total = 0;
+    	int read;
+    	try {
+    		while ((read = in.read(buffer)) != -1) {
+    			out.write(buffer, 0, read);
+    			if (capture != null) {
+    				capture.write(buffer, 0, read);
+    			}
+    			total += read;
+    		}
+    		out.flush();
+    	} catch (IOException | RuntimeException e) {
+    		if (capture != null) {
+    			capture.abort();
+    		}
+    		throw e;
+    	}
+    	if (capture != null) {
+    		capture.complete();
+    	}
+    	return total;
+    }
+
+    // Answers from the content cache with the headers S3 sent when the entry was filled,
+    // evaluating If-None-Match and If-Modified-Since the way S3 does. Returns -1, with
+    // nothing written, when a disk entry was evicted before it could be opened.
+    private long sendCached(FileContentCache.Content content, String ifNoneMatch, Instant ifModifiedSince,
+                            HttpServletResponse response) throws IOException {
+    	boolean notModified = ifNoneMatch != null
+    			? content.eTag() != null && FileETags.matches(ifNoneMatch, content.eTag())
+    			: ifModifiedSince != null && content.lastModified() != null
+    					&& !content.lastModified().truncatedTo(ChronoUnit.SECONDS).isAfter(ifModifiedSince);
+    	if (notModified) {
+    		setCachedValidators(content, response);
+    		response.setStatus(HttpStatus.NOT_MODIFIED.value());
+    		return 0;
+    	}
+    	try (FileContentCache.Body body = content.open()) {
+    		if (body == null) {
+    			return -1;
+    		}
+    		setCachedValidators(content, response);
+    		response.setStatus(HttpStatus.OK.value());
+    		response.setContentType(content.contentType());
+    		response.setContentLengthLong(content.length());
+    		response.setHeader("Accept-Ranges", "bytes");
+    		ServletOutputStream out = response.getOutputStream();
+    		long sent = body.writeTo(out);
+    		out.flush();
+    		return sent;
+    	}
+    }
+
+    private static void setCachedValidators(FileContentCache.Content content, HttpServletResponse response) {
+    	if (content.eTag() != null) {
+    		response.setHeader("ETag", content.eTag());
+    	}
+    	if (content.lastModified() != null) {
+    		response.setDateHeader("Last-Modified", content.lastModified().toEpochMilli());
+    	}
+    }
+
+    private static Instant ifModifiedSince(HttpServletRequest request) {
+    	try {
+    		long millis = request.getDateHeader("If-Modified-Since");
+    		return millis < 0 ? null : Instant.ofEpochMilli(millis);
+    	} catch (IllegalArgumentException e) {
+    		// An unparseable date is ignored, as required by RFC 9110
+    		return null;
+    	}
     }
 
 
@@ -202,24 +736,98 @@ public class S3Controller {
 
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> deleteFile(@PathVariable("id") String id,HttpServletRequest request) {
-    	return deleteFileTimer.record(() -> {
+    public CompletableFuture<ResponseEntity<?>> deleteFile(@PathVariable("id") String id,HttpServletRequest request) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
     	deleteFileCounter.increment();
     	logger.info("File deletion requested: id={}", id);
     	if (hasExtraQueryParams(request)) {
     		logger.warn("File deletion request has invalid query parameters");
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
-        }
-        boolean deleted = fileService.deleteFile(id);
-        if (!deleted) {
-        	logger.warn("File not found or unable to delete: id={}", id);
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            return completed(sample, DELETE_TIMER, ResponseEntity.status(HttpStatus.BAD_REQUEST).build());
         }
-        logger.info("File deleted successfully: id={}", id);
-        return ResponseEntity.noContent().build();
+        return fileService.deleteFileAsync(id)
+        		.<ResponseEntity<?>>thenApply(deleted -> {
+        			if (!deleted) {
+        				logger.warn("File not found or unable to delete: id={}", id);
+        				return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        			}
+        			logger.info("File deleted successfully: id={}", id);
+        			return ResponseEntity.noContent().build();
+        		})
+        		.whenComplete((response, error) -> stopTimer(sample, DELETE_TIMER, response, error, Tags.empty()));
+    }
+
+    // Body: {"ids": ["...", ...]}. Returns one result per distinct id: 204 deleted,
+    // 404 unknown id, 202 metadata deleted but the object left for cleanup, 500 failed;
+    // the overall status is 207 if any id was not fully deleted or unknown.
+    @PostMapping("/batch-delete")
+    public ResponseEntity<?> deleteFiles(@RequestBody Map<String, List<String>> body, HttpServletRequest request) {
+    	return timed(BATCH_DELETE_TIMER, () -> {
+    	batchDeleteCounter.increment();
+    	List<String> ids = body.get("ids");
+    	if (hasExtraQueryParams(request) || body.size() != 1 || ids == null || ids.isEmpty()
+    			|| ids.size() > maxBatchDeleteIds || ids.stream().anyMatch(id -> id == null || id.isBlank())) {
+    		logger.warn("Bulk delete request rejected: invalid body or query parameters");
+    		return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+    	}
+    	logger.info("Bulk delete requested: ids={}", ids.size());
+    	List<BatchDeleteResult> results = fileService.deleteFiles(ids);
+    	List<Map<String, Object>> response = new ArrayList<>();
+    	boolean anyFailed = false;
+    	for (BatchDeleteResult result : results) {
+    		Map<String, Object> item = new HashMap<>();
+    		item.put("id", result.id());
+    		switch (result.status()) {
+    			case DELETED -> item.put("status", HttpStatus.NO_CONTENT.value());
+    			case NOT_FOUND -> item.put("status", HttpStatus.NOT_FOUND.value());
+    			case PENDING_CLEANUP -> {
+    				anyFailed = true;
+    				item.put("status", HttpStatus.ACCEPTED.value());
+    				item.put("error", result.error());
+    			}
+    			default -> {
+    				anyFailed = true;
+    				item.put("status", HttpStatus.INTERNAL_SERVER_ERROR.value());
+    				item.put("error", result.error());
+    			}
+    		}
+    		response.add(item);
+    	}
+    	return ResponseEntity.status(anyFailed ? HttpStatus.MULTI_STATUS : HttpStatus.OK).body(response);
     	});
     }
 
+    private CompletableFuture<ResponseEntity<?>> completed(Timer.Sample sample, String timerName, ResponseEntity<?> response) {
+    	stopTimer(sample, timerName, response.getStatusCode().value());
+    	return CompletableFuture.completedFuture(response);
+    }
+
+    private <T extends ResponseEntity<?>> T timed(String timerName, Supplier<T> handler) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	int status = HttpStatus.INTERNAL_SERVER_ERROR.value();
+    	try {
+    		T response = handler.get();
+    		status = response.getStatusCode().value();
+    		return response;
+    	} finally {
+    		stopTimer(sample, timerName, status);
+    	}
+    }
+
+    // A future that failed without a response becomes a 503 (bulkhead full) or 500 in the exception handlers
+    private void stopTimer(Timer.Sample sample, String timerName, ResponseEntity<?> response, Throwable error, Tags extraTags) {
+    	int status = error == null && response != null ? response.getStatusCode().value() : errorStatus(error);
+    	sample.stop(meterRegistry.timer(timerName, MetricTags.forStatus(status).and(extraTags)));
+    }
+
+    private static int errorStatus(Throwable error) {
+    	return BulkheadFullException.isCause(error) || CircuitOpenException.isCause(error)
+    			? HttpStatus.SERVICE_UNAVAILABLE.value() : HttpStatus.INTERNAL_SERVER_ERROR.value();
+    }
+
+    private void stopTimer(Timer.Sample sample, String timerName, int status) {
+    	sample.stop(meterRegistry.timer(timerName, MetricTags.forStatus(status)));
+    }
+
     
     @RequestMapping(method = { RequestMethod.HEAD, RequestMethod.PUT, RequestMethod.PATCH, RequestMethod.OPTIONS })
     public ResponseEntity<Void> methodNotAllowed(HttpServletRequest request) {
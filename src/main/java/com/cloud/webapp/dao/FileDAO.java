@@ -1,71 +1,432 @@
 package com.cloud.webapp.dao;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.SharedSessionContract;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
+import org.hibernate.query.Query;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import com.cloud.webapp.exceptions.DataAccessException;
 import com.cloud.webapp.model.File;
-import com.cloud.webapp.util.HibernateUtil;
+import com.cloud.webapp.model.FileVariant;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.MetricTags;
 
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.LockModeType;
 
 
 @Repository
 public class FileDAO {
-	
+
+	private final SessionFactory sessionFactory;
+	// Every query runs on the db bulkhead; a saturated database fails calls fast
+	private final Bulkhead bulkhead;
 	private final MeterRegistry meterRegistry;
-	
+	// Rows per keyset page read by streamed listings
+	private final int listFetchSize;
+
 	@Autowired
-    public FileDAO(MeterRegistry meterRegistry) {
+    public FileDAO(SessionFactory sessionFactory, @Qualifier("dbBulkhead") Bulkhead bulkhead,
+                   @Value("${db.list.fetch-size:500}") int listFetchSize, MeterRegistry meterRegistry) {
+        this.sessionFactory = sessionFactory;
+        this.bulkhead = bulkhead;
+        this.listFetchSize = Math.max(1, listFetchSize);
         this.meterRegistry = meterRegistry;
     }
-	
+
     public void save(File file) {
+    	bulkhead.execute(() -> insert(file));
+    }
+
+    // Runs the insert on the db bulkhead without waiting; a rejection fails the future
+    public CompletableFuture<Void> saveAsync(File file) {
+    	return bulkhead.submit(() -> insert(file));
+    }
+
+    private Void insert(File file) {
     	Timer.Sample sample = Timer.start(meterRegistry);
-        Session session = HibernateUtil.buildSessionFactory().openSession();
+        Session session = sessionFactory.openSession();
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
             session.save(file);
             tx.commit();
-            sample.stop(meterRegistry.timer("db.query.timer", "operation", "saveFile"));
+            stopTimer(sample, "saveFile", null);
+            return null;
+        } catch (Exception e) {
+        	stopTimer(sample, "saveFile", e);
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw new DataAccessException("Failed to save file", e);
+        } finally {
+            session.close();
+        }
+    }
+
+    // Inserts all rows in one transaction; statements are sent as JDBC batches
+    public void saveAll(List<File> files) {
+    	bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            for (File file : files) {
+                session.persist(file);
+            }
+            tx.commit();
+            stopTimer(sample, "saveFiles", null);
         } catch (Exception e) {
-        	sample.stop(meterRegistry.timer("db.query.timer", "operation", "saveFile"));
+        	stopTimer(sample, "saveFiles", e);
             if (tx != null) tx.rollback();
-            e.printStackTrace();
+            throw new DataAccessException("Failed to save file batch", e);
         } finally {
             session.close();
         }
+        return null;
+    	});
     }
 
     public File findById(String id) {
+    	return bulkhead.execute(() -> lookup(id));
+    }
+
+    // Runs the lookup on the db bulkhead without waiting; a rejection fails the future
+    public CompletableFuture<File> findByIdAsync(String id) {
+    	return bulkhead.submit(() -> lookup(id));
+    }
+
+    private File lookup(String id) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (Session session = sessionFactory.openSession()) {
+            File file = session.get(File.class, id);
+            stopTimer(sample, "findFile", null);
+            return file;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "findFile", e);
+            throw e;
+        }
+    }
+
+    public List<File> findByIds(Collection<String> ids) {
+    	return bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (Session session = sessionFactory.openSession()) {
+            List<File> files = session.createQuery("from File f where f.id in (:ids)", File.class)
+                    .setParameterList("ids", ids)
+                    .getResultList();
+            stopTimer(sample, "findFiles", null);
+            return files;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "findFiles", e);
+            throw e;
+        }
+    	});
+    }
+
+    /**
+     * Inserts {@code file} pointing at the object already stored for its content hash,
+     * together with copies of that row's image variant rows, which point at the same
+     * variant objects. A row with that hash is locked first, so a concurrent
+     * {@link #deleteReferences} cannot drop the objects in between. Returns false without
+     * inserting anything when no stored object has this content yet.
+     */
+    public boolean saveIfContentExists(File file) {
+    	return bulkhead.execute(() -> insertIfContentExists(file));
+    }
+
+    // Non-blocking variant of saveIfContentExists; a rejection fails the future
+    public CompletableFuture<Boolean> saveIfContentExistsAsync(File file) {
+    	return bulkhead.submit(() -> insertIfContentExists(file));
+    }
+
+    private boolean insertIfContentExists(File file) {
     	Timer.Sample sample = Timer.start(meterRegistry);
-        Session session = HibernateUtil.buildSessionFactory().openSession();
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
         try {
-        	sample.stop(meterRegistry.timer("db.query.timer", "operation", "findFile"));
-            return session.get(File.class, id);
+            tx = session.beginTransaction();
+            List<File> holders = session.createQuery("from File f where f.contentHash = :hash", File.class)
+                    .setParameter("hash", file.getContentHash())
+                    .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                    .setMaxResults(1)
+                    .getResultList();
+            if (holders.isEmpty()) {
+                tx.rollback();
+                stopTimer(sample, "saveFileByContent", null);
+                return false;
+            }
+            File holder = holders.get(0);
+            file.setUrl(holder.getUrl());
+            session.persist(file);
+            List<FileVariant> variants = session.createQuery("from FileVariant v where v.file.id = :id", FileVariant.class)
+                    .setParameter("id", holder.getId())
+                    .getResultList();
+            for (FileVariant variant : variants) {
+                session.persist(new FileVariant(UUID.randomUUID().toString(), file, variant.getWidth(),
+                        variant.getHeight(), variant.getContentType(), variant.getUrl(), variant.getSizeBytes()));
+            }
+            tx.commit();
+            stopTimer(sample, "saveFileByContent", null);
+            return true;
+        } catch (Exception e) {
+        	stopTimer(sample, "saveFileByContent", e);
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw new DataAccessException("Failed to save deduplicated file", e);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Sets the content hash of an existing row, which makes its object available to
+     * {@link #saveIfContentExists}. Returns false if the row does not exist.
+     */
+    public boolean updateContentHash(String id, String contentHash) {
+    	return bulkhead.execute(() -> setContentHash(id, contentHash));
+    }
+
+    // Non-blocking variant of updateContentHash; a rejection fails the future
+    public CompletableFuture<Boolean> updateContentHashAsync(String id, String contentHash) {
+    	return bulkhead.submit(() -> setContentHash(id, contentHash));
+    }
+
+    private boolean setContentHash(String id, String contentHash) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            int updated = session.createMutationQuery("update File f set f.contentHash = :hash where f.id = :id")
+                    .setParameter("hash", contentHash)
+                    .setParameter("id", id)
+                    .executeUpdate();
+            tx.commit();
+            stopTimer(sample, "updateContentHash", null);
+            return updated > 0;
+        } catch (Exception e) {
+        	stopTimer(sample, "updateContentHash", e);
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw new DataAccessException("Failed to update content hash", e);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Removes the given rows with a single DELETE statement and returns the urls that no
+     * remaining row references, i.e. the objects that may now be removed from S3. Rows
+     * sharing a content hash are locked for the duration so the reference count cannot
+     * race with {@link #saveIfContentExists}.
+     */
+    public Set<String> deleteReferences(Collection<File> files) {
+    	return bulkhead.execute(() -> removeReferences(files));
+    }
+
+    // Non-blocking variant of deleteReferences; a rejection fails the future
+    public CompletableFuture<Set<String>> deleteReferencesAsync(Collection<File> files) {
+    	return bulkhead.submit(() -> removeReferences(files));
+    }
+
+    private Set<String> removeReferences(Collection<File> files) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            Set<String> hashes = new HashSet<>();
+            Set<String> ids = new HashSet<>();
+            Set<String> urls = new HashSet<>();
+            for (File file : files) {
+                ids.add(file.getId());
+                urls.add(file.getUrl());
+                if (file.getContentHash() != null) hashes.add(file.getContentHash());
+            }
+            if (!hashes.isEmpty()) {
+                session.createQuery("from File f where f.contentHash in (:hashes)", File.class)
+                        .setParameterList("hashes", hashes)
+                        .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                        .getResultList();
+            }
+            session.createMutationQuery("delete from File f where f.id in (:ids)")
+                    .setParameterList("ids", ids)
+                    .executeUpdate();
+            List<String> referenced = session.createQuery("select distinct f.url from File f where f.url in (:urls)", String.class)
+                    .setParameterList("urls", urls)
+                    .getResultList();
+            tx.commit();
+            stopTimer(sample, "deleteFileReferences", null);
+            urls.removeAll(referenced);
+            return urls;
+        } catch (Exception e) {
+        	stopTimer(sample, "deleteFileReferences", e);
+            if (tx != null) tx.rollback();
+            throw new DataAccessException("Failed to delete files", e);
         } finally {
             session.close();
         }
     }
 
     public void delete(File file) {
+    	bulkhead.execute(() -> {
     	Timer.Sample sample = Timer.start(meterRegistry);
-        Session session = HibernateUtil.buildSessionFactory().openSession();
+        Session session = sessionFactory.openSession();
         Transaction tx = null;
         try {
             tx = session.beginTransaction();
             session.delete(file);
             tx.commit();
-            sample.stop(meterRegistry.timer("db.query.timer", "operation", "deleteFile"));
+            stopTimer(sample, "deleteFile", null);
         } catch (Exception e) {
-        	sample.stop(meterRegistry.timer("db.query.timer", "operation", "deleteFile"));
+        	stopTimer(sample, "deleteFile", e);
             if (tx != null) tx.rollback();
-            e.printStackTrace();
+            throw new DataAccessException("Failed to delete file", e);
         } finally {
             session.close();
         }
+        return null;
+    	});
+    }
+
+    /** True if any row references the object at {@code url}; one idx_files_url lookup. */
+    public boolean existsByUrl(String url) {
+    	return bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (Session session = sessionFactory.openSession()) {
+            boolean exists = !session.createQuery("select f.id from File f where f.url = :url", String.class)
+                    .setParameter("url", url)
+                    .setMaxResults(1)
+                    .getResultList()
+                    .isEmpty();
+            stopTimer(sample, "existsFileByUrl", null);
+            return exists;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "existsFileByUrl", e);
+            throw e;
+        }
+    	});
+    }
+
+    /**
+     * Rows whose url sorts after {@code afterUrl} (exclusive) and up to {@code toUrl}
+     * (inclusive), ordered by url. A null bound leaves that side of the range open.
+     */
+    public List<File> findByUrlRange(String afterUrl, String toUrl, int maxResults) {
+    	return bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (Session session = sessionFactory.openSession()) {
+            StringBuilder hql = new StringBuilder("from File f where 1 = 1");
+            if (afterUrl != null) hql.append(" and f.url > :afterUrl");
+            if (toUrl != null) hql.append(" and f.url <= :toUrl");
+            hql.append(" order by f.url");
+            Query<File> query = session.createQuery(hql.toString(), File.class);
+            if (afterUrl != null) query.setParameter("afterUrl", afterUrl);
+            if (toUrl != null) query.setParameter("toUrl", toUrl);
+            query.setMaxResults(maxResults);
+            List<File> files = query.getResultList();
+            stopTimer(sample, "findFilesByUrlRange", null);
+            return files;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "findFilesByUrlRange", e);
+            throw e;
+        }
+    	});
+    }
+
+    /**
+     * One page of rows matching {@code query}, in (upload_date, id) order. The keyset
+     * predicate and ORDER BY follow idx_files_upload_date_id, so each page is a range
+     * scan of at most {@code maxResults} index entries however deep it is.
+     */
+    public List<File> findPage(FileListQuery query, int maxResults) {
+    	return bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            List<File> files = listQuery(session, query)
+                    .setMaxResults(maxResults)
+                    .getResultList();
+            stopTimer(sample, "listFiles", null);
+            return files;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "listFiles", e);
+            throw e;
+        }
+    	});
+    }
+
+    /**
+     * Passes every row matching {@code query} to {@code consumer}, in (upload_date, id)
+     * order, reading {@code db.list.fetch-size} rows at a time as keyset pages
+     * ({@link #findPage}). A page holds a db bulkhead thread and a connection only while
+     * it is read; the consumer runs on the calling thread between pages, so a slow client
+     * pins neither. Memory stays at one page however many rows match. Each page is read
+     * on its own, so rows committed meanwhile after the current position are included.
+     * Returns the number of rows.
+     */
+    public long streamRows(FileListQuery query, Consumer<File> consumer) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        long count = 0;
+        try {
+            FileListQuery page = query;
+            while (true) {
+                List<File> rows = findPage(page, listFetchSize);
+                rows.forEach(consumer);
+                count += rows.size();
+                if (rows.size() < listFetchSize) {
+                    break;
+                }
+                page = page.after(rows.get(rows.size() - 1));
+            }
+            stopTimer(sample, "streamFiles", null);
+            return count;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "streamFiles", e);
+            throw e;
+        }
+    }
+
+    private static Query<File> listQuery(SharedSessionContract session, FileListQuery query) {
+        StringBuilder hql = new StringBuilder("from File f where 1 = 1");
+        if (query.namePrefix() != null) hql.append(" and f.fileName like :namePrefix escape '!'");
+        if (query.fromDate() != null) hql.append(" and f.uploadDate >= :fromDate");
+        if (query.toDate() != null) hql.append(" and f.uploadDate <= :toDate");
+        if (query.afterDate() != null) {
+            // Row-value comparison spelled out; the leading >= keeps it a single index range
+            hql.append(" and f.uploadDate >= :afterDate")
+               .append(" and (f.uploadDate > :afterDate or f.id > :afterId)");
+        }
+        hql.append(" order by f.uploadDate, f.id");
+        Query<File> listQuery = session.createQuery(hql.toString(), File.class);
+        if (query.namePrefix() != null) listQuery.setParameter("namePrefix", likePrefix(query.namePrefix()));
+        if (query.fromDate() != null) listQuery.setParameter("fromDate", query.fromDate());
+        if (query.toDate() != null) listQuery.setParameter("toDate", query.toDate());
+        if (query.afterDate() != null) {
+            listQuery.setParameter("afterDate", query.afterDate());
+            listQuery.setParameter("afterId", query.afterId());
+        }
+        return listQuery;
+    }
+
+    private static String likePrefix(String prefix) {
+        return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    // db.query.timer{operation, outcome, exception}
+    private void stopTimer(Timer.Sample sample, String operation, Throwable error) {
+    	sample.stop(meterRegistry.timer("db.query.timer", MetricTags.forResult(error).and("operation", operation)));
     }
 }
@@ -0,0 +1,60 @@
+package com.cloud.webapp.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+import com.cloud.webapp.model.File;
+
+/**
+ * Filters and keyset position for listing file rows in (upload_date, id) order. Null
+ * filters are not applied; the date range is inclusive. {@code afterDate}/{@code afterId}
+ * identify the last row already returned, so the next page starts right after it with an
+ * index seek instead of an OFFSET scan.
+ */
+public record FileListQuery(String namePrefix, LocalDate fromDate, LocalDate toDate,
+                            LocalDate afterDate, String afterId) {
+
+	public FileListQuery {
+		if ((afterDate == null) != (afterId == null)) {
+			throw new IllegalArgumentException("afterDate and afterId must be given together");
+		}
+	}
+
+	/** The same filters, positioned after {@code last}. */
+	public FileListQuery after(File last) {
+		return new FileListQuery(namePrefix, fromDate, toDate, last.getUploadDate(), last.getId());
+	}
+
+	/**
+	 * The query for the request parameters of a metadata listing: an empty prefix is no
+	 * filter, dates are yyyy-MM-dd and the token comes from {@link #continuationToken}.
+	 * Returns null when a date or the token cannot be parsed.
+	 */
+	public static FileListQuery parse(String prefix, String from, String to, String continuationToken) {
+		try {
+			String namePrefix = prefix == null || prefix.isEmpty() ? null : prefix;
+			LocalDate fromDate = from != null ? LocalDate.parse(from) : null;
+			LocalDate toDate = to != null ? LocalDate.parse(to) : null;
+			if (continuationToken == null) {
+				return new FileListQuery(namePrefix, fromDate, toDate, null, null);
+			}
+			String position = new String(Base64.getUrlDecoder().decode(continuationToken), StandardCharsets.UTF_8);
+			int separator = position.indexOf('/');
+			if (separator < 0) {
+				return null;
+			}
+			return new FileListQuery(namePrefix, fromDate, toDate,
+					LocalDate.parse(position.substring(0, separator)), position.substring(separator + 1));
+		} catch (IllegalArgumentException | DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/** Opaque to clients: base64url of "<upload_date>/<id>" of the last row returned. */
+	public static String continuationToken(File last) {
+		String position = last.getUploadDate() + "/" + last.getId();
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,133 @@
+package com.cloud.webapp.dao;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Repository;
+
+import com.cloud.webapp.exceptions.DataAccessException;
+import com.cloud.webapp.model.FileVariant;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.MetricTags;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Rows of the file_variants table. Like {@link FileDAO}, every query runs on the db
+ * bulkhead and is timed as db.query.timer. Rows are never deleted here: they go with
+ * their file through the foreign key.
+ */
+@Repository
+public class FileVariantDAO {
+
+	private final SessionFactory sessionFactory;
+	private final Bulkhead bulkhead;
+	private final MeterRegistry meterRegistry;
+
+    public FileVariantDAO(SessionFactory sessionFactory, @Qualifier("dbBulkhead") Bulkhead bulkhead,
+                          MeterRegistry meterRegistry) {
+        this.sessionFactory = sessionFactory;
+        this.bulkhead = bulkhead;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Inserts all variants of one file in a single transaction. Fails with
+     * {@link DataAccessException} when the file row no longer exists.
+     */
+    public void saveAll(List<FileVariant> variants) {
+    	bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        Session session = sessionFactory.openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            for (FileVariant variant : variants) {
+                session.persist(variant);
+            }
+            tx.commit();
+            stopTimer(sample, "saveFileVariants", null);
+        } catch (Exception e) {
+        	stopTimer(sample, "saveFileVariants", e);
+            if (tx != null && tx.isActive()) tx.rollback();
+            throw new DataAccessException("Failed to save file variants", e);
+        } finally {
+            session.close();
+        }
+        return null;
+    	});
+    }
+
+    // Ordered by width, narrowest first
+    public List<FileVariant> findByFileId(String fileId) {
+    	return bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (Session session = sessionFactory.openSession()) {
+            List<FileVariant> variants = session.createQuery(
+                    "from FileVariant v where v.file.id = :fileId order by v.width", FileVariant.class)
+                    .setParameter("fileId", fileId)
+                    .getResultList();
+            stopTimer(sample, "findFileVariants", null);
+            return variants;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "findFileVariants", e);
+            throw e;
+        }
+    	});
+    }
+
+    public List<FileVariant> findByFileIds(Collection<String> fileIds) {
+    	return bulkhead.execute(() -> lookupByFileIds(fileIds));
+    }
+
+    // Runs the lookup on the db bulkhead without waiting; a rejection fails the future
+    public CompletableFuture<List<FileVariant>> findByFileIdsAsync(Collection<String> fileIds) {
+    	return bulkhead.submit(() -> lookupByFileIds(fileIds));
+    }
+
+    private List<FileVariant> lookupByFileIds(Collection<String> fileIds) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (Session session = sessionFactory.openSession()) {
+            List<FileVariant> variants = session.createQuery(
+                    "from FileVariant v where v.file.id in (:fileIds)", FileVariant.class)
+                    .setParameterList("fileIds", fileIds)
+                    .getResultList();
+            stopTimer(sample, "findFileVariantsByFiles", null);
+            return variants;
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "findFileVariantsByFiles", e);
+            throw e;
+        }
+    }
+
+    /** The subset of {@code urls} that some variant row still points at. */
+    public Set<String> findExistingUrls(Collection<String> urls) {
+    	return bulkhead.execute(() -> {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+        try (Session session = sessionFactory.openSession()) {
+            List<String> existing = session.createQuery(
+                    "select v.url from FileVariant v where v.url in (:urls)", String.class)
+                    .setParameterList("urls", urls)
+                    .getResultList();
+            stopTimer(sample, "findFileVariantUrls", null);
+            return new HashSet<>(existing);
+        } catch (RuntimeException e) {
+        	stopTimer(sample, "findFileVariantUrls", e);
+            throw e;
+        }
+    	});
+    }
+
+    // db.query.timer{operation, outcome, exception}
+    private void stopTimer(Timer.Sample sample, String operation, Throwable error) {
+    	sample.stop(meterRegistry.timer("db.query.timer", MetricTags.forResult(error).and("operation", operation)));
+    }
+}
@@ -2,13 +2,13 @@ package com.cloud.webapp.dao;
 
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.Transaction;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
 
 import com.cloud.webapp.exceptions.DataAccessException;
-import com.cloud.webapp.model.Health;
-import com.cloud.webapp.util.HibernateUtil;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.MetricTags;
 
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
@@ -17,30 +17,42 @@ import io.micrometer.core.instrument.Timer;
 @Repository
 public class HealthDAO {
 
-private SessionFactory sessionFactory = HibernateUtil.buildSessionFactory();
+private final SessionFactory sessionFactory;
+private final Bulkhead bulkhead;
 private final MeterRegistry meterRegistry;
 
 	@Autowired
-	public HealthDAO(MeterRegistry meterRegistry) {
+	public HealthDAO(SessionFactory sessionFactory, @Qualifier("healthBulkhead") Bulkhead bulkhead, MeterRegistry meterRegistry) {
+	    this.sessionFactory = sessionFactory;
+	    this.bulkhead = bulkhead;
 	    this.meterRegistry = meterRegistry;
 	}
 	
-	public void save(Health health) {
+	// Validates a pooled connection (a driver-level ping, no table access and no writes).
+	// Runs on its own bulkhead so it never queues behind FileDAO work.
+	public void ping(int timeoutSeconds) {
+		bulkhead.execute(() -> {
 		Timer.Sample sample = Timer.start(meterRegistry);
         try(Session session = sessionFactory.openSession()){
-            Transaction transaction = session.getTransaction();
-            transaction.begin();
-
-            session.merge(health);
-            transaction.commit();
-            sample.stop(meterRegistry.timer("db.query.timer", "operation", "saveHealth"));
-            
+            boolean valid = session.doReturningWork(connection -> connection.isValid(timeoutSeconds));
+            if (!valid) {
+            	throw new DataAccessException("Database connection is not valid");
+            }
+            stopTimer(sample, null);
+        }
+        catch (DataAccessException e){
+        	stopTimer(sample, e);
+        	throw e;
         }
         catch (Exception e){
-        	sample.stop(meterRegistry.timer("db.query.timer", "operation", "saveHealth"));
-            e.printStackTrace();
-            throw new DataAccessException("Failed to save health data", e);
+        	stopTimer(sample, e);
+            throw new DataAccessException("Failed to validate database connection", e);
         }
-
+        return null;
+		});
     }
+
+	private void stopTimer(Timer.Sample sample, Throwable error) {
+		sample.stop(meterRegistry.timer("db.query.timer", MetricTags.forResult(error).and("operation", "pingHealth")));
+	}
 }
@@ -0,0 +1,35 @@
+package com.cloud.webapp.exceptions;
+
+/**
+ * Thrown instead of queueing when a dependency's bulkhead is saturated, or when a call
+ * on it does not finish within the bulkhead's timeout; answered with 503 so clients and
+ * the load balancer back off rather than pile up.
+ */
+public class BulkheadFullException extends RuntimeException {
+
+    private final String bulkhead;
+
+    public BulkheadFullException(String bulkhead) {
+        this(bulkhead, "Bulkhead '" + bulkhead + "' is full");
+    }
+
+    // Also used when a call waited longer than the bulkhead's timeout
+    public BulkheadFullException(String bulkhead, String message) {
+        super(message);
+        this.bulkhead = bulkhead;
+    }
+
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+    /** True if {@code error} or one of its causes is a bulkhead rejection. */
+    public static boolean isCause(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BulkheadFullException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
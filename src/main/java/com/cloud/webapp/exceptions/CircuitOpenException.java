@@ -0,0 +1,35 @@
+package com.cloud.webapp.exceptions;
+
+/**
+ * Thrown without calling the dependency while its circuit breaker is open; answered with
+ * 503 and a Retry-After of the time left until the breaker lets a trial call through.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private final String circuit;
+    private final long retryAfterSeconds;
+
+    public CircuitOpenException(String circuit, long retryAfterSeconds) {
+        super("Circuit '" + circuit + "' is open");
+        this.circuit = circuit;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getCircuit() {
+        return circuit;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /** True if {@code error} or one of its causes is an open circuit. */
+    public static boolean isCause(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitOpenException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
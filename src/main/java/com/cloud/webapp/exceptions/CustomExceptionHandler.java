@@ -1,5 +1,7 @@
 package com.cloud.webapp.exceptions;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
@@ -12,6 +14,29 @@ import jakarta.servlet.http.HttpServletRequest;
 @RestControllerAdvice
 class CustomExceptionHandler {
 
+	private static final Logger logger = LoggerFactory.getLogger(CustomExceptionHandler.class);
+
+	// A saturated dependency fails fast; Retry-After tells clients to back off briefly
+	@ExceptionHandler(BulkheadFullException.class)
+	public ResponseEntity<Void> handleBulkheadFull(BulkheadFullException e) {
+		logger.warn("Request rejected: {}", e.getMessage());
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").build();
+	}
+
+	// S3 is failing calls anyway; come back once the breaker lets a trial call through
+	@ExceptionHandler(CircuitOpenException.class)
+	public ResponseEntity<Void> handleCircuitOpen(CircuitOpenException e) {
+		logger.warn("Request rejected: {}", e.getMessage());
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header("Retry-After", String.valueOf(e.getRetryAfterSeconds())).build();
+	}
+
+	// Same limit as multipart uploads, checked once a presigned upload is completed
+	@ExceptionHandler(ObjectTooLargeException.class)
+	public ResponseEntity<Void> handleObjectTooLarge(ObjectTooLargeException e) {
+		logger.warn("Request rejected: {}", e.getMessage());
+		return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+	}
 
 //    @ExceptionHandler(HttpRequestMethodNotSupportedException.class)
 //    public ResponseEntity<Void> handleMethodNotAllowed(@RequestBody(required = false) String body, HttpServletRequest request) {
@@ -0,0 +1,25 @@
+package com.cloud.webapp.exceptions;
+
+/**
+ * Thrown when an object uploaded straight to S3 is larger than uploads are allowed to be;
+ * answered with 413.
+ */
+public class ObjectTooLargeException extends RuntimeException {
+
+    private final long size;
+    private final long maxSize;
+
+    public ObjectTooLargeException(String key, long size, long maxSize) {
+        super("Object '" + key + "' is " + size + " bytes, more than the " + maxSize + " allowed");
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+}
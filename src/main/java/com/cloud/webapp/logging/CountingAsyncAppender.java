@@ -0,0 +1,43 @@
+package com.cloud.webapp.logging;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Logback {@link AsyncAppender} that counts what it drops. Request threads only enqueue;
+ * the wrapped (file) appender runs on logback's worker thread. Once the queue has less
+ * than {@code discardingThreshold} free slots, TRACE/DEBUG/INFO events are discarded,
+ * and with {@code neverBlock} any event that finds the queue full is dropped instead
+ * of stalling the caller. Both are counted and published by {@link LoggingMetrics}.
+ */
+public class CountingAsyncAppender extends AsyncAppender {
+
+	private final LongAdder discarded = new LongAdder();
+	private final LongAdder queueFull = new LongAdder();
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		int remaining = getRemainingCapacity();
+		if (remaining < getDiscardingThreshold() && isDiscardable(event)) {
+			discarded.increment();
+			return;
+		}
+		// A queue that fills between this check and the offer below drops uncounted;
+		// the count is a lower bound under contention
+		if (remaining == 0 && isNeverBlock()) {
+			queueFull.increment();
+			return;
+		}
+		super.append(event);
+	}
+
+	public long getDiscardedCount() {
+		return discarded.sum();
+	}
+
+	public long getQueueFullCount() {
+		return queueFull.sum();
+	}
+}
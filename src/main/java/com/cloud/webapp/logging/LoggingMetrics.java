@@ -0,0 +1,67 @@
+package com.cloud.webapp.logging;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.Appender;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes the async appenders' queue depth and drop counts and the number of
+ * sampled-out INFO lines, as configured in logback-spring.xml. Nothing is registered
+ * when logging runs without those components (e.g. console-only).
+ */
+@Component
+public class LoggingMetrics implements MeterBinder {
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		if (!(LoggerFactory.getILoggerFactory() instanceof LoggerContext context)) {
+			return;
+		}
+		for (CountingAsyncAppender appender : asyncAppenders(context)) {
+			String name = appender.getName();
+			FunctionCounter.builder("logging.events.dropped", appender, CountingAsyncAppender::getDiscardedCount)
+					.tags("appender", name, "reason", "discarding_threshold")
+					.description("Events below WARN discarded because the async queue was nearly full")
+					.register(registry);
+			FunctionCounter.builder("logging.events.dropped", appender, CountingAsyncAppender::getQueueFullCount)
+					.tags("appender", name, "reason", "queue_full")
+					.description("Events dropped because the async queue was full")
+					.register(registry);
+			Gauge.builder("logging.async.queue.size", appender, CountingAsyncAppender::getNumberOfElementsInQueue)
+					.tag("appender", name)
+					.register(registry);
+		}
+		for (TurboFilter filter : context.getTurboFilterList()) {
+			if (filter instanceof SamplingTurboFilter sampling) {
+				FunctionCounter.builder("logging.events.sampled", sampling, SamplingTurboFilter::getSampledOutCount)
+						.description("INFO events skipped by request log sampling")
+						.register(registry);
+			}
+		}
+	}
+
+	private static Set<CountingAsyncAppender> asyncAppenders(LoggerContext context) {
+		Set<CountingAsyncAppender> appenders = new LinkedHashSet<>();
+		for (Logger logger : context.getLoggerList()) {
+			for (Iterator<Appender<ILoggingEvent>> it = logger.iteratorForAppenders(); it.hasNext();) {
+				if (it.next() instanceof CountingAsyncAppender async) {
+					appenders.add(async);
+				}
+			}
+		}
+		return appenders;
+	}
+}
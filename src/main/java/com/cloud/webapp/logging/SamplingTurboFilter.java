@@ -0,0 +1,74 @@
+package com.cloud.webapp.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Keeps only a fraction ({@code rate}) of INFO events from the per-request loggers
+ * named in {@code loggers} (comma-separated prefixes). WARN and above, and any event
+ * carrying an exception, always pass. Runs before the event is built, so a sampled-out
+ * line costs neither message formatting nor a queue slot. A rate of 1 disables sampling.
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+	private double rate = 1.0;
+	private List<String> loggerPrefixes = List.of();
+	private final LongAdder sampledOut = new LongAdder();
+
+	@Override
+	public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+		// isXxxEnabled() calls arrive with a null format and must not be sampled
+		if (rate >= 1.0 || format == null || level != Level.INFO || t != null
+				|| logger.getEffectiveLevel().levelInt > Level.INFO_INT || !matches(logger.getName())) {
+			return FilterReply.NEUTRAL;
+		}
+		if (params != null && params.length > 0 && params[params.length - 1] instanceof Throwable) {
+			return FilterReply.NEUTRAL;
+		}
+		if (ThreadLocalRandom.current().nextDouble() < rate) {
+			return FilterReply.NEUTRAL;
+		}
+		sampledOut.increment();
+		return FilterReply.DENY;
+	}
+
+	private boolean matches(String loggerName) {
+		for (String prefix : loggerPrefixes) {
+			if (loggerName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void setRate(double rate) {
+		this.rate = Math.max(0.0, Math.min(1.0, rate));
+	}
+
+	public void setLoggers(String loggers) {
+		List<String> prefixes = new ArrayList<>();
+		for (String prefix : loggers.split(",")) {
+			if (!prefix.isBlank()) {
+				prefixes.add(prefix.trim());
+			}
+		}
+		this.loggerPrefixes = List.copyOf(prefixes);
+	}
+
+	public double getRate() {
+		return rate;
+	}
+
+	public long getSampledOutCount() {
+		return sampledOut.sum();
+	}
+}
@@ -6,10 +6,17 @@ import java.util.UUID;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = {
+        @Index(name = "idx_files_url", columnList = "url"),
+        @Index(name = "idx_files_content_hash", columnList = "content_hash"),
+        // Keyset listing order, and the file name prefix filter
+        @Index(name = "idx_files_upload_date_id", columnList = "upload_date, id"),
+        @Index(name = "idx_files_file_name", columnList = "file_name")
+})
 public class File {
 
     @Id
@@ -25,6 +32,10 @@ public class File {
     @Column(name = "upload_date")
     private LocalDate uploadDate; 
 
+    // Hex SHA-256 of the object; rows with the same hash share one S3 object (url)
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
 
     public File() {
         // default constructor
@@ -69,5 +80,13 @@ public class File {
 		this.uploadDate = uploadDate;
 	}
 
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+
 	
 }
@@ -0,0 +1,101 @@
+package com.cloud.webapp.model;
+
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * A resized copy of an uploaded image, stored as its own object under variants/. The
+ * foreign key cascades, so deleting the {@link File} row by any path removes its
+ * variant rows as well, and a variant cannot be recorded for a file that is gone.
+ */
+@Entity
+@Table(name = "file_variants", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_file_variants_file_width", columnNames = {"file_id", "width"})
+}, indexes = {
+        @Index(name = "idx_file_variants_url", columnList = "url")
+})
+public class FileVariant {
+
+    @Id
+    @Column(name = "id", nullable = false, updatable = false)
+    private String id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "file_id", nullable = false, updatable = false)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private File file;
+
+    @Column(name = "width", nullable = false)
+    private int width;
+
+    @Column(name = "height", nullable = false)
+    private int height;
+
+    @Column(name = "content_type", length = 64)
+    private String contentType;
+
+    // bucket/variants/<file id>/<width>, like File.url
+    @Column(name = "url")
+    private String url;
+
+    @Column(name = "size_bytes", nullable = false)
+    private long sizeBytes;
+
+
+    public FileVariant() {
+        // default constructor
+    }
+
+    public FileVariant(String id, File file, int width, int height, String contentType, String url, long sizeBytes) {
+        this.id = id;
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.contentType = contentType;
+        this.url = url;
+        this.sizeBytes = sizeBytes;
+    }
+
+	public String getId() {
+		return id;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	// The file is a lazy reference; its id is known without loading the row
+	public String getFileId() {
+		return file.getId();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public long getSizeBytes() {
+		return sizeBytes;
+	}
+}
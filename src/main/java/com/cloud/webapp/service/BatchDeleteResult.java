@@ -0,0 +1,28 @@
+package com.cloud.webapp.service;
+
+/**
+ * Outcome of one id in a bulk delete. PENDING_CLEANUP means the row is gone but S3 refused
+ * to delete its object, which is left for FileReconciler.
+ */
+public record BatchDeleteResult(String id, Status status, String error) {
+
+	public enum Status {
+		DELETED, NOT_FOUND, PENDING_CLEANUP, FAILED
+	}
+
+	public static BatchDeleteResult deleted(String id) {
+		return new BatchDeleteResult(id, Status.DELETED, null);
+	}
+
+	public static BatchDeleteResult notFound(String id) {
+		return new BatchDeleteResult(id, Status.NOT_FOUND, null);
+	}
+
+	public static BatchDeleteResult pendingCleanup(String id, String error) {
+		return new BatchDeleteResult(id, Status.PENDING_CLEANUP, error);
+	}
+
+	public static BatchDeleteResult failure(String id, String error) {
+		return new BatchDeleteResult(id, Status.FAILED, error);
+	}
+}
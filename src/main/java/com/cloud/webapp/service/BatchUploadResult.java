@@ -0,0 +1,22 @@
+package com.cloud.webapp.service;
+
+import com.cloud.webapp.model.File;
+
+/**
+ * Outcome of one part of a batch upload: either the stored {@link File} or the reason
+ * it was rejected.
+ */
+public record BatchUploadResult(String fileName, File file, String error) {
+
+	public static BatchUploadResult success(File file) {
+		return new BatchUploadResult(file.getFileName(), file, null);
+	}
+
+	public static BatchUploadResult failure(String fileName, String error) {
+		return new BatchUploadResult(fileName, null, error);
+	}
+
+	public boolean succeeded() {
+		return file != null;
+	}
+}
@@ -0,0 +1,475 @@
+package com.cloud.webapp.service;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Per-instance cache of object content keyed by file id, so hot files are served without
+ * an S3 round trip. Objects up to memory.max-object-bytes are held off heap in direct
+ * buffers of their exact size; larger ones up to disk.max-object-bytes are written under
+ * the disk path and mapped read-only for each response, so the page cache rather than the
+ * heap holds them. A mapping keeps its file readable after eviction deletes it, so no
+ * reader is cut off. Each tier is capped in bytes and evicts with Caffeine's W-TinyLFU policy, which
+ * weighs how often an entry is used as well as how recently, so a burst of one-off reads
+ * does not push out the files that are requested over and over.
+ *
+ * The content of a file id never changes; entries leave through eviction or through
+ * {@link #invalidate} when the file is deleted. Entries are filled while a complete S3
+ * response is streamed to a client (see {@link #startCapture}), never by a separate read.
+ * Memory captures fill direct buffers of memory.max-object-bytes taken from a pool that
+ * holds at most memory.max-capture-bytes, so a miss neither allocates on the heap nor
+ * leaves garbage behind; only a complete capture is copied into a direct buffer of its
+ * exact size, and the pooled buffer goes back to the pool. A miss that finds the pool empty is served without being captured
+ * (file.content.cache.capture.skipped).
+ * Lookups are counted as file.content.cache.requests{result=memory|disk|miss}, each tier
+ * is monitored as a Caffeine cache (file.content.memory, file.content.disk) and its size
+ * published as file.content.cache.bytes{tier}.
+ */
+@Component
+public class FileContentCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileContentCache.class);
+	private static final String DISK_SUFFIX = ".bin";
+	private static final String PARTIAL_SUFFIX = ".part";
+
+	/**
+	 * Cached object bytes, held in {@code buffer} (memory tier, a read-only direct buffer)
+	 * or {@code file} (disk tier), and the response headers they were served with.
+	 */
+	public record Content(ByteBuffer buffer, Path file, long length, String contentType, String eTag,
+	                      Instant lastModified) {
+
+		/**
+		 * Opens the body for one response; the caller closes it. Returns null when a disk
+		 * entry was evicted before it could be opened, which is then treated as a miss.
+		 */
+		public Body open() throws IOException {
+			if (file == null) {
+				return new Body(buffer.duplicate());
+			}
+			// The mapping stays readable after the channel is closed and the file deleted
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				if (channel.size() < length) {
+					throw new EOFException("Cache file shorter than its entry: " + length + " bytes expected");
+				}
+				return new Body(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+		}
+	}
+
+	/** One reader of a {@link Content}. */
+	public static final class Body implements Closeable {
+
+		private final ByteBuffer buffer;
+
+		private Body(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Writes the whole body to {@code out}. Tomcat's response stream takes the buffer
+		 * directly and copies it into its socket buffer; any other stream is written through
+		 * Channels.newChannel, which copies in chunks through a small heap array.
+		 */
+		public long writeTo(OutputStream out) throws IOException {
+			long length = buffer.remaining();
+			if (out instanceof CoyoteOutputStream coyote) {
+				coyote.write(buffer);
+				return length;
+			}
+			WritableByteChannel target = Channels.newChannel(out);
+			while (buffer.hasRemaining()) {
+				target.write(buffer);
+			}
+			return length;
+		}
+
+		// Nothing to release: a mapping is unmapped when the buffer is collected
+		@Override
+		public void close() {
+		}
+	}
+
+	// A disk entry remembers its file so eviction can delete it
+	private record Entry(Content content, Path file) {}
+
+	private final boolean enabled;
+	private final long memoryMaxObjectBytes;
+	private final CaptureBuffers captureBuffers;
+	private final long diskMaxObjectBytes;
+	private final Path diskPath;
+	private final Cache<String, Entry> memory;
+	private final Cache<String, Entry> disk;
+	private final Counter memoryHits;
+	private final Counter diskHits;
+	private final Counter misses;
+	private final Counter capturesSkipped;
+
+	public FileContentCache(@Value("${file.content-cache.enabled:true}") boolean enabled,
+	                        @Value("${file.content-cache.memory.max-bytes:67108864}") long memoryMaxBytes,
+	                        @Value("${file.content-cache.memory.max-object-bytes:262144}") long memoryMaxObjectBytes,
+	                        @Value("${file.content-cache.memory.max-capture-bytes:16777216}") long memoryMaxCaptureBytes,
+	                        @Value("${file.content-cache.disk.path:${java.io.tmpdir}/webapp-content-cache}") String diskPath,
+	                        @Value("${file.content-cache.disk.max-bytes:1073741824}") long diskMaxBytes,
+	                        @Value("${file.content-cache.disk.max-object-bytes:67108864}") long diskMaxObjectBytes,
+	                        MeterRegistry meterRegistry) throws IOException {
+		this.enabled = enabled;
+		// Weights are ints, and an array is limited to 2 GB
+		this.memoryMaxObjectBytes = Math.min(Math.min(memoryMaxObjectBytes, memoryMaxBytes), Integer.MAX_VALUE);
+		this.captureBuffers = new CaptureBuffers((int) this.memoryMaxObjectBytes,
+				(int) Math.min(memoryMaxCaptureBytes / Math.max(1, this.memoryMaxObjectBytes), Integer.MAX_VALUE));
+		this.diskMaxObjectBytes = Math.min(Math.min(diskMaxObjectBytes, diskMaxBytes), Integer.MAX_VALUE);
+		this.diskPath = Paths.get(diskPath);
+		this.memory = Caffeine.newBuilder()
+				.maximumWeight(memoryMaxBytes)
+				.weigher((String id, Entry entry) -> weight(entry))
+				.recordStats()
+				.build();
+		this.disk = Caffeine.newBuilder()
+				.maximumWeight(diskMaxBytes)
+				.weigher((String id, Entry entry) -> weight(entry))
+				.removalListener((String id, Entry entry, RemovalCause cause) -> {
+					if (entry != null) {
+						deleteQuietly(entry.file());
+					}
+				})
+				.recordStats()
+				.build();
+		if (enabled && this.diskMaxObjectBytes > this.memoryMaxObjectBytes) {
+			Files.createDirectories(this.diskPath);
+			removeLeftovers();
+		}
+		CaffeineCacheMetrics.monitor(meterRegistry, memory, "file.content.memory");
+		CaffeineCacheMetrics.monitor(meterRegistry, disk, "file.content.disk");
+		this.memoryHits = meterRegistry.counter("file.content.cache.requests", "result", "memory");
+		this.diskHits = meterRegistry.counter("file.content.cache.requests", "result", "disk");
+		this.misses = meterRegistry.counter("file.content.cache.requests", "result", "miss");
+		this.capturesSkipped = meterRegistry.counter("file.content.cache.capture.skipped");
+		Gauge.builder("file.content.cache.capture.bytes", captureBuffers, CaptureBuffers::bytesInUse)
+				.description("Bytes of capture buffers held by memory captures in progress")
+				.baseUnit("bytes")
+				.register(meterRegistry);
+		bytesGauge(meterRegistry, "memory", memory);
+		bytesGauge(meterRegistry, "disk", disk);
+	}
+
+	private static int weight(Entry entry) {
+		return (int) Math.max(1, entry.content().length());
+	}
+
+	private static void bytesGauge(MeterRegistry meterRegistry, String tier, Cache<String, Entry> cache) {
+		Gauge.builder("file.content.cache.bytes", cache,
+						c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L))
+				.tag("tier", tier)
+				.baseUnit("bytes")
+				.register(meterRegistry);
+	}
+
+	// Entries do not survive a restart; files from a previous run are not indexed
+	private void removeLeftovers() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(diskPath, "*{" + DISK_SUFFIX + "," + PARTIAL_SUFFIX + "}")) {
+			for (Path file : files) {
+				deleteQuietly(file);
+			}
+		}
+	}
+
+	public Content get(String id) {
+		if (!enabled) {
+			return null;
+		}
+		Entry entry = memory.getIfPresent(id);
+		if (entry != null) {
+			memoryHits.increment();
+			return entry.content();
+		}
+		entry = disk.getIfPresent(id);
+		if (entry != null) {
+			diskHits.increment();
+			return entry.content();
+		}
+		misses.increment();
+		return null;
+	}
+
+	// A capture that completes after this can add the entry back; it is never served since
+	// deleted ids are answered with 404 before content is looked up, and ages out
+	public void invalidate(String id) {
+		memory.invalidate(id);
+		disk.invalidate(id);
+	}
+
+	/**
+	 * Starts recording an object while it is streamed to a client, or returns null when it
+	 * is not cacheable (cache disabled, size unknown or above the disk tier's object limit)
+	 * or every capture buffer is held by a memory capture in progress.
+	 * Every byte sent must also go through {@link Capture#write}; the entry is only added by
+	 * {@link Capture#complete} once exactly {@code contentLength} bytes were seen, and an
+	 * abandoned capture must be {@link Capture#abort aborted}. Capture failures are logged
+	 * and drop the entry; they never fail the response.
+	 */
+	public Capture startCapture(String id, Long contentLength, String contentType, String eTag, Instant lastModified) {
+		if (!enabled || contentLength == null || contentLength < 0) {
+			return null;
+		}
+		if (contentLength <= memoryMaxObjectBytes) {
+			ByteBuffer buffer = captureBuffers.acquire();
+			if (buffer == null) {
+				capturesSkipped.increment();
+				return null;
+			}
+			return new MemoryCapture(id, contentLength, contentType, eTag, lastModified, buffer);
+		}
+		if (contentLength <= diskMaxObjectBytes) {
+			try {
+				return new DiskCapture(id, contentLength, contentType, eTag, lastModified);
+			} catch (IOException e) {
+				logger.warn("Could not start disk cache entry: id={}", id, e);
+			}
+		}
+		return null;
+	}
+
+	// Direct buffers are allocated on first use, up to the limit, and then reused; a
+	// buffer is never freed, so the pool costs at most memory.max-capture-bytes off heap
+	private static final class CaptureBuffers {
+
+		private final int bufferBytes;
+		private final int maxBuffers;
+		private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger allocated = new AtomicInteger();
+		private final AtomicInteger inUse = new AtomicInteger();
+
+		private CaptureBuffers(int bufferBytes, int maxBuffers) {
+			this.bufferBytes = bufferBytes;
+			this.maxBuffers = maxBuffers;
+		}
+
+		ByteBuffer acquire() {
+			ByteBuffer buffer = free.poll();
+			if (buffer == null) {
+				int count = allocated.get();
+				while (true) {
+					if (count >= maxBuffers) {
+						return null;
+					}
+					if (allocated.compareAndSet(count, count + 1)) {
+						break;
+					}
+					count = allocated.get();
+				}
+				buffer = ByteBuffer.allocateDirect(bufferBytes);
+			}
+			inUse.incrementAndGet();
+			return buffer;
+		}
+
+		void release(ByteBuffer buffer) {
+			buffer.clear();
+			inUse.decrementAndGet();
+			free.offer(buffer);
+		}
+
+		long bytesInUse() {
+			return (long) inUse.get() * bufferBytes;
+		}
+	}
+
+	public abstract class Capture {
+
+		protected final String id;
+		protected final long contentLength;
+		private final String contentType;
+		private final String eTag;
+		private final Instant lastModified;
+		private long written;
+		private boolean failed;
+
+		private Capture(String id, long contentLength, String contentType, String eTag, Instant lastModified) {
+			this.id = id;
+			this.contentLength = contentLength;
+			this.contentType = contentType;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		public void write(byte[] buffer, int offset, int length) {
+			if (failed) {
+				return;
+			}
+			written += length;
+			if (written > contentLength) {
+				logger.warn("Object longer than its Content-Length, not caching: id={}", id);
+				abort();
+				return;
+			}
+			try {
+				append(buffer, offset, length);
+			} catch (IOException e) {
+				logger.warn("Could not write cache entry: id={}", id, e);
+				abort();
+			}
+		}
+
+		public void complete() {
+			if (failed) {
+				return;
+			}
+			if (written != contentLength) {
+				abort();
+				return;
+			}
+			try {
+				install(finish(contentType, eTag, lastModified));
+			} catch (IOException e) {
+				logger.warn("Could not finish cache entry: id={}", id, e);
+				abort();
+			}
+		}
+
+		public void abort() {
+			if (!failed) {
+				failed = true;
+				discard();
+			}
+		}
+
+		protected abstract void append(byte[] buffer, int offset, int length) throws IOException;
+
+		protected abstract Content finish(String contentType, String eTag, Instant lastModified) throws IOException;
+
+		protected abstract void install(Content content);
+
+		protected abstract void discard();
+	}
+
+	// Holds its pooled buffer until it is installed or discarded
+	private final class MemoryCapture extends Capture {
+
+		private ByteBuffer buffer;
+
+		private MemoryCapture(String id, long contentLength, String contentType, String eTag, Instant lastModified,
+		                      ByteBuffer buffer) {
+			super(id, contentLength, contentType, eTag, lastModified);
+			this.buffer = buffer;
+		}
+
+		@Override
+		protected void append(byte[] bytes, int offset, int length) {
+			buffer.put(bytes, offset, length);
+		}
+
+		@Override
+		protected Content finish(String contentType, String eTag, Instant lastModified) {
+			ByteBuffer content = ByteBuffer.allocateDirect(buffer.position()).put(buffer.flip()).flip();
+			return new Content(content.asReadOnlyBuffer(), null, content.capacity(), contentType, eTag, lastModified);
+		}
+
+		@Override
+		protected void install(Content content) {
+			release();
+			memory.put(id, new Entry(content, null));
+		}
+
+		@Override
+		protected void discard() {
+			release();
+		}
+
+		private void release() {
+			if (buffer != null) {
+				captureBuffers.release(buffer);
+				buffer = null;
+			}
+		}
+	}
+
+	private final class DiskCapture extends Capture {
+
+		private final Path partial;
+		private final FileChannel channel;
+		private final Path file;
+
+		private DiskCapture(String id, long contentLength, String contentType, String eTag, Instant lastModified) throws IOException {
+			super(id, contentLength, contentType, eTag, lastModified);
+			// Names are unique so a concurrent capture of the same id never shares a file
+			String name = UUID.randomUUID().toString();
+			this.partial = diskPath.resolve(name + PARTIAL_SUFFIX);
+			this.file = diskPath.resolve(name + DISK_SUFFIX);
+			this.channel = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		}
+
+		@Override
+		protected void append(byte[] bytes, int offset, int length) throws IOException {
+			ByteBuffer source = ByteBuffer.wrap(bytes, offset, length);
+			while (source.hasRemaining()) {
+				channel.write(source);
+			}
+		}
+
+		@Override
+		protected Content finish(String contentType, String eTag, Instant lastModified) throws IOException {
+			channel.close();
+			Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+			return new Content(null, file, contentLength, contentType, eTag, lastModified);
+		}
+
+		@Override
+		protected void install(Content content) {
+			disk.put(id, new Entry(content, file));
+		}
+
+		@Override
+		protected void discard() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Could not close cache file {}", partial, e);
+			}
+			deleteQuietly(partial);
+			deleteQuietly(file);
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.warn("Could not delete cache file {}", file, e);
+		}
+	}
+}
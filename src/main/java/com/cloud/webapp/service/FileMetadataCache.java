@@ -0,0 +1,74 @@
+package com.cloud.webapp.service;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cloud.webapp.model.File;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * In-process cache of {@link File} rows keyed by id. File metadata never changes after
+ * upload, so entries only leave the cache through size-based eviction, TTL or an explicit
+ * invalidation on delete. Unknown ids are remembered separately for a short time so that
+ * repeated lookups of missing files do not hit the database either.
+ */
+@Component
+public class FileMetadataCache {
+
+	private final Cache<String, File> files;
+	private final Cache<String, Boolean> missing;
+
+	public FileMetadataCache(@Value("${file.cache.maximum-size:10000}") long maximumSize,
+	                         @Value("${file.cache.ttl-seconds:3600}") long ttlSeconds,
+	                         @Value("${file.cache.negative-maximum-size:10000}") long negativeMaximumSize,
+	                         @Value("${file.cache.negative-ttl-seconds:30}") long negativeTtlSeconds,
+	                         MeterRegistry meterRegistry) {
+		this.files = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+				.recordStats()
+				.build();
+		this.missing = Caffeine.newBuilder()
+				.maximumSize(negativeMaximumSize)
+				.expireAfterWrite(Duration.ofSeconds(negativeTtlSeconds))
+				.recordStats()
+				.build();
+		// cache.gets{result=hit|miss}, cache.evictions, cache.size, ...
+		CaffeineCacheMetrics.monitor(meterRegistry, files, "file.metadata");
+		CaffeineCacheMetrics.monitor(meterRegistry, missing, "file.metadata.missing");
+	}
+
+	public File get(String id) {
+		return files.getIfPresent(id);
+	}
+
+	public boolean isKnownMissing(String id) {
+		return missing.getIfPresent(id) != null;
+	}
+
+	public void put(File file) {
+		missing.invalidate(file.getId());
+		files.put(file.getId(), file);
+	}
+
+	public void putMissing(String id) {
+		missing.put(id, Boolean.TRUE);
+	}
+
+	public void invalidate(String id) {
+		files.invalidate(id);
+		missing.invalidate(id);
+	}
+
+	// Ids are never reused, so a deleted row is remembered as missing right away
+	public void markDeleted(String id) {
+		files.invalidate(id);
+		missing.put(id, Boolean.TRUE);
+	}
+}
@@ -0,0 +1,272 @@
+package com.cloud.webapp.service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.dao.FileVariantDAO;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.util.Throttle;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Background sweep that keeps the files table and the bucket consistent, so the read
+ * path can trust the database instead of sending a HEAD request per read.
+ *
+ * The bucket is listed page by page with ListObjectsV2 (keys come back sorted). For
+ * every page the rows whose url falls into the same key range are loaded in one query
+ * and the two sides are compared:
+ * <ul>
+ * <li>an object with no row is an orphaned object,</li>
+ * <li>a row with no object is an orphaned row (confirmed with a HEAD, because MySQL
+ * and S3 do not necessarily sort keys the same way at page boundaries).</li>
+ * <li>an image variant object (under variants/) with no file_variants row is orphaned as
+ * well; these are looked up by url, one query per page that contains any.</li>
+ * </ul>
+ * Orphans are only logged and counted unless {@code reconciler.repair=true}; with repair on,
+ * every orphaned object is confirmed with a lookup by url before it is deleted, and a page
+ * whose row range hit reconciler.max-rows-per-page is not checked for orphaned objects at
+ * all. Objects and rows younger than the grace period are skipped so in-flight uploads are
+ * never touched.
+ */
+@Component
+public class FileReconciler {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileReconciler.class);
+
+	private final FileDAO fileDAO;
+	private final FileVariantDAO fileVariantDAO;
+	private final FileMetadataCache fileCache;
+	private final S3Client s3Client;
+	private final String bucketName;
+	private final boolean enabled;
+	private final boolean repair;
+	private final int pageSize;
+	private final int maxRowsPerPage;
+	private final long gracePeriodMinutes;
+	private final double s3RequestsPerSecond;
+	private final double dbQueriesPerSecond;
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
+	private final Counter objectsScannedCounter;
+	private final Counter rowsScannedCounter;
+	private final Counter orphanedObjectsCounter;
+	private final Counter orphanedRowsCounter;
+	private final Counter repairedObjectsCounter;
+	private final Counter repairedRowsCounter;
+	private final Timer sweepTimer;
+	private final AtomicLong sweepObjectsScanned = new AtomicLong();
+
+	public FileReconciler(FileDAO fileDAO, FileVariantDAO fileVariantDAO, FileMetadataCache fileCache, S3Client s3Client,
+	                      @Value("${aws.s3.bucket}") String bucketName,
+	                      @Value("${reconciler.enabled:true}") boolean enabled,
+	                      @Value("${reconciler.repair:false}") boolean repair,
+	                      @Value("${reconciler.page-size:1000}") int pageSize,
+	                      @Value("${reconciler.max-rows-per-page:10000}") int maxRowsPerPage,
+	                      @Value("${reconciler.grace-period-minutes:60}") long gracePeriodMinutes,
+	                      @Value("${reconciler.s3-requests-per-second:5}") double s3RequestsPerSecond,
+	                      @Value("${reconciler.db-queries-per-second:5}") double dbQueriesPerSecond,
+	                      MeterRegistry meterRegistry) {
+		this.fileDAO = fileDAO;
+		this.fileVariantDAO = fileVariantDAO;
+		this.fileCache = fileCache;
+		this.bucketName = bucketName;
+		this.s3Client = s3Client;
+		this.enabled = enabled;
+		this.repair = repair;
+		this.pageSize = Math.min(Math.max(pageSize, 1), 1000);
+		this.maxRowsPerPage = maxRowsPerPage;
+		this.gracePeriodMinutes = gracePeriodMinutes;
+		this.s3RequestsPerSecond = s3RequestsPerSecond;
+		this.dbQueriesPerSecond = dbQueriesPerSecond;
+		this.objectsScannedCounter = meterRegistry.counter("reconciler.objects.scanned");
+		this.rowsScannedCounter = meterRegistry.counter("reconciler.rows.scanned");
+		this.orphanedObjectsCounter = meterRegistry.counter("reconciler.orphans.found", "type", "object");
+		this.orphanedRowsCounter = meterRegistry.counter("reconciler.orphans.found", "type", "row");
+		this.repairedObjectsCounter = meterRegistry.counter("reconciler.orphans.repaired", "type", "object");
+		this.repairedRowsCounter = meterRegistry.counter("reconciler.orphans.repaired", "type", "row");
+		this.sweepTimer = meterRegistry.timer("reconciler.sweep.timer");
+		meterRegistry.gauge("reconciler.sweep.progress.objects", sweepObjectsScanned);
+	}
+
+	@Scheduled(initialDelayString = "${reconciler.initial-delay-ms:300000}",
+	           fixedDelayString = "${reconciler.interval-ms:3600000}")
+	public void sweep() {
+		if (!enabled || !running.compareAndSet(false, true)) {
+			return;
+		}
+		Timer.Sample sample = Timer.start();
+		sweepObjectsScanned.set(0);
+		logger.info("Reconciler sweep started: bucket={}, repair={}", bucketName, repair);
+		try {
+			reconcile(new Throttle(s3RequestsPerSecond), new Throttle(dbQueriesPerSecond));
+			logger.info("Reconciler sweep finished: objectsScanned={}", sweepObjectsScanned.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Reconciler sweep interrupted");
+		} catch (Exception e) {
+			logger.error("Reconciler sweep failed", e);
+		} finally {
+			sample.stop(sweepTimer);
+			running.set(false);
+		}
+	}
+
+	private void reconcile(Throttle s3Throttle, Throttle dbThrottle) throws InterruptedException {
+		Instant objectCutoff = Instant.now().minus(gracePeriodMinutes, ChronoUnit.MINUTES);
+		String previousLastKey = null;
+		String continuationToken = null;
+		do {
+			s3Throttle.acquire();
+			ListObjectsV2Response page = s3Client.listObjectsV2(ListObjectsV2Request.builder()
+					.bucket(bucketName)
+					.maxKeys(pageSize)
+					.continuationToken(continuationToken)
+					.build());
+			continuationToken = page.nextContinuationToken();
+			List<S3Object> objects = page.contents();
+			boolean lastPage = continuationToken == null;
+			if (objects.isEmpty()) {
+				// An empty listing is more likely a misconfigured bucket than a bucket
+				// that lost every object, so never treat all rows as orphans.
+				if (previousLastKey == null) {
+					logger.warn("Reconciler found no objects in bucket {}; skipping row check", bucketName);
+					return;
+				}
+				if (!lastPage) {
+					continue;
+				}
+			}
+			String lastKey = objects.isEmpty() ? null : objects.get(objects.size() - 1).key();
+
+			dbThrottle.acquire();
+			List<File> rows = fileDAO.findByUrlRange(
+					previousLastKey == null ? null : toUrl(previousLastKey),
+					lastPage ? null : toUrl(lastKey),
+					maxRowsPerPage);
+			// Rows past the limit were not loaded, so their objects would look orphaned
+			boolean truncated = rows.size() >= maxRowsPerPage;
+			if (truncated) {
+				logger.warn("Reconciler row range truncated at {} rows after key {}; skipping orphaned object check for this page",
+						maxRowsPerPage, previousLastKey);
+			}
+			rowsScannedCounter.increment(rows.size());
+			objectsScannedCounter.increment(objects.size());
+			sweepObjectsScanned.addAndGet(objects.size());
+
+			Set<String> keys = new HashSet<>();
+			objects.forEach(object -> keys.add(object.key()));
+			Set<String> rowKeys = new HashSet<>();
+			for (File row : rows) {
+				String key = toKey(row.getUrl());
+				rowKeys.add(key);
+				if (!keys.contains(key)) {
+					checkRow(row, key, s3Throttle);
+				}
+			}
+			List<String> variantUrls = new ArrayList<>();
+			for (S3Object object : objects) {
+				if (!object.lastModified().isBefore(objectCutoff)) {
+					continue;
+				}
+				if (ImageVariantService.isVariantKey(object.key())) {
+					variantUrls.add(toUrl(object.key()));
+				} else if (!truncated && !rowKeys.contains(object.key())) {
+					handleOrphanedObject(object.key(), false, s3Throttle, dbThrottle);
+				}
+			}
+			if (!variantUrls.isEmpty()) {
+				dbThrottle.acquire();
+				Set<String> recorded = fileVariantDAO.findExistingUrls(variantUrls);
+				for (String url : variantUrls) {
+					if (!recorded.contains(url)) {
+						handleOrphanedObject(toKey(url), true, s3Throttle, dbThrottle);
+					}
+				}
+			}
+			if (lastKey != null) {
+				previousLastKey = lastKey;
+			}
+		} while (continuationToken != null);
+	}
+
+	private void checkRow(File row, String key, Throttle s3Throttle) throws InterruptedException {
+		// upload_date only has day precision, so recent rows are skipped conservatively
+		if (row.getUploadDate() != null && !row.getUploadDate().isBefore(LocalDate.now().minusDays(1))) {
+			return;
+		}
+		s3Throttle.acquire();
+		try {
+			s3Client.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build());
+			return;
+		} catch (S3Exception e) {
+			if (e.statusCode() != 404) {
+				logger.warn("Reconciler could not verify object: id={}, s3Key={}", row.getId(), key, e);
+				return;
+			}
+		}
+		orphanedRowsCounter.increment();
+		logger.warn("Orphaned file row, object missing in S3: id={}, s3Key={}", row.getId(), key);
+		if (repair) {
+			fileDAO.delete(row);
+			fileCache.markDeleted(row.getId());
+			repairedRowsCounter.increment();
+			logger.info("Removed orphaned file row: id={}", row.getId());
+		}
+	}
+
+	private void handleOrphanedObject(String key, boolean variant, Throttle s3Throttle, Throttle dbThrottle)
+			throws InterruptedException {
+		// Before deleting, check this one url directly: the range query may sort keys
+		// differently from S3 at page boundaries, and a row may have appeared since
+		if (repair) {
+			dbThrottle.acquire();
+			String url = toUrl(key);
+			boolean recorded = variant ? fileVariantDAO.findExistingUrls(List.of(url)).contains(url) : fileDAO.existsByUrl(url);
+			if (recorded) {
+				logger.info("S3 object has a row after all, keeping it: s3Key={}", key);
+				return;
+			}
+		}
+		orphanedObjectsCounter.increment();
+		logger.warn("Orphaned S3 object, no file row: s3Key={}", key);
+		if (repair) {
+			s3Throttle.acquire();
+			s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(key).build());
+			repairedObjectsCounter.increment();
+			logger.info("Removed orphaned S3 object: s3Key={}", key);
+		}
+	}
+
+	private String toUrl(String key) {
+		return bucketName + "/" + key;
+	}
+
+	private String toKey(String url) {
+		String prefix = bucketName + "/";
+		return url.startsWith(prefix) ? url.substring(prefix.length()) : url;
+	}
+}
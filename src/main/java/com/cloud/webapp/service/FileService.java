@@ -1,137 +1,454 @@
 package com.cloud.webapp.service;
 
 import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.dao.FileListQuery;
+import com.cloud.webapp.exceptions.BulkheadFullException;
+import com.cloud.webapp.exceptions.CircuitOpenException;
 import com.cloud.webapp.model.File;
+import com.cloud.webapp.model.FileVariant;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.MetricTags;
 
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import io.micrometer.core.instrument.Timer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.awscore.exception.AwsServiceException;
 import software.amazon.awssdk.core.exception.SdkClientException;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Service
 public class FileService {
 
 	
     private final FileDAO fileDAO;
+    private final FileMetadataCache fileCache;
+    // Object bytes of hot files, in memory or on local disk
+    private final FileContentCache contentCache;
+    // Resized copies of uploaded images, created in the background
+    private final ImageVariantService imageVariants;
     private final S3Client s3Client;
+    // Blocking S3 calls run here so a slow bucket cannot hold every request thread
+    private final Bulkhead s3Bulkhead;
+    // Request-path reads and deletes: hedged, retried within a budget, circuit broken
+    private final S3Resilience s3Resilience;
     private final String bucketName;
+    // Part uploads of multipart transfers; bounded, a full queue rejects with 503
+    private final Bulkhead uploadPartBulkhead;
+    private final S3MultipartUploader uploader;
+    private final UploadJournal uploadJournal;
+    private final UploadRecovery uploadRecovery;
+    // Non-blocking mode (aws.s3.async.enabled): upload and delete stages run on the bounded
+    // async-io bulkhead and S3 is called through S3AsyncClient, so no thread waits per request
+    private final boolean asyncEnabled;
+    private final Bulkhead asyncIoBulkhead;
+    // Bounds how many files of a batch upload are sent to S3 at once
+    private final Bulkhead batchUploadBulkhead;
+    private final MeterRegistry meterRegistry;
     private static final Logger logger = LoggerFactory.getLogger(FileService.class);
+    // DeleteObjects accepts at most 1,000 keys per request
+    private static final int DELETE_OBJECTS_MAX_KEYS = 1000;
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
     
-    // Metrics for S3 operations
+    // Metrics for S3 operations; timers are tagged with outcome and exception when stopped
+    private static final String UPLOAD_TIMER = "s3.operation.upload.timer";
+    private static final String HEAD_TIMER = "s3.operation.head.timer";
+    private static final String DELETE_TIMER = "s3.operation.delete.timer";
+    private static final String BATCH_DELETE_TIMER = "s3.operation.delete.batch.timer";
+    private static final String BATCH_UPLOAD_TIMER = "s3.operation.upload.batch.timer";
     private final Counter s3UploadCounter;
-    private final Timer s3UploadTimer;
     private final Counter s3HeadCounter;
-    private final Timer s3HeadTimer;
     private final Counter s3DeleteCounter;
-    private final Timer s3DeleteTimer;
+    private final Counter s3BatchDeleteCounter;
+    private final Counter s3BatchUploadCounter;
+    private final Counter s3DeduplicatedCounter;
+    // Size of every uploaded file, split by whether the bytes actually went to S3
+    private final DistributionSummary uploadedBytes;
+    private final DistributionSummary deduplicatedBytes;
+
+    // A prepared upload; deduplicated uploads already have their row inserted
+    private record StoredUpload(File file, boolean deduplicated) {}
 
     
     @Autowired
-    public FileService(FileDAO fileDAO,
+    public FileService(FileDAO fileDAO, FileMetadataCache fileCache, FileContentCache contentCache,
+                       ImageVariantService imageVariants, S3Client s3Client,
+                       @Qualifier("s3Bulkhead") Bulkhead s3Bulkhead, S3Resilience s3Resilience,
+                       UploadJournal uploadJournal, UploadRecovery uploadRecovery,
                        @Value("${aws.s3.bucket}") String bucketName,
-                       @Value("${aws.region}") String region, MeterRegistry meterRegistry) {
+                       @Value("${aws.s3.upload.part-size:8388608}") long partSize,
+                       @Value("${aws.s3.upload.parallelism:4}") int parallelism,
+                       @Value("${aws.s3.upload.multipart-threshold:16777216}") long multipartThreshold,
+                       @Qualifier("uploadPartBulkhead") Bulkhead uploadPartBulkhead,
+                       @Value("${aws.s3.async.enabled:false}") boolean asyncEnabled,
+                       @Qualifier("asyncIoBulkhead") Bulkhead asyncIoBulkhead,
+                       @Qualifier("batchUploadBulkhead") Bulkhead batchUploadBulkhead,
+                       MeterRegistry meterRegistry) {
         this.fileDAO = fileDAO;
+        this.fileCache = fileCache;
+        this.contentCache = contentCache;
+        this.imageVariants = imageVariants;
         this.bucketName = bucketName;
-        this.s3Client = S3Client.builder()
-                .region(Region.of(region))
-                .credentialsProvider(DefaultCredentialsProvider.create())
-                .build();
+        this.s3Client = s3Client;
+        this.s3Bulkhead = s3Bulkhead;
+        this.s3Resilience = s3Resilience;
+        this.uploadJournal = uploadJournal;
+        this.uploadRecovery = uploadRecovery;
+        this.uploadPartBulkhead = uploadPartBulkhead;
+        this.uploader = new S3MultipartUploader(s3Client, bucketName, partSize, parallelism,
+                multipartThreshold, uploadPartBulkhead.asExecutor());
+        this.asyncEnabled = asyncEnabled;
+        this.asyncIoBulkhead = asyncIoBulkhead;
+        this.batchUploadBulkhead = batchUploadBulkhead;
+        this.meterRegistry = meterRegistry;
         this.s3UploadCounter = meterRegistry.counter("s3.operation.upload.count");
-        this.s3UploadTimer = meterRegistry.timer("s3.operation.upload.timer");
         this.s3HeadCounter = meterRegistry.counter("s3.operation.head.count");
-        this.s3HeadTimer = meterRegistry.timer("s3.operation.head.timer");
         this.s3DeleteCounter = meterRegistry.counter("s3.operation.delete.count");
-        this.s3DeleteTimer = meterRegistry.timer("s3.operation.delete.timer");
+        this.s3BatchDeleteCounter = meterRegistry.counter("s3.operation.delete.batch.count");
+        this.s3BatchUploadCounter = meterRegistry.counter("s3.operation.upload.batch.count");
+        this.s3DeduplicatedCounter = meterRegistry.counter("s3.operation.upload.deduplicated");
+        this.uploadedBytes = DistributionSummary.builder("s3.upload.bytes")
+                .baseUnit("bytes").tag("deduplicated", "false").register(meterRegistry);
+        this.deduplicatedBytes = DistributionSummary.builder("s3.upload.bytes")
+                .baseUnit("bytes").tag("deduplicated", "true").register(meterRegistry);
     }
 
     public File uploadFile(MultipartFile file) throws Exception {
     	
-    	return s3UploadTimer.recordCallable(() -> {
+    	return timedCall(UPLOAD_TIMER, Tags.of(MetricTags.sizeClass(file.getSize())), () -> {
     	s3UploadCounter.increment();
-    	String uuid = UUID.randomUUID().toString();
+        File fileEntity = prepare(file);
+        // A deduplicated row got the variants of the row it shares content with
+        if (reuseStoredContent(fileEntity)) {
+            deduplicatedBytes.record(file.getSize());
+        } else {
+            storeConcurrently(file, fileEntity);
+            uploadedBytes.record(file.getSize());
+            imageVariants.submit(fileEntity, file.getContentType(), file.getSize());
+        }
+        fileCache.put(fileEntity);
         
+        logger.info("File saved successfully to DB and S3: id={}", fileEntity.getId());
+
+        return fileEntity;
+    	});
+    }
+
+    /**
+     * Uploads all parts to S3 concurrently (at most aws.s3.upload.batch-concurrency at a
+     * time across the instance) and then stores the rows of every successful upload in
+     * a single batched transaction. If that transaction fails the uploaded objects are
+     * removed again and every item is reported as failed. Parts whose content is already
+     * stored are not uploaded; their rows are inserted individually by {@link #store}.
+     */
+    public List<BatchUploadResult> uploadFiles(List<MultipartFile> files) {
+    	return timed(BATCH_UPLOAD_TIMER, () -> {
+    	s3BatchUploadCounter.increment();
+    	logger.info("Batch upload started: files={}", files.size());
+    	List<CompletableFuture<StoredUpload>> transfers = new ArrayList<>();
+    	for (MultipartFile file : files) {
+    		try {
+    			transfers.add(CompletableFuture.supplyAsync(() -> {
+    				try {
+    					return store(file);
+    				} catch (IOException e) {
+    					throw new CompletionException(e);
+    				}
+    			}, batchUploadBulkhead.asExecutor()));
+    		} catch (BulkheadFullException e) {
+    			// Refused before anything was sent: the whole request gets a 503
+    			if (transfers.isEmpty()) {
+    				throw e;
+    			}
+    			transfers.add(CompletableFuture.failedFuture(e));
+    		}
+    	}
+
+    	List<BatchUploadResult> results = new ArrayList<>();
+    	List<File> uploaded = new ArrayList<>();
+    	List<MultipartFile> uploadedParts = new ArrayList<>();
+    	for (int i = 0; i < files.size(); i++) {
+    		try {
+    			StoredUpload stored = transfers.get(i).join();
+    			if (stored.deduplicated()) {
+    				fileCache.put(stored.file());
+    			} else {
+    				uploaded.add(stored.file());
+    				uploadedParts.add(files.get(i));
+    			}
+    			results.add(BatchUploadResult.success(stored.file()));
+    		} catch (CompletionException e) {
+    			Throwable cause = e.getCause() != null ? e.getCause() : e;
+    			results.add(BatchUploadResult.failure(files.get(i).getOriginalFilename(), cause.getMessage()));
+    		}
+    	}
+    	if (uploaded.isEmpty()) {
+    		return results;
+    	}
+
+    	try {
+    		fileDAO.saveAll(uploaded);
+    		uploaded.forEach(fileCache::put);
+    		for (int i = 0; i < uploaded.size(); i++) {
+    			imageVariants.submit(uploaded.get(i), uploadedParts.get(i).getContentType(), uploadedParts.get(i).getSize());
+    		}
+    		logger.info("Batch upload saved to DB: files={}", uploaded.size());
+    	} catch (Exception e) {
+    		logger.error("Batch insert failed, removing {} uploaded objects", uploaded.size(), e);
+    		for (File fileEntity : uploaded) {
+    			deleteObjectQuietly(extractS3Key(fileEntity.getUrl()));
+    		}
+    		List<BatchUploadResult> failed = new ArrayList<>();
+    		for (BatchUploadResult result : results) {
+    			failed.add(result.succeeded() && uploaded.contains(result.file())
+    					? BatchUploadResult.failure(result.fileName(), "Failed to save file metadata")
+    					: result);
+    		}
+    		return failed;
+    	}
+    	return results;
+    	});
+    }
+
+    /**
+     * Hashes the part and, if an object with the same content is already stored, inserts
+     * a row pointing at it instead of uploading again. Otherwise the part is streamed to
+     * S3 and the returned row still has to be persisted by the caller.
+     */
+    private StoredUpload store(MultipartFile file) throws IOException {
+    	File fileEntity = prepare(file);
+    	if (reuseStoredContent(fileEntity)) {
+    		deduplicatedBytes.record(file.getSize());
+    		return new StoredUpload(fileEntity, true);
+    	}
+    	transferToS3(file, extractS3Key(fileEntity.getUrl()));
+    	uploadedBytes.record(file.getSize());
+    	return new StoredUpload(fileEntity, false);
+    }
+
+    /**
+     * Sends the object to S3 on this thread while the row is inserted on the db bulkhead,
+     * so an upload costs the slower of the two instead of their sum. The upload is
+     * journaled first; if either side fails, the other is rolled back before the error is
+     * rethrown, and a rollback that fails itself is left to {@link UploadRecovery}.
+     */
+    private void storeConcurrently(MultipartFile file, File fileEntity) throws IOException {
+    	String contentHash = beginConcurrentStore(fileEntity);
+    	CompletableFuture<Void> insert = fileDAO.saveAsync(fileEntity);
+    	Throwable s3Error = null;
+    	// An insert refused up front (bulkhead full) makes the transfer pointless
+    	if (!insert.isCompletedExceptionally()) {
+    		try {
+    			transferToS3(file, extractS3Key(fileEntity.getUrl()));
+    		} catch (IOException | RuntimeException e) {
+    			s3Error = e;
+    		}
+    	}
+    	settle(fileEntity, contentHash, s3Error, insert.handle((ignored, error) -> error).join());
+    }
+
+    // Journals the upload and takes the content hash off the row, so the row is inserted
+    // without it: no concurrent upload can be deduplicated onto an object that is still
+    // being written, or that is rolled back. settle records the hash once both sides exist.
+    private String beginConcurrentStore(File fileEntity) {
+    	uploadJournal.begin(fileEntity);
+    	String contentHash = fileEntity.getContentHash();
+    	fileEntity.setContentHash(null);
+    	return contentHash;
+    }
+
+    // Records the content hash and ends the journal entry of a stored upload, or rolls it
+    // back and rethrows the failure
+    private void settle(File fileEntity, String contentHash, Throwable s3Error, Throwable dbError) throws IOException {
+    	if (s3Error == null && dbError == null) {
+    		Throwable error = null;
+    		try {
+    			fileDAO.updateContentHash(fileEntity.getId(), contentHash);
+    		} catch (RuntimeException e) {
+    			error = e;
+    		}
+    		stored(fileEntity, contentHash, error);
+    		return;
+    	}
+    	logRollback(fileEntity, s3Error, dbError);
+    	uploadRecovery.rollBack(fileEntity);
+    	Throwable error = uploadFailure(fileEntity, s3Error, dbError);
+    	if (error instanceof IOException io) {
+    		throw io;
+    	}
+    	throw (RuntimeException) error;
+    }
+
+    // Non-blocking settle: the hash update and the rollback run on the db and s3 bulkheads,
+    // and the future fails with the upload's failure once a rollback is done
+    private CompletableFuture<Void> settleAsync(File fileEntity, String contentHash, Throwable s3Error, Throwable dbError) {
+    	if (s3Error == null && dbError == null) {
+    		return fileDAO.updateContentHashAsync(fileEntity.getId(), contentHash)
+    				.handle((ignored, error) -> {
+    					stored(fileEntity, contentHash, error);
+    					return null;
+    				});
+    	}
+    	logRollback(fileEntity, s3Error, dbError);
+    	return uploadRecovery.rollBackAsync(fileEntity).thenApply(ignored -> {
+    		Throwable error = uploadFailure(fileEntity, s3Error, dbError);
+    		throw error instanceof CompletionException completion ? completion : new CompletionException(error);
+    	});
+    }
+
+    private void stored(File fileEntity, String contentHash, Throwable hashError) {
+    	if (hashError == null) {
+    		fileEntity.setContentHash(contentHash);
+    	} else {
+    		// Only costs deduplication against this file; the upload itself is complete
+    		logger.warn("Could not record content hash: id={}", fileEntity.getId(),
+    				hashError instanceof CompletionException && hashError.getCause() != null ? hashError.getCause() : hashError);
+    	}
+    	uploadJournal.end(fileEntity.getId());
+    }
+
+    private static void logRollback(File fileEntity, Throwable s3Error, Throwable dbError) {
+    	logger.warn("Upload failed, rolling back: id={}, s3Failed={}, dbFailed={}",
+    			fileEntity.getId(), s3Error != null, dbError != null);
+    }
+
+    // The failure to report for an upload: an IOException or a RuntimeException
+    private static Throwable uploadFailure(File fileEntity, Throwable s3Error, Throwable dbError) {
+    	Throwable error = s3Error != null ? s3Error : dbError;
+    	if (error instanceof CompletionException && error.getCause() != null) {
+    		error = error.getCause();
+    	}
+    	if (error instanceof IOException || error instanceof RuntimeException) {
+    		return error;
+    	}
+    	return new IllegalStateException("Upload failed: id=" + fileEntity.getId(), error);
+    }
+
+    // New row for an upload: fresh id and key, plus the SHA-256 of the spooled part
+    private File prepare(MultipartFile file) throws IOException {
+    	String uuid = UUID.randomUUID().toString();
     	String s3Key = uuid + "/" + file.getOriginalFilename();
-    	
+    	File fileEntity = new File(uuid, file.getOriginalFilename(), bucketName + "/" + s3Key);
+    	fileEntity.setContentHash(sha256(file));
+    	return fileEntity;
+    }
+
+    private boolean reuseStoredContent(File fileEntity) {
+    	return reused(fileEntity, fileDAO.saveIfContentExists(fileEntity));
+    }
+
+    private boolean reused(File fileEntity, boolean deduplicated) {
+    	if (deduplicated) {
+    		s3DeduplicatedCounter.increment();
+    		logger.info("Upload deduplicated, reusing stored object: id={}, url={}", fileEntity.getId(), fileEntity.getUrl());
+    	}
+    	return deduplicated;
+    }
+
+    private void transferToS3(MultipartFile file, String s3Key) throws IOException {
     	logger.info("Uploading file to S3: filename={}, s3Key={}", file.getOriginalFilename(), s3Key);
 
-        
-        PutObjectRequest putRequest = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(s3Key)
-                .build();
         try {
-			s3Client.putObject(putRequest, RequestBody.fromBytes(file.getBytes()));
-		} catch (Exception e) {
+			s3Bulkhead.execute(() -> {
+				uploader.upload(s3Key, file.getSize(), file.getContentType(), file::getInputStream);
+				return null;
+			});
+		} catch (IOException | RuntimeException e) {
 			logger.error("Error during S3 putObject: filename={}, s3Key={}, error={}", 
                     file.getOriginalFilename(), s3Key, e.getMessage());
 			throw e;
 		}
+    }
 
-        
-        String url = bucketName + "/" + s3Key;
-
-        
-        File fileEntity = new File(uuid, file.getOriginalFilename(), url);
-
-        
-        fileDAO.save(fileEntity);
-        
-        logger.info("File saved successfully to DB and S3: id={}", uuid);
+    // The part is already spooled locally (memory or disk), so this pass costs no S3 traffic
+    private static String sha256(MultipartFile file) throws IOException {
+    	MessageDigest digest;
+    	try {
+    		digest = MessageDigest.getInstance("SHA-256");
+    	} catch (NoSuchAlgorithmException e) {
+    		throw new IllegalStateException(e);
+    	}
+    	byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+    	try (InputStream in = file.getInputStream()) {
+    		int read;
+    		while ((read = in.read(buffer)) != -1) {
+    			digest.update(buffer, 0, read);
+    		}
+    	}
+    	return HexFormat.of().formatHex(digest.digest());
+    }
 
-        return fileEntity;
-    	});
+    private void deleteObjectQuietly(String s3Key) {
+    	try {
+    		s3Resilience.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(s3Key).build());
+    	} catch (Exception e) {
+    		logger.error("Failed to remove S3 object: s3Key={}", s3Key, e);
+    	}
     }
 
     public File getFileById(String id) {
     	
-    	return s3HeadTimer.record(() -> {
+    	return timed(HEAD_TIMER, () -> {
     	
     	s3HeadCounter.increment();
     	logger.info("Retrieving file by ID: {}", id);
-        File fileEntity = fileDAO.findById(id);
+    	File cached = lookupCached(id);
+    	if (cached != null || fileCache.isKnownMissing(id)) {
+    		return cached;
+    	}
+        return remember(id, fileDAO.findById(id));
+    	});
+    }
+
+    // Caches the row looked up for id, or that there is none
+    private File remember(String id, File fileEntity) {
         if (fileEntity == null) {
         	logger.warn("File not found in DB: id={}", id);
+        	fileCache.putMissing(id);
             return null;
         }
         
-        try {
-            String s3Key = extractS3Key(fileEntity.getUrl());
-            HeadObjectRequest headRequest = HeadObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(s3Key)
-                    .build();
-            s3Client.headObject(headRequest);
-            logger.info("File found in S3: s3Key={}", s3Key);
-        } catch (S3Exception e) {
-            if (e.statusCode() == 404) {
-            	logger.warn("File missing in S3: id={}, s3Key={}", id, fileEntity.getUrl());
-                return null;
-            }
-            logger.error("Error retrieving file from S3: id={}", id, e);
-            throw e;
-        }
+        // Existence in S3 is not re-checked here; FileReconciler repairs rows whose
+        // object has gone missing in the background.
+        fileCache.put(fileEntity);
         return fileEntity;
-    	});
     }
 
     public boolean deleteFile(String id) {
-    	return s3DeleteTimer.record(() -> {
+    	return timed(DELETE_TIMER, () -> {
     	s3DeleteCounter.increment();
     	logger.info("Deleting file: id={}", id);
         File fileEntity = fileDAO.findById(id);
@@ -140,30 +457,433 @@ public class FileService {
             return false;
         }
         
-        String s3Key = extractS3Key(fileEntity.getUrl());
+        // The row goes first; the object is only removed once no other row shares it
+        List<FileVariant> variants = imageVariants.findVariants(List.of(id));
+        Set<String> unreferenced = fileDAO.deleteReferences(List.of(fileEntity));
+        fileCache.markDeleted(id);
+        contentCache.invalidate(id);
+        imageVariants.removeVariants(List.of(id), variants);
+        logger.info("File deleted from database: id={}", id);
 
+        String s3Key = extractS3Key(fileEntity.getUrl());
+        if (unreferenced.isEmpty()) {
+        	logger.info("S3 object still referenced by other files: id={}, s3Key={}", id, s3Key);
+        	return true;
+        }
         try {
             DeleteObjectRequest deleteRequest = DeleteObjectRequest.builder()
                     .bucket(bucketName)
                     .key(s3Key)
                     .build();
-            s3Client.deleteObject(deleteRequest);
+            s3Resilience.deleteObject(deleteRequest);
             logger.info("File deleted from S3: s3Key={}", s3Key);
+        } catch (BulkheadFullException | CircuitOpenException e) {
+        	logger.warn("S3 unavailable ({}), leaving object for the reconciler: id={}, s3Key={}", e.getMessage(), id, s3Key);
         } catch (S3Exception e) {
             if (e.statusCode() != 404) {
+            	// The row is gone already; FileReconciler removes the orphaned object
             	logger.error("Error deleting file from S3: id={}, s3Key={}", id, s3Key, e);
-                throw e;
+            } else {
+            	logger.warn("File not found in S3 while deleting: id={}, s3Key={}", id, s3Key);
             }
-            logger.warn("File not found in S3 while deleting: id={}, s3Key={}", id, s3Key);
         }
-        // Delete from the database
-        fileDAO.delete(fileEntity);
-        logger.info("File deleted from database: id={}", id);
         return true;
     	});
     }
 
 
+    /**
+     * Opens the object behind {@code fileEntity} as a stream. Range and conditional
+     * headers are passed through to S3, which answers 206 for ranges and fails with a
+     * 304/412/416 {@link S3Exception} when a precondition short-circuits the transfer.
+     * The caller must close the returned stream.
+     */
+    public ResponseInputStream<GetObjectResponse> openContent(File fileEntity, String range,
+                                                             String ifNoneMatch, Instant ifModifiedSince) {
+    	String s3Key = extractS3Key(fileEntity.getUrl());
+    	logger.info("Opening S3 object stream: id={}, s3Key={}, range={}", fileEntity.getId(), s3Key, range);
+    	GetObjectRequest getRequest = GetObjectRequest.builder()
+    			.bucket(bucketName)
+    			.key(s3Key)
+    			.range(range)
+    			.ifNoneMatch(ifNoneMatch)
+    			.ifModifiedSince(ifModifiedSince)
+    			.build();
+    	return s3Resilience.getObject(getRequest);
+    }
+
+    /** The cached bytes of a file, or null when they have to be read from S3. */
+    public FileContentCache.Content getCachedContent(String id) {
+    	return contentCache.get(id);
+    }
+
+    /**
+     * Starts caching the complete object being streamed from {@code object}; null when it
+     * is not cacheable. See {@link FileContentCache#startCapture}.
+     */
+    public FileContentCache.Capture captureContent(File fileEntity, GetObjectResponse object) {
+    	return contentCache.startCapture(fileEntity.getId(), object.contentLength(), object.contentType(),
+    			object.eTag(), object.lastModified());
+    }
+
+    /**
+     * The narrowest stored variant of {@code id} at least {@code minWidth} pixels wide, or
+     * null when the original should be served. See {@link ImageVariantService#findVariant}.
+     */
+    public FileVariant findVariant(String id, int minWidth) {
+    	return imageVariants.findVariant(id, minWidth);
+    }
+
+    /** Like {@link #openContent}, for a variant's object. */
+    public ResponseInputStream<GetObjectResponse> openVariant(FileVariant variant, String range,
+                                                             String ifNoneMatch, Instant ifModifiedSince) {
+    	String s3Key = extractS3Key(variant.getUrl());
+    	logger.info("Opening S3 variant stream: id={}, width={}, s3Key={}", variant.getFileId(), variant.getWidth(), s3Key);
+    	GetObjectRequest getRequest = GetObjectRequest.builder()
+    			.bucket(bucketName)
+    			.key(s3Key)
+    			.range(range)
+    			.ifNoneMatch(ifNoneMatch)
+    			.ifModifiedSince(ifModifiedSince)
+    			.build();
+    	return s3Resilience.getObject(getRequest);
+    }
+
+    /**
+     * Deletes many files with one lookup query, one DELETE statement and one DeleteObjects
+     * call per chunk of up to 1,000 ids. Rows go first and only objects no remaining row
+     * references are removed from S3; an object S3 refuses to delete is left for
+     * FileReconciler, and every id whose row pointed at it is reported PENDING_CLEANUP.
+     */
+    public List<BatchDeleteResult> deleteFiles(List<String> ids) {
+    	return timed(BATCH_DELETE_TIMER, () -> {
+    	s3BatchDeleteCounter.increment();
+    	List<String> uniqueIds = new ArrayList<>(new LinkedHashSet<>(ids));
+    	logger.info("Bulk delete requested: ids={}", uniqueIds.size());
+    	Map<String, BatchDeleteResult> results = new HashMap<>();
+    	for (int from = 0; from < uniqueIds.size(); from += DELETE_OBJECTS_MAX_KEYS) {
+    		List<String> chunk = uniqueIds.subList(from, Math.min(from + DELETE_OBJECTS_MAX_KEYS, uniqueIds.size()));
+    		deleteChunk(chunk, results);
+    	}
+    	List<BatchDeleteResult> ordered = new ArrayList<>();
+    	for (String id : uniqueIds) {
+    		ordered.add(results.get(id));
+    	}
+    	return ordered;
+    	});
+    }
+
+    private void deleteChunk(List<String> ids, Map<String, BatchDeleteResult> results) {
+    	List<File> rows;
+    	try {
+    		rows = fileDAO.findByIds(ids);
+    	} catch (Exception e) {
+    		logger.error("Bulk delete lookup failed for {} ids", ids.size(), e);
+    		ids.forEach(id -> results.put(id, BatchDeleteResult.failure(id, "Failed to look up file")));
+    		return;
+    	}
+    	for (String id : ids) {
+    		results.put(id, BatchDeleteResult.notFound(id));
+    	}
+    	if (rows.isEmpty()) {
+    		return;
+    	}
+
+    	List<String> rowIds = rows.stream().map(File::getId).toList();
+    	List<FileVariant> variants = imageVariants.findVariants(rowIds);
+    	Set<String> unreferenced;
+    	try {
+    		unreferenced = fileDAO.deleteReferences(rows);
+    	} catch (Exception e) {
+    		logger.error("Bulk delete of {} rows failed", rows.size(), e);
+    		rows.forEach(row -> results.put(row.getId(), BatchDeleteResult.failure(row.getId(), "Failed to delete file metadata")));
+    		return;
+    	}
+    	for (File row : rows) {
+    		fileCache.markDeleted(row.getId());
+    		contentCache.invalidate(row.getId());
+    		results.put(row.getId(), BatchDeleteResult.deleted(row.getId()));
+    	}
+    	imageVariants.removeVariants(rowIds, variants);
+    	logger.info("Bulk delete removed {} files, {} objects unreferenced", rows.size(), unreferenced.size());
+    	if (unreferenced.isEmpty()) {
+    		return;
+    	}
+
+    	// Rows sharing an object are reported together if S3 refuses to delete it
+    	Map<String, List<String>> idsByKey = new HashMap<>();
+    	for (File row : rows) {
+    		if (unreferenced.contains(row.getUrl())) {
+    			idsByKey.computeIfAbsent(extractS3Key(row.getUrl()), key -> new ArrayList<>()).add(row.getId());
+    		}
+    	}
+    	try {
+    		List<ObjectIdentifier> objects = new ArrayList<>();
+    		unreferenced.forEach(url -> objects.add(ObjectIdentifier.builder().key(extractS3Key(url)).build()));
+    		DeleteObjectsResponse response = s3Resilience.deleteObjects(DeleteObjectsRequest.builder()
+    				.bucket(bucketName)
+    				.delete(Delete.builder().objects(objects).quiet(true).build())
+    				.build());
+    		for (S3Error error : response.errors()) {
+    			if (!"NoSuchKey".equals(error.code())) {
+    				logger.warn("S3 refused to delete object: s3Key={}, code={}", error.key(), error.code());
+    				pendingCleanup(idsByKey.getOrDefault(error.key(), List.of()), results,
+    						"File metadata deleted; S3 refused to delete the object (" + error.code() + ")");
+    			}
+    		}
+    	} catch (Exception e) {
+    		// Rows are already gone; FileReconciler will clean up these objects
+    		logger.error("DeleteObjects failed for {} keys after their rows were removed", unreferenced.size(), e);
+    		idsByKey.values().forEach(keyIds -> pendingCleanup(keyIds, results,
+    				"File metadata deleted; failed to delete the object"));
+    	}
+    }
+
+    private static void pendingCleanup(List<String> ids, Map<String, BatchDeleteResult> results, String error) {
+    	ids.forEach(id -> results.put(id, BatchDeleteResult.pendingCleanup(id, error)));
+    }
+
+    /**
+     * Non-blocking variant of {@link #uploadFile}. In async mode hashing, spooling and
+     * settling run on the bounded async-io bulkhead, database steps on the db bulkhead and
+     * the PutObject on S3AsyncClient through {@link S3Resilience} (multipart files are
+     * driven from the s3 bulkhead), so no request thread waits on S3. In blocking mode
+     * this simply wraps {@link #uploadFile}.
+     */
+    public CompletableFuture<File> uploadFileAsync(MultipartFile file) {
+    	if (!asyncEnabled) {
+    		try {
+    			return CompletableFuture.completedFuture(uploadFile(file));
+    		} catch (Exception e) {
+    			return CompletableFuture.failedFuture(e);
+    		}
+    	}
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	s3UploadCounter.increment();
+    	return asyncIoBulkhead.submit(() -> {
+    		try {
+    			return prepare(file);
+    		} catch (IOException e) {
+    			throw new CompletionException(e);
+    		}
+    	}).thenCompose(fileEntity -> fileDAO.saveIfContentExistsAsync(fileEntity)
+    			.thenComposeAsync(deduplicated -> {
+    				if (!reused(fileEntity, deduplicated)) {
+    					return storeConcurrentlyAsync(file, fileEntity);
+    				}
+    				deduplicatedBytes.record(file.getSize());
+    				fileCache.put(fileEntity);
+    				return CompletableFuture.completedFuture(fileEntity);
+    			}, asyncIoBulkhead.asExecutor())
+    	).whenComplete((saved, error) -> {
+    		if (error != null) {
+    			logger.error("Error during S3 putObject: filename={}, error={}",
+    					file.getOriginalFilename(), error.getMessage());
+    		}
+    		sample.stop(meterRegistry.timer(UPLOAD_TIMER, MetricTags.forResult(error).and(MetricTags.sizeClass(file.getSize()))));
+    	});
+    }
+
+    // Non-blocking storeConcurrently: settling writes the journal, so it starts on the
+    // async-io bulkhead rather than an SDK thread; its database and S3 calls run on their
+    // own bulkheads and are composed rather than waited for
+    private CompletableFuture<File> storeConcurrentlyAsync(MultipartFile file, File fileEntity) {
+    	String contentHash = beginConcurrentStore(fileEntity);
+    	CompletableFuture<Void> insert = fileDAO.saveAsync(fileEntity);
+    	// An insert refused up front (bulkhead full) makes the transfer pointless
+    	CompletableFuture<?> transfer = insert.isCompletedExceptionally()
+    			? CompletableFuture.completedFuture(null)
+    			: transferToS3Async(file, extractS3Key(fileEntity.getUrl()));
+    	return transfer.handle((ignored, error) -> error)
+    			.thenCombineAsync(insert.handle((ignored, error) -> error),
+    					(s3Error, dbError) -> settleAsync(fileEntity, contentHash, s3Error, dbError),
+    					asyncIoBulkhead.asExecutor())
+    			.thenCompose(settled -> settled)
+    			.thenApply(ignored -> {
+    				uploadedBytes.record(file.getSize());
+    				fileCache.put(fileEntity);
+    				imageVariants.submit(fileEntity, file.getContentType(), file.getSize());
+    				logger.info("File saved successfully to DB and S3: id={}", fileEntity.getId());
+    				return fileEntity;
+    			});
+    }
+
+    // The part is spooled to a file of its own so the SDK reads it from its event loop;
+    // a body read through an InputStream would need a thread per upload
+    private CompletableFuture<?> transferToS3Async(MultipartFile file, String s3Key) {
+    	logger.info("Uploading file to S3 (async): filename={}, s3Key={}", file.getOriginalFilename(), s3Key);
+    	if (uploader.isMultipart(file.getSize())) {
+    		return s3Bulkhead.submit(() -> {
+    			try {
+    				uploader.upload(s3Key, file.getSize(), file.getContentType(), file::getInputStream);
+    				return null;
+    			} catch (IOException e) {
+    				throw new CompletionException(e);
+    			}
+    		});
+    	}
+    	PutObjectRequest putRequest = PutObjectRequest.builder()
+    			.bucket(bucketName)
+    			.key(s3Key)
+    			.contentType(file.getContentType())
+    			.build();
+    	return asyncIoBulkhead.submit(() -> {
+    		try {
+    			Path body = Files.createTempFile("upload-", ".body");
+    			file.transferTo(body);
+    			return body;
+    		} catch (IOException e) {
+    			throw new CompletionException(e);
+    		}
+    	}).thenCompose(body -> s3Resilience.putObjectAsync(putRequest, () -> AsyncRequestBody.fromFile(body))
+    			.whenComplete((response, error) -> deleteQuietly(body)));
+    }
+
+    /**
+     * Metadata listing straight from the database; S3 is not involved. Returns up to
+     * {@code limit} rows after the query's keyset position.
+     */
+    public List<File> listFiles(FileListQuery query, int limit) {
+    	logger.info("Listing file metadata: query={}, limit={}", query, limit);
+    	return fileDAO.findPage(query, limit);
+    }
+
+    /** Every row matching {@code query}, read as repeated keyset pages; returns the row count. */
+    public long streamFiles(FileListQuery query, Consumer<File> consumer) {
+    	logger.info("Streaming file metadata: query={}", query);
+    	return fileDAO.streamRows(query, consumer);
+    }
+
+    /**
+     * The cached row for {@code id}, or null; never goes to the database. Lets conditional
+     * requests be answered without a lookup.
+     */
+    public File getCachedFileById(String id) {
+    	return fileCache.get(id);
+    }
+
+    /**
+     * Non-blocking variant of {@link #getFileById}: a cached row (or a cached miss) is
+     * returned at once, otherwise the lookup runs on the db bulkhead.
+     */
+    public CompletableFuture<File> getFileByIdAsync(String id) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	s3HeadCounter.increment();
+    	logger.info("Retrieving file by ID: {}", id);
+    	File cached = lookupCached(id);
+    	if (cached != null || fileCache.isKnownMissing(id)) {
+    		stopTimer(sample, HEAD_TIMER, null);
+    		return CompletableFuture.completedFuture(cached);
+    	}
+    	return fileDAO.findByIdAsync(id)
+    			.thenApply(fileEntity -> remember(id, fileEntity))
+    			.whenComplete((fileEntity, error) -> stopTimer(sample, HEAD_TIMER, error));
+    }
+
+    /**
+     * Non-blocking variant of {@link #deleteFile}. In async mode the lookups and the delete
+     * run on the db bulkhead and the DeleteObject on S3AsyncClient through
+     * {@link S3Resilience}; in blocking mode this simply wraps {@link #deleteFile}.
+     */
+    public CompletableFuture<Boolean> deleteFileAsync(String id) {
+    	if (!asyncEnabled) {
+    		try {
+    			return CompletableFuture.completedFuture(deleteFile(id));
+    		} catch (Exception e) {
+    			return CompletableFuture.failedFuture(e);
+    		}
+    	}
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	s3DeleteCounter.increment();
+    	logger.info("Deleting file: id={}", id);
+    	return fileDAO.findByIdAsync(id).thenCompose(fileEntity -> {
+    		if (fileEntity == null) {
+    			logger.warn("Attempted to delete non-existent file: id={}", id);
+    			return CompletableFuture.completedFuture(false);
+    		}
+    		return imageVariants.findVariantsAsync(List.of(id))
+    				.thenCompose(variants -> fileDAO.deleteReferencesAsync(List.of(fileEntity))
+    						.thenComposeAsync(unreferenced -> {
+    							fileCache.markDeleted(id);
+    							contentCache.invalidate(id);
+    							imageVariants.removeVariants(List.of(id), variants);
+    							logger.info("File deleted from database: id={}", id);
+    							return deleteObjectAsync(fileEntity, !unreferenced.isEmpty());
+    						}, asyncIoBulkhead.asExecutor()));
+    	}).whenComplete((deleted, error) -> stopTimer(sample, DELETE_TIMER, error));
+    }
+
+    // The row is gone already, so this always completes with true; an object that cannot
+    // be removed now is left to FileReconciler
+    private CompletableFuture<Boolean> deleteObjectAsync(File fileEntity, boolean unreferenced) {
+    	String id = fileEntity.getId();
+    	String s3Key = extractS3Key(fileEntity.getUrl());
+    	if (!unreferenced) {
+    		logger.info("S3 object still referenced by other files: id={}, s3Key={}", id, s3Key);
+    		return CompletableFuture.completedFuture(true);
+    	}
+    	DeleteObjectRequest deleteRequest = DeleteObjectRequest.builder()
+    			.bucket(bucketName)
+    			.key(s3Key)
+    			.build();
+    	return s3Resilience.deleteObjectAsync(deleteRequest).handle((response, error) -> {
+    		if (error == null) {
+    			logger.info("File deleted from S3: s3Key={}", s3Key);
+    		} else if (BulkheadFullException.isCause(error) || CircuitOpenException.isCause(error)) {
+    			logger.warn("S3 unavailable ({}), leaving object for the reconciler: id={}, s3Key={}", error.getMessage(), id, s3Key);
+    		} else if (error instanceof S3Exception s3 && s3.statusCode() == 404) {
+    			logger.warn("File not found in S3 while deleting: id={}, s3Key={}", id, s3Key);
+    		} else {
+    			logger.error("Error deleting file from S3: id={}, s3Key={}", id, s3Key, error);
+    		}
+    		return true;
+    	});
+    }
+
+    private <T> T timed(String timerName, Supplier<T> operation) {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	try {
+    		T result = operation.get();
+    		stopTimer(sample, timerName, null);
+    		return result;
+    	} catch (RuntimeException | Error e) {
+    		stopTimer(sample, timerName, e);
+    		throw e;
+    	}
+    }
+
+    private <T> T timedCall(String timerName, Tags tags, Callable<T> operation) throws Exception {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	try {
+    		T result = operation.call();
+    		sample.stop(meterRegistry.timer(timerName, MetricTags.forResult(null).and(tags)));
+    		return result;
+    	} catch (Exception e) {
+    		sample.stop(meterRegistry.timer(timerName, MetricTags.forResult(e).and(tags)));
+    		throw e;
+    	}
+    }
+
+    private void stopTimer(Timer.Sample sample, String timerName, Throwable error) {
+    	sample.stop(meterRegistry.timer(timerName, MetricTags.forResult(error)));
+    }
+
+    private File lookupCached(String id) {
+    	File cached = fileCache.get(id);
+    	if (cached != null) {
+    		logger.info("File metadata served from cache: id={}", id);
+    	}
+    	return cached;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to remove spooled upload body: {}", path, e);
+        }
+    }
+
     private String extractS3Key(String url) {
         String prefix = bucketName + "/";
         if (url.startsWith(prefix)) {
@@ -1,42 +1,80 @@
 package com.cloud.webapp.service;
 
-import java.time.LocalDateTime;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import com.cloud.webapp.dao.HealthDAO;
-import com.cloud.webapp.model.Health;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
 
 
+/**
+ * The database is probed in the background on a fixed schedule; /healthz only reads the
+ * last result. A result older than the staleness limit counts as unhealthy, so a stuck
+ * prober cannot keep reporting an old success.
+ */
 @Service
 public class HealthService {
 
+	private static final Logger logger = LoggerFactory.getLogger(HealthService.class);
+
 	@Autowired
     private HealthDAO healthDao;
     private final Timer healthServiceTimer;
     private final Counter healthServiceCounter;
+    private final Timer probeSuccessTimer;
+    private final Timer probeFailureTimer;
+    private final MeterRegistry meterRegistry;
+    private final int probeTimeoutSeconds;
+    private final long maxStalenessMs;
+
+    private volatile boolean lastProbeHealthy;
+    private volatile long lastProbeAtMs;
 	
 	@Autowired
-    public HealthService(HealthDAO healthDao, MeterRegistry meterRegistry) {
+    public HealthService(HealthDAO healthDao,
+                         @Value("${health.probe.timeout-seconds:2}") int probeTimeoutSeconds,
+                         @Value("${health.probe.max-staleness-ms:30000}") long maxStalenessMs,
+                         MeterRegistry meterRegistry) {
         this.healthDao = healthDao;
+        this.probeTimeoutSeconds = probeTimeoutSeconds;
+        this.maxStalenessMs = maxStalenessMs;
+        this.meterRegistry = meterRegistry;
         this.healthServiceTimer = meterRegistry.timer("health.service.timer");
         this.healthServiceCounter = meterRegistry.counter("health.service.count");
+        this.probeSuccessTimer = meterRegistry.timer("health.probe.timer", "outcome", "success");
+        this.probeFailureTimer = meterRegistry.timer("health.probe.timer", "outcome", "failure");
     }
 
-    public boolean isDbConnected() {
-    	return healthServiceTimer.record(() -> {
-    	healthServiceCounter.increment();
+    @Scheduled(initialDelay = 0, fixedDelayString = "${health.probe.interval-ms:5000}")
+    public void probe() {
+    	Timer.Sample sample = Timer.start(meterRegistry);
+    	boolean healthy;
         try {
-        	healthDao.save(new Health(LocalDateTime.now()));
-            return true;
+        	healthDao.ping(probeTimeoutSeconds);
+        	healthy = true;
+        	sample.stop(probeSuccessTimer);
         } catch (Exception e) {
-            return false;
+        	healthy = false;
+        	sample.stop(probeFailureTimer);
+        	if (lastProbeHealthy) {
+        		logger.error("Database health probe failed", e);
+        	}
         }
+        lastProbeHealthy = healthy;
+        lastProbeAtMs = System.currentTimeMillis();
+    }
+
+    public boolean isDbConnected() {
+    	return healthServiceTimer.record(() -> {
+    	healthServiceCounter.increment();
+    	return lastProbeHealthy && System.currentTimeMillis() - lastProbeAtMs <= maxStalenessMs;
     	});
     }
 }
@@ -0,0 +1,475 @@
+package com.cloud.webapp.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.UUID;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.cloud.webapp.dao.FileVariantDAO;
+import com.cloud.webapp.exceptions.BulkheadFullException;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.model.FileVariant;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.MetricTags;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+/**
+ * Background pipeline that creates downscaled copies of uploaded images, so clients can
+ * fetch a picture at the size they display it instead of the original. After an upload
+ * the file is queued on the image bulkhead; a worker reads the object back from S3,
+ * decodes it (subsampled when the original is much larger than the widest variant),
+ * scales it to every configured width narrower than the original and stores each copy
+ * as variants/&lt;file id&gt;/&lt;width&gt;.jpg (.png for images with transparency). The
+ * rows are written to file_variants in one transaction once every copy is stored.
+ * A deduplicated upload is not processed again: it gets copies of the variant rows of the
+ * file it shares content with, and a variant object is removed with the last row that
+ * points at it.
+ *
+ * Work that does not fit the queue is dropped: the original stays available, and the
+ * content endpoint falls back to it for files without variants. Lookups are cached per
+ * file: the outcome of processing on this instance (the variants, or none for files that
+ * were skipped, dropped or failed) until it is an hour unused, and an empty database
+ * result, which may only mean processing elsewhere has not finished, for
+ * lookup-cache.negative-ttl-seconds. Queue depth and wait
+ * are published as bulkhead.executor.*{name=image}, processing time as
+ * image.variants.process.timer{outcome, exception}, files not processed as
+ * image.variants.skipped{reason} and work refused by a full queue as image.variants.dropped.
+ */
+@Service
+public class ImageVariantService {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImageVariantService.class);
+
+	/** Key prefix of every variant object; it never collides with upload keys (uuid/name). */
+	public static final String KEY_PREFIX = "variants/";
+
+	private static final Set<String> IMAGE_TYPES = Set.of("image/jpeg", "image/jpg", "image/pjpeg",
+			"image/png", "image/gif", "image/bmp");
+	// DeleteObjects accepts at most 1,000 keys per request
+	private static final int DELETE_OBJECTS_MAX_KEYS = 1000;
+	private static final String PROCESS_TIMER = "image.variants.process.timer";
+
+	private final FileVariantDAO fileVariantDAO;
+	private final S3Client s3Client;
+	// Decoding and scaling are CPU bound; this pool bounds both the threads and the backlog
+	private final Bulkhead bulkhead;
+	private final String bucketName;
+	private final boolean enabled;
+	// Ascending
+	private final int[] widths;
+	private final long maxSourceBytes;
+	private final long maxSourcePixels;
+	private final float jpegQuality;
+	// Variants of recently requested or processed files; empty once it is known there are none
+	private final Cache<String, List<FileVariant>> variantCache;
+	// Files the database had no variants for, which may still be in processing
+	private final Cache<String, Boolean> noVariantsYet;
+	private final MeterRegistry meterRegistry;
+	private final Counter droppedCounter;
+	private final Counter createdCounter;
+	private final DistributionSummary variantBytes;
+
+	public ImageVariantService(FileVariantDAO fileVariantDAO, S3Client s3Client,
+	                           @Qualifier("imageBulkhead") Bulkhead bulkhead,
+	                           @Value("${aws.s3.bucket}") String bucketName,
+	                           @Value("${image.variants.enabled:true}") boolean enabled,
+	                           @Value("${image.variants.widths:160,480,1024}") int[] widths,
+	                           @Value("${image.variants.max-source-bytes:20971520}") long maxSourceBytes,
+	                           @Value("${image.variants.max-source-pixels:40000000}") long maxSourcePixels,
+	                           @Value("${image.variants.jpeg-quality:0.8}") float jpegQuality,
+	                           @Value("${image.variants.lookup-cache.max-size:10000}") long lookupCacheSize,
+	                           @Value("${image.variants.lookup-cache.negative-ttl-seconds:30}") long negativeTtlSeconds,
+	                           MeterRegistry meterRegistry) {
+		this.fileVariantDAO = fileVariantDAO;
+		this.s3Client = s3Client;
+		this.bulkhead = bulkhead;
+		this.bucketName = bucketName;
+		this.enabled = enabled;
+		this.widths = Arrays.stream(widths).filter(width -> width > 0).distinct().sorted().toArray();
+		this.maxSourceBytes = maxSourceBytes;
+		this.maxSourcePixels = maxSourcePixels;
+		this.jpegQuality = Math.max(0f, Math.min(1f, jpegQuality));
+		this.variantCache = Caffeine.newBuilder()
+				.maximumSize(lookupCacheSize)
+				.expireAfterAccess(Duration.ofHours(1))
+				.build();
+		this.noVariantsYet = Caffeine.newBuilder()
+				.maximumSize(lookupCacheSize)
+				.expireAfterWrite(Duration.ofSeconds(negativeTtlSeconds))
+				.build();
+		this.meterRegistry = meterRegistry;
+		this.droppedCounter = Counter.builder("image.variants.dropped")
+				.description("Images not processed because the image bulkhead's queue was full")
+				.register(meterRegistry);
+		this.createdCounter = meterRegistry.counter("image.variants.created");
+		this.variantBytes = DistributionSummary.builder("image.variants.bytes")
+				.baseUnit("bytes").register(meterRegistry);
+	}
+
+	public static boolean isVariantKey(String s3Key) {
+		return s3Key.startsWith(KEY_PREFIX);
+	}
+
+	/**
+	 * Queues variant creation for a file that was just stored. Returns immediately;
+	 * files that are not images of a supported type are ignored.
+	 */
+	public void submit(File file, String contentType, long size) {
+		if (!enabled) {
+			return;
+		}
+		if (widths.length == 0 || !isImage(contentType)) {
+			settled(file.getId(), List.of());
+			return;
+		}
+		if (size > maxSourceBytes) {
+			skipped("too_large");
+			settled(file.getId(), List.of());
+			return;
+		}
+		bulkhead.submit(() -> {
+			process(file);
+			return null;
+		}).whenComplete((ignored, error) -> {
+			if (BulkheadFullException.isCause(error)) {
+				droppedCounter.increment();
+				settled(file.getId(), List.of());
+				logger.warn("Image variant queue full, not creating variants: id={}", file.getId());
+			}
+		});
+	}
+
+	// Processing on this instance is over; variants are narrowest first, as findVariant expects
+	private void settled(String fileId, List<FileVariant> variants) {
+		variantCache.put(fileId, variants.stream().sorted(Comparator.comparingInt(FileVariant::getWidth)).toList());
+		noVariantsYet.invalidate(fileId);
+	}
+
+	private static boolean isImage(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		int parameters = contentType.indexOf(';');
+		String type = (parameters < 0 ? contentType : contentType.substring(0, parameters)).trim();
+		return IMAGE_TYPES.contains(type.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * The narrowest variant of {@code fileId} at least {@code minWidth} pixels wide, or null
+	 * when there is none and the original should be served (it is never narrower than its
+	 * variants, which are only made for widths below the original's).
+	 */
+	public FileVariant findVariant(String fileId, int minWidth) {
+		if (!enabled) {
+			return null;
+		}
+		List<FileVariant> variants = variantCache.getIfPresent(fileId);
+		if (variants == null) {
+			if (noVariantsYet.getIfPresent(fileId) != null) {
+				return null;
+			}
+			variants = fileVariantDAO.findByFileId(fileId);
+			// An empty result may only mean processing has not finished yet
+			if (variants.isEmpty()) {
+				noVariantsYet.put(fileId, Boolean.TRUE);
+			} else {
+				variantCache.put(fileId, variants);
+			}
+		}
+		for (FileVariant variant : variants) {
+			if (variant.getWidth() >= minWidth) {
+				return variant;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The variants of files about to be deleted. Must be read before the file rows are
+	 * removed, which takes the variant rows with them. A failed lookup only leaves the
+	 * objects to FileReconciler, so it is logged rather than failing the delete.
+	 */
+	public List<FileVariant> findVariants(Collection<String> fileIds) {
+		if (!enabled || fileIds.isEmpty()) {
+			return List.of();
+		}
+		try {
+			return fileVariantDAO.findByFileIds(fileIds);
+		} catch (RuntimeException e) {
+			return lookupFailed(fileIds, e);
+		}
+	}
+
+	/** Non-blocking {@link #findVariants}; the lookup runs on the db bulkhead. */
+	public CompletableFuture<List<FileVariant>> findVariantsAsync(Collection<String> fileIds) {
+		if (!enabled || fileIds.isEmpty()) {
+			return CompletableFuture.completedFuture(List.of());
+		}
+		return fileVariantDAO.findByFileIdsAsync(fileIds).exceptionally(e -> lookupFailed(fileIds, e));
+	}
+
+	private List<FileVariant> lookupFailed(Collection<String> fileIds, Throwable e) {
+		logger.warn("Could not look up variants of {} deleted files; leaving them to the reconciler", fileIds.size(), e);
+		return List.of();
+	}
+
+	/**
+	 * Forgets the variants of deleted files and removes their objects in the background,
+	 * except those that rows of deduplicated files still point at. Call it once the rows
+	 * are gone. Objects that cannot be removed are left for FileReconciler.
+	 */
+	public void removeVariants(Collection<String> fileIds, List<FileVariant> variants) {
+		fileIds.forEach(variantCache::invalidate);
+		fileIds.forEach(noVariantsYet::invalidate);
+		if (variants.isEmpty()) {
+			return;
+		}
+		List<String> urls = variants.stream().map(FileVariant::getUrl).toList();
+		bulkhead.submit(() -> {
+			Set<String> shared = fileVariantDAO.findExistingUrls(urls);
+			List<String> keys = urls.stream().filter(url -> !shared.contains(url)).map(this::toKey).toList();
+			if (!keys.isEmpty()) {
+				deleteObjects(keys);
+			}
+			return null;
+		}).whenComplete((ignored, error) -> {
+			if (error != null) {
+				logger.warn("Could not remove {} variant objects; leaving them to the reconciler", urls.size(), error);
+			}
+		});
+	}
+
+	private void deleteObjects(List<String> keys) {
+		for (int from = 0; from < keys.size(); from += DELETE_OBJECTS_MAX_KEYS) {
+			List<ObjectIdentifier> objects = new ArrayList<>();
+			keys.subList(from, Math.min(from + DELETE_OBJECTS_MAX_KEYS, keys.size()))
+					.forEach(key -> objects.add(ObjectIdentifier.builder().key(key).build()));
+			s3Client.deleteObjects(DeleteObjectsRequest.builder()
+					.bucket(bucketName)
+					.delete(Delete.builder().objects(objects).quiet(true).build())
+					.build());
+		}
+		logger.info("Removed {} variant objects of deleted files", keys.size());
+	}
+
+	private void process(File file) {
+		Timer.Sample sample = Timer.start(meterRegistry);
+		Throwable error = null;
+		List<FileVariant> variants = List.of();
+		try {
+			variants = createVariants(file);
+		} catch (IOException | RuntimeException e) {
+			error = e;
+			logger.warn("Could not create image variants: id={}", file.getId(), e);
+		} finally {
+			settled(file.getId(), variants);
+			sample.stop(meterRegistry.timer(PROCESS_TIMER, MetricTags.forResult(error)));
+		}
+	}
+
+	// The variants stored, or none when the file was skipped
+	private List<FileVariant> createVariants(File file) throws IOException {
+		BufferedImage image;
+		try (ResponseInputStream<GetObjectResponse> in = s3Client.getObject(GetObjectRequest.builder()
+				.bucket(bucketName)
+				.key(toKey(file.getUrl()))
+				.build())) {
+			Long length = in.response().contentLength();
+			if (length != null && length > maxSourceBytes) {
+				in.abort();
+				skipped("too_large");
+				return List.of();
+			}
+			image = decode(file.getId(), in);
+			if (image == null) {
+				in.abort();
+				return List.of();
+			}
+		}
+
+		boolean alpha = image.getColorModel().hasAlpha();
+		String format = alpha ? "png" : "jpeg";
+		String contentType = alpha ? "image/png" : "image/jpeg";
+		String extension = alpha ? ".png" : ".jpg";
+		List<FileVariant> variants = new ArrayList<>();
+		try {
+			// Widest first, each scaled from the one before, so every pass starts small
+			BufferedImage scaled = image;
+			for (int i = widths.length - 1; i >= 0; i--) {
+				int width = widths[i];
+				if (width >= scaled.getWidth()) {
+					continue;
+				}
+				int height = Math.max(1, Math.round((float) scaled.getHeight() * width / scaled.getWidth()));
+				scaled = scale(scaled, width, height, alpha);
+				byte[] bytes = encode(scaled, format);
+				String s3Key = KEY_PREFIX + file.getId() + "/" + width + extension;
+				s3Client.putObject(PutObjectRequest.builder()
+						.bucket(bucketName)
+						.key(s3Key)
+						.contentType(contentType)
+						.build(), RequestBody.fromBytes(bytes));
+				variants.add(new FileVariant(UUID.randomUUID().toString(), file, width, height, contentType,
+						bucketName + "/" + s3Key, bytes.length));
+				variantBytes.record(bytes.length);
+			}
+			// Fails if the file was deleted meanwhile; the objects are removed below
+			fileVariantDAO.saveAll(variants);
+		} catch (IOException | RuntimeException e) {
+			variants.forEach(variant -> deleteObjectQuietly(toKey(variant.getUrl())));
+			throw e;
+		}
+		createdCounter.increment(variants.size());
+		logger.info("Image variants created: id={}, widths={}", file.getId(),
+				variants.stream().map(FileVariant::getWidth).toList());
+		return variants;
+	}
+
+	// Null when the object is not a decodable image or is not worth processing
+	private BufferedImage decode(String id, InputStream in) throws IOException {
+		try (ImageInputStream input = new MemoryCacheImageInputStream(in)) {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) {
+				skipped("not_image");
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+				// Checked before decoding, so a small file cannot expand into a huge raster
+				if ((long) width * height > maxSourcePixels) {
+					skipped("too_large");
+					return null;
+				}
+				int widest = 0;
+				for (int candidate : widths) {
+					if (candidate < width) {
+						widest = candidate;
+					}
+				}
+				if (widest == 0) {
+					skipped("too_small");
+					return null;
+				}
+				ImageReadParam param = reader.getDefaultReadParam();
+				// Decode only every n-th pixel of a large original, keeping at least twice
+				// the widest variant so the final scaling still has detail to work with
+				int step = width / (2 * widest);
+				if (step > 1) {
+					param.setSourceSubsampling(step, step, 0, 0);
+				}
+				logger.debug("Decoding image for variants: id={}, width={}, height={}, subsampling={}",
+						id, width, height, Math.max(step, 1));
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	// Halves at most per pass; a single bilinear pass over a larger ratio skips pixels and aliases
+	private static BufferedImage scale(BufferedImage source, int width, int height, boolean alpha) {
+		BufferedImage current = source;
+		int currentWidth = source.getWidth();
+		int currentHeight = source.getHeight();
+		do {
+			currentWidth = Math.max(width, currentWidth / 2);
+			currentHeight = Math.max(height, currentHeight / 2);
+			BufferedImage next = new BufferedImage(currentWidth, currentHeight,
+					alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+			Graphics2D graphics = next.createGraphics();
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+			} finally {
+				graphics.dispose();
+			}
+			current = next;
+		} while (currentWidth != width || currentHeight != height);
+		return current;
+	}
+
+	// Encoded in memory; ImageIO's default stream cache would go through temporary files
+	private byte[] encode(BufferedImage image, String format) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ImageOutputStream output = new MemoryCacheImageOutputStream(bytes)) {
+			writer.setOutput(output);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if ("jpeg".equals(format)) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(jpegQuality);
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+
+	private void skipped(String reason) {
+		meterRegistry.counter("image.variants.skipped", "reason", reason).increment();
+	}
+
+	private void deleteObjectQuietly(String s3Key) {
+		try {
+			s3Client.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(s3Key).build());
+		} catch (RuntimeException e) {
+			logger.error("Failed to remove S3 object: s3Key={}", s3Key, e);
+		}
+	}
+
+	private String toKey(String url) {
+		String prefix = bucketName + "/";
+		return url.startsWith(prefix) ? url.substring(prefix.length()) : url;
+	}
+}
@@ -0,0 +1,197 @@
+package com.cloud.webapp.service;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.exceptions.DataAccessException;
+import com.cloud.webapp.exceptions.ObjectTooLargeException;
+import com.cloud.webapp.model.File;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+
+/**
+ * Direct-to-S3 transfers: clients upload and download object bytes with presigned URLs,
+ * so the web tier only handles metadata. An upload is a three step flow: request a
+ * presigned PUT, upload to the bucket, then call complete so the object is verified and
+ * the {@link File} row is written. Objects larger than multipart uploads may be
+ * (spring.servlet.multipart.max-file-size) are deleted on completion instead of recorded.
+ */
+@Service
+public class PresignService {
+
+	private static final Logger logger = LoggerFactory.getLogger(PresignService.class);
+
+	private final FileDAO fileDAO;
+	private final FileMetadataCache fileCache;
+	private final ImageVariantService imageVariants;
+	private final String bucketName;
+	private final boolean enabled;
+	private final Duration uploadTtl;
+	private final Duration downloadTtl;
+	private final long maxObjectBytes;
+	private final S3Presigner presigner;
+	private final S3Resilience s3Resilience;
+
+	private final Counter presignUploadCounter;
+	private final Counter presignDownloadCounter;
+	private final Counter completeUploadCounter;
+
+	public PresignService(FileDAO fileDAO, FileMetadataCache fileCache, ImageVariantService imageVariants,
+	                      S3Resilience s3Resilience,
+	                      @Value("${aws.s3.bucket}") String bucketName,
+	                      @Value("${aws.region}") String region,
+	                      @Value("${aws.s3.presign.enabled:false}") boolean enabled,
+	                      @Value("${aws.s3.presign.upload-ttl-seconds:900}") long uploadTtlSeconds,
+	                      @Value("${aws.s3.presign.download-ttl-seconds:60}") long downloadTtlSeconds,
+	                      @Value("${spring.servlet.multipart.max-file-size:512MB}") DataSize maxObjectSize,
+	                      MeterRegistry meterRegistry) {
+		this.fileDAO = fileDAO;
+		this.fileCache = fileCache;
+		this.imageVariants = imageVariants;
+		this.bucketName = bucketName;
+		this.enabled = enabled;
+		this.uploadTtl = Duration.ofSeconds(uploadTtlSeconds);
+		this.downloadTtl = Duration.ofSeconds(downloadTtlSeconds);
+		this.maxObjectBytes = maxObjectSize.toBytes();
+		if (enabled) {
+			this.presigner = S3Presigner.builder()
+					.region(Region.of(region))
+					.credentialsProvider(DefaultCredentialsProvider.create())
+					.build();
+		} else {
+			this.presigner = null;
+		}
+		this.s3Resilience = s3Resilience;
+		this.presignUploadCounter = meterRegistry.counter("s3.presign.upload.count");
+		this.presignDownloadCounter = meterRegistry.counter("s3.presign.download.count");
+		this.completeUploadCounter = meterRegistry.counter("s3.presign.complete.count");
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public PresignedUrl presignUpload(String fileName, String contentType) {
+		presignUploadCounter.increment();
+		String id = UUID.randomUUID().toString();
+		String s3Key = id + "/" + fileName;
+		PresignedPutObjectRequest presigned = presigner.presignPutObject(PutObjectPresignRequest.builder()
+				.signatureDuration(uploadTtl)
+				.putObjectRequest(PutObjectRequest.builder()
+						.bucket(bucketName)
+						.key(s3Key)
+						.contentType(contentType)
+						.build())
+				.build());
+		logger.info("Presigned upload issued: id={}, s3Key={}", id, s3Key);
+		return new PresignedUrl(id, presigned.url().toString(), presigned.expiration());
+	}
+
+	/**
+	 * Verifies that the client's upload landed in the bucket and records it. Returns null
+	 * when the object does not exist, and throws {@link ObjectTooLargeException} (after
+	 * deleting the object) when it is over the size limit. Completing the same upload
+	 * twice, including concurrently, returns the row written first.
+	 */
+	public File completeUpload(String id, String fileName) {
+		completeUploadCounter.increment();
+		File existing = fileDAO.findById(id);
+		if (existing != null) {
+			return existing;
+		}
+		String s3Key = id + "/" + fileName;
+		HeadObjectResponse object;
+		try {
+			object = s3Resilience.headObject(HeadObjectRequest.builder().bucket(bucketName).key(s3Key).build());
+		} catch (S3Exception e) {
+			if (e.statusCode() == 404) {
+				logger.warn("Presigned upload not found in S3: id={}, s3Key={}", id, s3Key);
+				return null;
+			}
+			throw e;
+		}
+		long contentLength = object.contentLength() != null ? object.contentLength() : 0;
+		if (contentLength > maxObjectBytes) {
+			deleteOversized(id, s3Key);
+			throw new ObjectTooLargeException(s3Key, contentLength, maxObjectBytes);
+		}
+		File fileEntity = new File(id, fileName, bucketName + "/" + s3Key);
+		try {
+			fileDAO.save(fileEntity);
+		} catch (DataAccessException e) {
+			// A concurrent completion of the same upload inserted the row first
+			existing = isDuplicateKey(e) ? fileDAO.findById(id) : null;
+			if (existing == null) {
+				throw e;
+			}
+			return existing;
+		}
+		fileCache.put(fileEntity);
+		// The content type is the one the client uploaded with (signed into the URL)
+		imageVariants.submit(fileEntity, object.contentType(), contentLength);
+		logger.info("Presigned upload completed: id={}", id);
+		return fileEntity;
+	}
+
+	// The reconciler would remove the object once it is past its grace period; deleting it
+	// now frees the space at once, and a failure here only leaves that to the reconciler
+	private void deleteOversized(String id, String s3Key) {
+		logger.warn("Presigned upload over the size limit, deleting: id={}, s3Key={}", id, s3Key);
+		try {
+			s3Resilience.deleteObject(DeleteObjectRequest.builder().bucket(bucketName).key(s3Key).build());
+		} catch (RuntimeException e) {
+			logger.warn("Could not delete oversized upload: id={}, s3Key={}", id, s3Key, e);
+		}
+	}
+
+	private static boolean isDuplicateKey(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ConstraintViolationException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public PresignedUrl presignDownload(File fileEntity) {
+		presignDownloadCounter.increment();
+		String prefix = bucketName + "/";
+		String s3Key = fileEntity.getUrl().startsWith(prefix)
+				? fileEntity.getUrl().substring(prefix.length()) : fileEntity.getUrl();
+		PresignedGetObjectRequest presigned = presigner.presignGetObject(GetObjectPresignRequest.builder()
+				.signatureDuration(downloadTtl)
+				.getObjectRequest(GetObjectRequest.builder().bucket(bucketName).key(s3Key).build())
+				.build());
+		return new PresignedUrl(fileEntity.getId(), presigned.url().toString(), presigned.expiration());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (presigner != null) {
+			presigner.close();
+		}
+	}
+}
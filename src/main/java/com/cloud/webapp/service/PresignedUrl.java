@@ -0,0 +1,9 @@
+package com.cloud.webapp.service;
+
+import java.time.Instant;
+
+/**
+ * A short-lived S3 URL handed to a client, together with the file id it belongs to.
+ */
+public record PresignedUrl(String id, String url, Instant expiresAt) {
+}
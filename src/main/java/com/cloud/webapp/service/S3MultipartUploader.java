@@ -0,0 +1,198 @@
+package com.cloud.webapp.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * Streams an upload into S3 without materialising it on the heap.
+ *
+ * Objects below the multipart threshold are sent with a single PUT whose body is
+ * re-opened from the source on every attempt. Larger objects are split into parts
+ * that are uploaded concurrently; at most {@code parallelism} part buffers exist per
+ * upload, so heap use is bounded by {@code parallelism * partSize}.
+ */
+public class S3MultipartUploader {
+
+	private static final Logger logger = LoggerFactory.getLogger(S3MultipartUploader.class);
+
+	// S3 limits: parts (except the last) must be at least 5 MiB, at most 10,000 parts
+	private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+	private static final int MAX_PARTS = 10_000;
+
+	@FunctionalInterface
+	public interface StreamSource {
+		InputStream open() throws IOException;
+	}
+
+	private final S3Client s3Client;
+	private final String bucketName;
+	private final long partSize;
+	private final int parallelism;
+	private final long multipartThreshold;
+	private final Executor partExecutor;
+
+	public S3MultipartUploader(S3Client s3Client, String bucketName, long partSize, int parallelism,
+	                           long multipartThreshold, Executor partExecutor) {
+		this.s3Client = s3Client;
+		this.bucketName = bucketName;
+		this.partSize = Math.max(partSize, MIN_PART_SIZE);
+		this.parallelism = Math.max(parallelism, 1);
+		this.multipartThreshold = Math.max(multipartThreshold, this.partSize);
+		this.partExecutor = partExecutor;
+	}
+
+	public boolean isMultipart(long contentLength) {
+		return contentLength >= multipartThreshold;
+	}
+
+	public void upload(String key, long contentLength, String contentType, StreamSource source) throws IOException {
+		if (!isMultipart(contentLength)) {
+			PutObjectRequest putRequest = PutObjectRequest.builder()
+					.bucket(bucketName)
+					.key(key)
+					.contentType(contentType)
+					.build();
+			s3Client.putObject(putRequest, RequestBody.fromContentProvider(() -> open(source), contentLength, mimeType(contentType)));
+			return;
+		}
+		uploadMultipart(key, contentLength, contentType, source);
+	}
+
+	private void uploadMultipart(String key, long contentLength, String contentType, StreamSource source) throws IOException {
+		long effectivePartSize = Math.max(partSize, (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+		String uploadId = s3Client.createMultipartUpload(CreateMultipartUploadRequest.builder()
+				.bucket(bucketName)
+				.key(key)
+				.contentType(contentType)
+				.build()).uploadId();
+		logger.info("Started multipart upload: s3Key={}, size={}, partSize={}", key, contentLength, effectivePartSize);
+
+		Semaphore inFlight = new Semaphore(parallelism);
+		List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+		try (InputStream in = source.open()) {
+			int partNumber = 1;
+			while (true) {
+				acquire(inFlight);
+				// Stop reading as soon as any part has failed; the upload is aborted below
+				if (parts.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+					inFlight.release();
+					break;
+				}
+				byte[] buffer = new byte[(int) effectivePartSize];
+				int read;
+				try {
+					read = in.readNBytes(buffer, 0, buffer.length);
+				} catch (IOException e) {
+					inFlight.release();
+					throw e;
+				}
+				if (read == 0) {
+					inFlight.release();
+					break;
+				}
+				int number = partNumber++;
+				parts.add(CompletableFuture.supplyAsync(() -> uploadPart(key, uploadId, number, buffer, read), partExecutor)
+						.whenComplete((part, error) -> inFlight.release()));
+				if (read < buffer.length) {
+					break;
+				}
+			}
+			List<CompletedPart> completed = new ArrayList<>();
+			for (CompletableFuture<CompletedPart> part : parts) {
+				completed.add(part.get());
+			}
+			completed.sort(Comparator.comparing(CompletedPart::partNumber));
+			s3Client.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+					.bucket(bucketName)
+					.key(key)
+					.uploadId(uploadId)
+					.multipartUpload(CompletedMultipartUpload.builder().parts(completed).build())
+					.build());
+			logger.info("Completed multipart upload: s3Key={}, parts={}", key, completed.size());
+		} catch (Exception e) {
+			abort(key, uploadId);
+			throw unwrap(e);
+		}
+	}
+
+	private CompletedPart uploadPart(String key, String uploadId, int partNumber, byte[] buffer, int length) {
+		UploadPartRequest partRequest = UploadPartRequest.builder()
+				.bucket(bucketName)
+				.key(key)
+				.uploadId(uploadId)
+				.partNumber(partNumber)
+				.contentLength((long) length)
+				.build();
+		UploadPartResponse response = s3Client.uploadPart(partRequest,
+				RequestBody.fromContentProvider(() -> new ByteArrayInputStream(buffer, 0, length), length, "application/octet-stream"));
+		return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+	}
+
+	private void abort(String key, String uploadId) {
+		try {
+			s3Client.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+					.bucket(bucketName)
+					.key(key)
+					.uploadId(uploadId)
+					.build());
+			logger.warn("Aborted multipart upload: s3Key={}", key);
+		} catch (Exception e) {
+			logger.error("Failed to abort multipart upload: s3Key={}, uploadId={}", key, uploadId, e);
+		}
+	}
+
+	private static void acquire(Semaphore semaphore) throws IOException {
+		try {
+			semaphore.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for an upload slot", e);
+		}
+	}
+
+	private static InputStream open(StreamSource source) {
+		try {
+			return source.open();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String mimeType(String contentType) {
+		return contentType != null ? contentType : "application/octet-stream";
+	}
+
+	private static IOException unwrap(Exception e) {
+		Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		return new IOException("Multipart upload failed", cause);
+	}
+}
@@ -0,0 +1,459 @@
+package com.cloud.webapp.service;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cloud.webapp.exceptions.BulkheadFullException;
+import com.cloud.webapp.exceptions.CircuitOpenException;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.CircuitBreaker;
+import com.cloud.webapp.util.RetryBudget;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * S3 calls made on behalf of a request (content reads and deletes) with bounded tail
+ * latency and bounded extra load. Reads run on their own s3-read bulkhead, so a slow
+ * read path cannot starve deletes and listings on the s3 bulkhead, and the other way round:
+ *
+ * - Reads are hedged: if the first attempt has not answered after the operation's recent
+ *   {@code aws.s3.hedge.percentile} latency, a duplicate is sent and whichever answers
+ *   first wins; the other response is aborted, or never sent if it is still queued on
+ *   the bulkhead. Only content reads are hedged; deletes and HeadObject run on the s3
+ *   bulkhead and are sent once per attempt.
+ * - A read waits at most the socket timeout plus the hedge delay. After that both
+ *   attempts are abandoned (queued ones are never sent, late answers are aborted) and
+ *   the read fails like any other transient error: it counts against the breaker and
+ *   may be retried.
+ * - Transient failures (client/IO errors, 5xx, throttling) are retried with jittered
+ *   backoff up to {@code aws.s3.retry.max-attempts}, but only while the shared
+ *   {@link RetryBudget} has tokens. Hedges spend from the same budget.
+ * - Each operation has a {@link CircuitBreaker} that fails calls fast while S3 is
+ *   failing them anyway.
+ * - In async mode (aws.s3.async.enabled) puts and deletes of the non-blocking request
+ *   path go through the same breakers and budget on S3AsyncClient; their retries are
+ *   scheduled after the backoff instead of sleeping on a thread.
+ *
+ * The clients used here have SDK retries disabled (see S3Config), so these are the only
+ * retries. Metrics: s3.hedge{operation,result}, s3.hedge.delay, s3.retry{operation,result},
+ * s3.timeouts{operation}, s3.retry.budget.tokens and circuit.breaker.*{name=s3.<operation>}.
+ */
+@Component
+public class S3Resilience {
+
+	private static final Logger logger = LoggerFactory.getLogger(S3Resilience.class);
+
+	private final S3Client s3Client;
+	// Present only with aws.s3.async.enabled=true
+	private final S3AsyncClient s3AsyncClient;
+	private final Bulkhead s3Bulkhead;
+	private final Bulkhead s3ReadBulkhead;
+	private final long attemptTimeoutNanos;
+	private final RetryBudget retryBudget;
+	private final int maxAttempts;
+	private final long backoffMillis;
+	private final boolean hedgingEnabled;
+	private final double hedgePercentile;
+	private final long minHedgeDelayNanos;
+	private final long maxHedgeDelayNanos;
+
+	private final Operation get;
+	private final Operation delete;
+	private final Operation put;
+
+	public S3Resilience(@Qualifier("s3RequestClient") S3Client s3Client,
+	                    Optional<S3AsyncClient> s3AsyncClient,
+	                    @Qualifier("s3Bulkhead") Bulkhead s3Bulkhead,
+	                    @Qualifier("s3ReadBulkhead") Bulkhead s3ReadBulkhead,
+	                    @Value("${aws.s3.http.socket-timeout-ms:30000}") long socketTimeoutMillis,
+	                    @Value("${aws.s3.retry.max-attempts:3}") int maxAttempts,
+	                    @Value("${aws.s3.retry.backoff-ms:25}") long backoffMillis,
+	                    @Value("${aws.s3.retry.budget-ratio:0.1}") double budgetRatio,
+	                    @Value("${aws.s3.retry.budget-capacity:20}") double budgetCapacity,
+	                    @Value("${aws.s3.hedge.enabled:true}") boolean hedgingEnabled,
+	                    @Value("${aws.s3.hedge.percentile:0.95}") double hedgePercentile,
+	                    @Value("${aws.s3.hedge.min-delay-ms:10}") long minHedgeDelayMillis,
+	                    @Value("${aws.s3.hedge.max-delay-ms:1000}") long maxHedgeDelayMillis,
+	                    @Value("${aws.s3.breaker.failure-rate:0.5}") double breakerFailureRate,
+	                    @Value("${aws.s3.breaker.window-size:50}") int breakerWindowSize,
+	                    @Value("${aws.s3.breaker.minimum-calls:20}") int breakerMinimumCalls,
+	                    @Value("${aws.s3.breaker.open-ms:10000}") long breakerOpenMillis,
+	                    MeterRegistry meterRegistry) {
+		this.s3Client = s3Client;
+		this.s3AsyncClient = s3AsyncClient.orElse(null);
+		this.s3Bulkhead = s3Bulkhead;
+		this.s3ReadBulkhead = s3ReadBulkhead;
+		this.attemptTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(socketTimeoutMillis);
+		this.retryBudget = new RetryBudget(budgetRatio, budgetCapacity);
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.backoffMillis = backoffMillis;
+		this.hedgingEnabled = hedgingEnabled;
+		this.hedgePercentile = hedgePercentile;
+		this.minHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(minHedgeDelayMillis);
+		this.maxHedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxHedgeDelayMillis);
+		this.get = new Operation("get", new CircuitBreaker("s3.get", breakerFailureRate, breakerWindowSize,
+				breakerMinimumCalls, breakerOpenMillis, meterRegistry), meterRegistry);
+		this.delete = new Operation("delete", new CircuitBreaker("s3.delete", breakerFailureRate, breakerWindowSize,
+				breakerMinimumCalls, breakerOpenMillis, meterRegistry), meterRegistry);
+		this.put = new Operation("put", new CircuitBreaker("s3.put", breakerFailureRate, breakerWindowSize,
+				breakerMinimumCalls, breakerOpenMillis, meterRegistry), meterRegistry);
+		Gauge.builder("s3.retry.budget.tokens", retryBudget, RetryBudget::available)
+				.description("Retries and hedges that may still be sent")
+				.register(meterRegistry);
+	}
+
+	/** Hedged and retried GetObject. The caller must close the returned stream. */
+	public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+		return call(get, () -> hedged(get, () -> s3Client.getObject(request), ResponseInputStream::abort));
+	}
+
+	/** Retried HeadObject on the S3 bulkhead, behind the get breaker. */
+	public HeadObjectResponse headObject(HeadObjectRequest request) {
+		return call(get, () -> s3Bulkhead.execute(() -> s3Client.headObject(request)));
+	}
+
+	public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+		return call(delete, () -> s3Bulkhead.execute(() -> s3Client.deleteObject(request)));
+	}
+
+	public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+		return call(delete, () -> s3Bulkhead.execute(() -> s3Client.deleteObjects(request)));
+	}
+
+	/**
+	 * Non-blocking PutObject on S3AsyncClient. {@code body} is asked for a fresh body per
+	 * attempt. Only available in async mode.
+	 */
+	public CompletableFuture<PutObjectResponse> putObjectAsync(PutObjectRequest request, Supplier<AsyncRequestBody> body) {
+		return callAsync(put, () -> asyncClient().putObject(request, body.get()));
+	}
+
+	/** Non-blocking DeleteObject on S3AsyncClient. Only available in async mode. */
+	public CompletableFuture<DeleteObjectResponse> deleteObjectAsync(DeleteObjectRequest request) {
+		return callAsync(delete, () -> asyncClient().deleteObject(request));
+	}
+
+	private S3AsyncClient asyncClient() {
+		if (s3AsyncClient == null) {
+			throw new IllegalStateException("S3AsyncClient is only available with aws.s3.async.enabled=true");
+		}
+		return s3AsyncClient;
+	}
+
+	private <T> T call(Operation operation, Supplier<T> attempt) {
+		retryBudget.deposit();
+		for (int attemptNumber = 1; ; attemptNumber++) {
+			long permit = operation.breaker.acquirePermission();
+			try {
+				T result = attempt.get();
+				operation.breaker.onSuccess(permit);
+				return result;
+			} catch (RuntimeException e) {
+				if (!shouldRetry(operation, permit, e, attemptNumber)) {
+					throw e;
+				}
+				backoff(attemptNumber);
+			}
+		}
+	}
+
+	// Like call, but nothing waits: a retry is scheduled after the backoff delay
+	private <T> CompletableFuture<T> callAsync(Operation operation, Supplier<CompletableFuture<T>> attempt) {
+		retryBudget.deposit();
+		CompletableFuture<T> result = new CompletableFuture<>();
+		attemptAsync(operation, attempt, 1, result);
+		return result;
+	}
+
+	private <T> void attemptAsync(Operation operation, Supplier<CompletableFuture<T>> attempt, int attemptNumber,
+	                              CompletableFuture<T> result) {
+		long permit;
+		CompletableFuture<T> response;
+		try {
+			permit = operation.breaker.acquirePermission();
+		} catch (CircuitOpenException e) {
+			result.completeExceptionally(e);
+			return;
+		}
+		try {
+			response = attempt.get();
+		} catch (RuntimeException e) {
+			response = CompletableFuture.failedFuture(e);
+		}
+		response.whenComplete((value, error) -> {
+			if (error == null) {
+				operation.breaker.onSuccess(permit);
+				result.complete(value);
+				return;
+			}
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+			if (!shouldRetry(operation, permit, cause, attemptNumber)) {
+				result.completeExceptionally(cause);
+				return;
+			}
+			CompletableFuture.delayedExecutor(backoffMillis(attemptNumber), TimeUnit.MILLISECONDS)
+					.execute(() -> attemptAsync(operation, attempt, attemptNumber + 1, result));
+		});
+	}
+
+	// Records a failed attempt on the breaker and decides whether it is retried
+	private boolean shouldRetry(Operation operation, long permit, Throwable e, int attemptNumber) {
+		if (e instanceof BulkheadFullException) {
+			operation.breaker.onIgnored(permit);
+			return false;
+		}
+		if (!isTransient(e)) {
+			// S3 answered (404, 304, 412, ...): the call failed, the dependency did not
+			operation.breaker.onSuccess(permit);
+			return false;
+		}
+		operation.breaker.onFailure(permit);
+		if (attemptNumber >= maxAttempts) {
+			operation.retriesExhausted.increment();
+			return false;
+		}
+		if (!retryBudget.tryWithdraw()) {
+			operation.budgetExhausted.increment();
+			logger.warn("S3 {} failed and the retry budget is spent: {}", operation.name, e.toString());
+			return false;
+		}
+		operation.retries.increment();
+		logger.info("Retrying S3 {} after attempt {}: {}", operation.name, attemptNumber, e.toString());
+		return true;
+	}
+
+	/**
+	 * Runs {@code attempt} on the read bulkhead and, if it is still outstanding after the
+	 * hedge delay, a second copy. The first successful result is returned and the other one
+	 * is passed to {@code discard}; an error is only thrown once every attempt sent has
+	 * failed, or when none has answered by the deadline.
+	 */
+	private <T> T hedged(Operation operation, Supplier<T> attempt, Consumer<T> discard) {
+		long delayNanos = operation.hedgeDelayNanos();
+		long deadlineNanos = System.nanoTime() + delayNanos + attemptTimeoutNanos;
+		CompletableFuture<T> first = new CompletableFuture<>();
+		AtomicInteger outstanding = new AtomicInteger(1);
+		timedAttempt(operation, attempt, first)
+				.whenComplete((result, error) -> settle(first, result, error, outstanding, discard));
+		try {
+			return first.get(delayNanos, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			// fall through to hedging
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		} catch (InterruptedException e) {
+			first.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for S3 " + operation.name, e);
+		}
+		if (hedgingEnabled && !first.isDone() && retryBudget.tryWithdraw()) {
+			operation.hedgesSent.increment();
+			outstanding.incrementAndGet();
+			timedAttempt(operation, attempt, first).whenComplete((result, error) -> {
+				if (settle(first, result, error, outstanding, discard)) {
+					operation.hedgesWon.increment();
+				}
+			});
+		}
+		return await(operation, first, deadlineNanos);
+	}
+
+	// Completes first with the earliest success, or with the last error; returns true if
+	// this attempt won. A success after first is done (another attempt won, the wait timed
+	// out or was interrupted) is discarded.
+	private static <T> boolean settle(CompletableFuture<T> first, T result, Throwable error, AtomicInteger outstanding,
+	                                  Consumer<T> discard) {
+		if (error == null) {
+			if (first.complete(result)) {
+				return true;
+			}
+			discard.accept(result);
+		} else if (outstanding.decrementAndGet() == 0) {
+			first.completeExceptionally(error);
+		}
+		return false;
+	}
+
+	// An attempt that only starts after first is done is not sent at all
+	private <T> CompletableFuture<T> timedAttempt(Operation operation, Supplier<T> attempt, CompletableFuture<T> first) {
+		return s3ReadBulkhead.submit(() -> {
+			if (first.isDone()) {
+				operation.hedgesSkipped.increment();
+				throw new CancellationException("Another attempt at S3 " + operation.name + " already answered");
+			}
+			long start = System.nanoTime();
+			T result = attempt.get();
+			operation.latencies.record(System.nanoTime() - start);
+			return result;
+		});
+	}
+
+	private <T> T await(Operation operation, CompletableFuture<T> first, long deadlineNanos) {
+		try {
+			return first.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			// Failing first cancels both attempts: queued ones are skipped, late answers discarded
+			SdkClientException timeout = SdkClientException.create("S3 " + operation.name + " did not answer within the socket timeout ("
+					+ TimeUnit.NANOSECONDS.toMillis(attemptTimeoutNanos) + " ms) plus the hedge delay");
+			if (!first.completeExceptionally(timeout)) {
+				return await(operation, first, deadlineNanos);
+			}
+			operation.timeouts.increment();
+			throw timeout;
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		} catch (InterruptedException e) {
+			first.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for S3 " + operation.name, e);
+		}
+	}
+
+	private static RuntimeException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException runtime) {
+			return runtime;
+		}
+		if (cause instanceof Error error) {
+			throw error;
+		}
+		return new IllegalStateException(cause);
+	}
+
+	// Worth retrying and counted against the breaker: no answer, a server error or throttling
+	private static boolean isTransient(Throwable error) {
+		if (error instanceof S3Exception s3) {
+			return s3.statusCode() >= 500 || s3.statusCode() == 429
+					|| (s3.awsErrorDetails() != null && "SlowDown".equals(s3.awsErrorDetails().errorCode()));
+		}
+		return error instanceof SdkClientException;
+	}
+
+	// Jittered exponential backoff: between half and all of backoff-ms * 2^(attempt - 1)
+	private long backoffMillis(int attemptNumber) {
+		long ceiling = backoffMillis << Math.min(attemptNumber - 1, 6);
+		return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+	}
+
+	private void backoff(int attemptNumber) {
+		try {
+			Thread.sleep(backoffMillis(attemptNumber));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during S3 retry backoff", e);
+		}
+	}
+
+	private final class Operation {
+
+		final String name;
+		final CircuitBreaker breaker;
+		final LatencyWindow latencies = new LatencyWindow(512);
+		final Counter hedgesSent;
+		final Counter hedgesWon;
+		final Counter hedgesSkipped;
+		final Counter retries;
+		final Counter budgetExhausted;
+		final Counter retriesExhausted;
+		final Counter timeouts;
+
+		Operation(String name, CircuitBreaker breaker, MeterRegistry meterRegistry) {
+			this.name = name;
+			this.breaker = breaker;
+			this.hedgesSent = meterRegistry.counter("s3.hedge", "operation", name, "result", "sent");
+			this.hedgesWon = meterRegistry.counter("s3.hedge", "operation", name, "result", "won");
+			this.hedgesSkipped = meterRegistry.counter("s3.hedge", "operation", name, "result", "skipped");
+			this.retries = meterRegistry.counter("s3.retry", "operation", name, "result", "attempted");
+			this.budgetExhausted = meterRegistry.counter("s3.retry", "operation", name, "result", "budget_exhausted");
+			this.retriesExhausted = meterRegistry.counter("s3.retry", "operation", name, "result", "attempts_exhausted");
+			this.timeouts = meterRegistry.counter("s3.timeouts", "operation", name);
+			Gauge.builder("s3.hedge.delay", this, operation -> operation.hedgeDelayNanos() / 1e6)
+					.tag("operation", name)
+					.baseUnit("milliseconds")
+					.register(meterRegistry);
+		}
+
+		// The configured percentile of recent attempts, within [min, max]; max until enough samples exist
+		long hedgeDelayNanos() {
+			long percentile = latencies.percentile(hedgePercentile);
+			if (percentile < 0) {
+				return maxHedgeDelayNanos;
+			}
+			return Math.max(minHedgeDelayNanos, Math.min(maxHedgeDelayNanos, percentile));
+		}
+	}
+
+	/**
+	 * The last {@code size} successful attempt latencies. The percentile is recomputed from
+	 * a sorted copy at most every {@code size / 8} samples, so reading it is cheap.
+	 */
+	private static final class LatencyWindow {
+
+		private static final int MIN_SAMPLES = 32;
+
+		private final long[] samples;
+		private int next;
+		private int count;
+		private int sinceSort;
+		private long[] sorted = new long[0];
+
+		LatencyWindow(int size) {
+			this.samples = new long[size];
+		}
+
+		synchronized void record(long nanos) {
+			samples[next] = nanos;
+			next = (next + 1) % samples.length;
+			count = Math.min(count + 1, samples.length);
+			sinceSort++;
+		}
+
+		// -1 until MIN_SAMPLES attempts have been recorded
+		synchronized long percentile(double quantile) {
+			if (count < MIN_SAMPLES) {
+				return -1;
+			}
+			if (sorted.length != count || sinceSort >= Math.max(1, samples.length / 8)) {
+				sorted = Arrays.copyOf(samples, count);
+				Arrays.sort(sorted);
+				sinceSort = 0;
+			}
+			int index = (int) Math.ceil(quantile * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package com.cloud.webapp.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cloud.webapp.model.File;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Local write-ahead journal of uploads whose S3 object and database row are written
+ * concurrently. A "begin" record is forced to disk before either write starts and an
+ * "end" record is appended once both sides are consistent again (stored, or rolled
+ * back). Whatever is still open after a crash or a failed rollback is settled by
+ * {@link UploadRecovery}.
+ *
+ * The file holds one JSON object per line. Only begin records are fsynced: a lost end
+ * record merely makes recovery re-check an upload that is already consistent. A torn
+ * last line from a crash is ignored on replay. Records are appended under a short lock
+ * and forced outside it with a group commit: uploads that begin while an fsync is running
+ * are all covered by the next one, so concurrent uploads share fsyncs instead of queueing
+ * for one each.
+ */
+@Component
+public class UploadJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(UploadJournal.class);
+
+	/** An upload that has begun but not ended. {@code fromPreviousRun} entries were replayed at startup. */
+	public record Entry(String id, String fileName, String url, String contentHash, long startedAtMs,
+	                    boolean fromPreviousRun) {
+
+		public File toFile() {
+			File file = new File(id, fileName, url);
+			file.setContentHash(contentHash);
+			return file;
+		}
+	}
+
+	private final ObjectMapper objectMapper;
+	private final boolean enabled;
+	private final Path path;
+	private final long compactBytes;
+	private final Map<String, Entry> open = new LinkedHashMap<>();
+	// Open entries whose upload gave up on them (a failed rollback); recovery settles these
+	private final Set<String> abandoned = new HashSet<>();
+	// Held while forcing the channel or replacing it; never acquired while holding this
+	private final Object forceLock = new Object();
+	private FileChannel channel;
+	private long bytesSinceCompaction;
+	// Bytes appended since startup, and how many of them are known to be on disk
+	private long appended;
+	private long forced;
+
+	public UploadJournal(ObjectMapper objectMapper,
+	                     @Value("${upload.journal.enabled:true}") boolean enabled,
+	                     @Value("${upload.journal.path:${user.home}/.webapp/upload-journal.log}") String path,
+	                     @Value("${upload.journal.compact-bytes:8388608}") long compactBytes,
+	                     MeterRegistry meterRegistry) throws IOException {
+		this.objectMapper = objectMapper;
+		this.enabled = enabled;
+		this.path = Path.of(path);
+		this.compactBytes = compactBytes;
+		if (enabled) {
+			replay();
+			compact();
+		}
+		meterRegistry.gauge("upload.journal.open", this, UploadJournal::openCount);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void begin(File file) {
+		if (!enabled) {
+			return;
+		}
+		Entry entry = new Entry(file.getId(), file.getFileName(), file.getUrl(), file.getContentHash(),
+				System.currentTimeMillis(), false);
+		long position;
+		synchronized (this) {
+			position = append(beginRecord(entry));
+			open.put(entry.id(), entry);
+		}
+		force(position);
+	}
+
+	public void end(String id) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			if (open.remove(id) != null) {
+				abandoned.remove(id);
+				append(Map.of("op", "end", "id", id));
+			}
+		}
+	}
+
+	/** Hands an open entry over to recovery; its upload no longer settles it. */
+	public synchronized void abandon(String id) {
+		if (open.containsKey(id)) {
+			abandoned.add(id);
+		}
+	}
+
+	/**
+	 * Entries recovery should settle: everything replayed from a previous run, abandoned
+	 * entries, and entries that began before {@code startedBeforeMs}.
+	 */
+	public synchronized List<Entry> pending(long startedBeforeMs) {
+		List<Entry> pending = new ArrayList<>();
+		for (Entry entry : open.values()) {
+			if (entry.fromPreviousRun() || abandoned.contains(entry.id()) || entry.startedAtMs() < startedBeforeMs) {
+				pending.add(entry);
+			}
+		}
+		return pending;
+	}
+
+	public synchronized int openCount() {
+		return open.size();
+	}
+
+	/** Rewrites the file with only the open entries once enough has been appended. */
+	public void compactIfNeeded() throws IOException {
+		if (!enabled) {
+			return;
+		}
+		synchronized (forceLock) {
+			synchronized (this) {
+				if (bytesSinceCompaction >= compactBytes) {
+					compact();
+				}
+			}
+		}
+	}
+
+	private void replay() throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+				Map<?, ?> record;
+				try {
+					record = objectMapper.readValue(line, Map.class);
+				} catch (JsonProcessingException e) {
+					logger.warn("Skipping unreadable upload journal record: {}", line);
+					continue;
+				}
+				String id = (String) record.get("id");
+				if ("end".equals(record.get("op"))) {
+					open.remove(id);
+				} else {
+					open.put(id, new Entry(id, (String) record.get("file_name"), (String) record.get("url"),
+							(String) record.get("content_hash"), ((Number) record.get("started_at")).longValue(), true));
+				}
+			}
+		}
+		if (!open.isEmpty()) {
+			logger.warn("Upload journal has {} unfinished uploads from a previous run", open.size());
+		}
+	}
+
+	// Callers hold forceLock (except the constructor), so no force runs on the old channel
+	private synchronized void compact() throws IOException {
+		Files.createDirectories(path.toAbsolutePath().getParent());
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		if (channel != null) {
+			channel.close();
+		}
+		channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		for (Entry entry : open.values()) {
+			write(beginRecord(entry));
+		}
+		channel.force(true);
+		channel.close();
+		Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		bytesSinceCompaction = 0;
+		// Every open entry was just forced as part of the compacted file
+		forced = appended;
+	}
+
+	private static Map<String, Object> beginRecord(Entry entry) {
+		Map<String, Object> record = new LinkedHashMap<>();
+		record.put("op", "begin");
+		record.put("id", entry.id());
+		record.put("file_name", entry.fileName());
+		record.put("url", entry.url());
+		record.put("content_hash", entry.contentHash());
+		record.put("started_at", entry.startedAtMs());
+		return record;
+	}
+
+	// Returns the append position just past the record; callers hold this
+	private long append(Map<String, Object> record) {
+		try {
+			int length = write(record);
+			bytesSinceCompaction += length;
+			appended += length;
+			return appended;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write upload journal " + path, e);
+		}
+	}
+
+	// Group commit: returns once everything up to position is on disk. Whoever gets the
+	// lock forces all records appended so far, so callers that were waiting behind that
+	// fsync usually find their record already covered and return without another.
+	private void force(long position) {
+		synchronized (forceLock) {
+			FileChannel target;
+			long upTo;
+			synchronized (this) {
+				if (forced >= position) {
+					return;
+				}
+				target = channel;
+				upTo = appended;
+			}
+			try {
+				target.force(false);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to write upload journal " + path, e);
+			}
+			synchronized (this) {
+				forced = Math.max(forced, upTo);
+			}
+		}
+	}
+
+	private int write(Map<String, Object> record) throws IOException {
+		byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.wrap(line);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		return line.length;
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		synchronized (forceLock) {
+			synchronized (this) {
+				if (channel != null) {
+					channel.close();
+				}
+			}
+		}
+	}
+}
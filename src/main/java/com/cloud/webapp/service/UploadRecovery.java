@@ -0,0 +1,199 @@
+package com.cloud.webapp.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.util.Bulkhead;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Settles uploads left open in the {@link UploadJournal}. An upload whose row and object
+ * both exist is rolled forward (its content hash is recorded and the journal entry is
+ * closed); anything else is rolled back: the row is removed and the object is deleted.
+ * The same rollback is used by {@link FileService} right after a failed upload (see
+ * {@link #rollBackAsync} for the non-blocking path); if it fails there, the entry is marked abandoned and retried here.
+ *
+ * Entries from a previous run and abandoned entries are settled on the next pass. Any
+ * other entry of this run belongs to an upload that is still in progress and is left
+ * alone, however large and slow; only an entry older than
+ * {@code upload.journal.recovery-min-age-ms} is treated as lost, as a backstop for an
+ * upload thread that died without settling.
+ */
+@Component
+public class UploadRecovery {
+
+	private static final Logger logger = LoggerFactory.getLogger(UploadRecovery.class);
+
+	private final UploadJournal journal;
+	private final FileDAO fileDAO;
+	private final FileMetadataCache fileCache;
+	private final S3Client s3Client;
+	private final Bulkhead s3Bulkhead;
+	private final String bucketName;
+	private final long minAgeMs;
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
+	private final Counter rolledForwardCounter;
+	private final Counter rolledBackCounter;
+	private final Counter failedCounter;
+
+	public UploadRecovery(UploadJournal journal, FileDAO fileDAO, FileMetadataCache fileCache, S3Client s3Client,
+	                      @Qualifier("s3Bulkhead") Bulkhead s3Bulkhead,
+	                      @Value("${aws.s3.bucket}") String bucketName,
+	                      @Value("${upload.journal.recovery-min-age-ms:21600000}") long minAgeMs,
+	                      MeterRegistry meterRegistry) {
+		this.journal = journal;
+		this.fileDAO = fileDAO;
+		this.fileCache = fileCache;
+		this.s3Client = s3Client;
+		this.s3Bulkhead = s3Bulkhead;
+		this.bucketName = bucketName;
+		this.minAgeMs = minAgeMs;
+		this.rolledForwardCounter = meterRegistry.counter("upload.journal.settled", "action", "roll_forward");
+		this.rolledBackCounter = meterRegistry.counter("upload.journal.settled", "action", "roll_back");
+		this.failedCounter = meterRegistry.counter("upload.journal.settle.failures");
+	}
+
+	@Scheduled(initialDelayString = "${upload.journal.recovery-initial-delay-ms:10000}",
+	           fixedDelayString = "${upload.journal.recovery-interval-ms:60000}")
+	public void recover() {
+		if (!journal.isEnabled() || !running.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			List<UploadJournal.Entry> pending = journal.pending(System.currentTimeMillis() - minAgeMs);
+			if (!pending.isEmpty()) {
+				logger.info("Settling {} unfinished uploads", pending.size());
+			}
+			for (UploadJournal.Entry entry : pending) {
+				settle(entry);
+			}
+			journal.compactIfNeeded();
+		} catch (Exception e) {
+			logger.error("Upload journal recovery failed", e);
+		} finally {
+			running.set(false);
+		}
+	}
+
+	private void settle(UploadJournal.Entry entry) {
+		try {
+			if (fileDAO.findById(entry.id()) != null && objectExists(entry.url())) {
+				if (entry.contentHash() != null) {
+					fileDAO.updateContentHash(entry.id(), entry.contentHash());
+				}
+				journal.end(entry.id());
+				rolledForwardCounter.increment();
+				logger.info("Unfinished upload was complete, kept: id={}", entry.id());
+				return;
+			}
+		} catch (Exception e) {
+			failedCounter.increment();
+			logger.warn("Could not check unfinished upload, will retry: id={}", entry.id(), e);
+			return;
+		}
+		rollBack(entry.toFile());
+	}
+
+	/**
+	 * Removes the row and the object of an upload that did not complete, then closes its
+	 * journal entry. Returns false and marks the entry abandoned, for the next recovery
+	 * pass, if either side could not be cleaned up.
+	 */
+	public boolean rollBack(File file) {
+		String s3Key = s3Key(file.getUrl());
+		try {
+			Set<String> unreferenced = fileDAO.deleteReferences(List.of(file));
+			if (rowRemoved(file, unreferenced)) {
+				s3Bulkhead.execute(() -> s3Client.deleteObject(deleteRequest(s3Key)));
+			}
+			return rolledBack(file, null);
+		} catch (Exception e) {
+			return rolledBack(file, e);
+		}
+	}
+
+	/**
+	 * Non-blocking {@link #rollBack}: the row is removed on the db bulkhead and the object
+	 * on the s3 bulkhead, so the calling thread never waits on either. The future completes
+	 * with false, never exceptionally, if the entry was left for recovery.
+	 */
+	public CompletableFuture<Boolean> rollBackAsync(File file) {
+		String s3Key = s3Key(file.getUrl());
+		return fileDAO.deleteReferencesAsync(List.of(file))
+				.thenCompose(unreferenced -> rowRemoved(file, unreferenced)
+						? s3Bulkhead.submit(() -> s3Client.deleteObject(deleteRequest(s3Key)))
+						: CompletableFuture.completedFuture(null))
+				.handle((ignored, error) -> rolledBack(file, error));
+	}
+
+	// Returns true if the object is no longer referenced and should be deleted
+	private boolean rowRemoved(File file, Set<String> unreferenced) {
+		fileCache.markDeleted(file.getId());
+		// The row's content hash is only recorded once the upload is complete, so no
+		// deduplicated row can point at this object; another reference would mean the
+		// object was complete after all, and it is kept for that row
+		if (unreferenced.isEmpty()) {
+			logger.warn("Rolled back upload's object is still referenced, kept: id={}, s3Key={}",
+					file.getId(), s3Key(file.getUrl()));
+			return false;
+		}
+		return true;
+	}
+
+	// Closes the journal entry of a rollback, or marks it abandoned if the rollback failed
+	private boolean rolledBack(File file, Throwable error) {
+		String s3Key = s3Key(file.getUrl());
+		if (error != null) {
+			failedCounter.increment();
+			logger.error("Rollback of incomplete upload failed, left for recovery: id={}, s3Key={}", file.getId(), s3Key,
+					error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+			journal.abandon(file.getId());
+			return false;
+		}
+		journal.end(file.getId());
+		rolledBackCounter.increment();
+		logger.info("Rolled back incomplete upload: id={}, s3Key={}", file.getId(), s3Key);
+		return true;
+	}
+
+	private DeleteObjectRequest deleteRequest(String s3Key) {
+		return DeleteObjectRequest.builder().bucket(bucketName).key(s3Key).build();
+	}
+
+	private boolean objectExists(String url) {
+		try {
+			s3Bulkhead.execute(() -> s3Client.headObject(HeadObjectRequest.builder()
+					.bucket(bucketName).key(s3Key(url)).build()));
+			return true;
+		} catch (S3Exception e) {
+			if (e.statusCode() == 404) {
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	private String s3Key(String url) {
+		String prefix = bucketName + "/";
+		return url.startsWith(prefix) ? url.substring(prefix.length()) : url;
+	}
+}
@@ -0,0 +1,142 @@
+package com.cloud.webapp.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.cloud.webapp.exceptions.BulkheadFullException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * A fixed pool of {@code threads} with a queue of at most {@code queueCapacity} waiting
+ * calls, reserved for one kind of dependency. When the pool and queue are full, calls
+ * fail immediately with {@link BulkheadFullException} instead of waiting, so a slow
+ * dependency can hold at most this many threads. A caller of {@link #execute} waits at
+ * most {@code timeoutMs} (queueing included); after that the task is cancelled and the
+ * call fails with the same exception. Queue depth, queue wait and execution time are
+ * published as bulkhead.executor.*, rejections as bulkhead.rejected and timeouts as
+ * bulkhead.timeouts, all tagged with the bulkhead's name.
+ */
+public class Bulkhead {
+
+	@FunctionalInterface
+	public interface Task<T, E extends Exception> {
+		T call() throws E;
+	}
+
+	private final String name;
+	private final ThreadPoolExecutor pool;
+	private final ExecutorService executor;
+	private final long timeoutMs;
+	private final Counter rejected;
+	private final Counter timeouts;
+
+	public Bulkhead(String name, int threads, int queueCapacity, long timeoutMs, MeterRegistry meterRegistry) {
+		this.name = name;
+		this.timeoutMs = timeoutMs;
+		this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), threadFactory(name),
+				new ThreadPoolExecutor.AbortPolicy());
+		this.executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, name, "bulkhead", Tags.empty());
+		this.rejected = Counter.builder("bulkhead.rejected")
+				.tag("name", name)
+				.description("Calls refused because the bulkhead's pool and queue were full")
+				.register(meterRegistry);
+		this.timeouts = Counter.builder("bulkhead.timeouts")
+				.tag("name", name)
+				.description("Calls cancelled because they did not finish within the bulkhead's timeout")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Runs {@code task} on the bulkhead and waits for it, at most the bulkhead's timeout.
+	 * Exceptions thrown by the task are rethrown unchanged.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, E extends Exception> T execute(Task<T, E> task) throws E {
+		Future<T> future;
+		try {
+			future = executor.submit(task::call);
+		} catch (RejectedExecutionException e) {
+			throw rejection();
+		}
+		try {
+			return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException runtime) {
+				throw runtime;
+			}
+			if (cause instanceof Error error) {
+				throw error;
+			}
+			throw (E) cause;
+		} catch (TimeoutException e) {
+			// Interrupts the task if it is running; a cancelled task still waiting would hold
+			// its queue slot until a thread reached it, so it is purged from the queue now
+			future.cancel(true);
+			pool.purge();
+			timeouts.increment();
+			throw new BulkheadFullException(name, "Bulkhead '" + name + "' call timed out after " + timeoutMs + " ms");
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for bulkhead " + name, e);
+		}
+	}
+
+	/** Non-blocking variant; a rejection completes the returned future exceptionally. */
+	public <T> CompletableFuture<T> submit(Supplier<T> task) {
+		try {
+			return CompletableFuture.supplyAsync(task, executor);
+		} catch (RejectedExecutionException e) {
+			return CompletableFuture.failedFuture(rejection());
+		}
+	}
+
+	/**
+	 * The bulkhead as a plain Executor, for code that schedules its own tasks (e.g.
+	 * CompletableFuture stages); a rejected task throws {@link BulkheadFullException}.
+	 */
+	public Executor asExecutor() {
+		return command -> {
+			try {
+				executor.execute(command);
+			} catch (RejectedExecutionException e) {
+				throw rejection();
+			}
+		};
+	}
+
+	private BulkheadFullException rejection() {
+		rejected.increment();
+		return new BulkheadFullException(name);
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, "bulkhead-" + name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,170 @@
+package com.cloud.webapp.util;
+
+import java.util.concurrent.TimeUnit;
+
+import com.cloud.webapp.exceptions.CircuitOpenException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Count-based circuit breaker. The outcome of the last {@code windowSize} calls is kept;
+ * once at least {@code minimumCalls} are recorded and the failure rate reaches
+ * {@code failureRateThreshold}, the breaker opens and calls fail immediately with
+ * {@link CircuitOpenException}. After {@code openMillis} a single trial call is let
+ * through (half-open): success closes the breaker, failure opens it again.
+ *
+ * Callers report each permitted call with {@link #onSuccess}, {@link #onFailure} or, for
+ * outcomes that say nothing about the dependency's health, {@link #onIgnored}, passing the
+ * permit {@link #acquirePermission} returned. Outcomes of calls permitted before the last
+ * transition are dropped, so a slow call from before the breaker opened can neither close
+ * it nor free the half-open trial slot. The state
+ * is published as circuit.breaker.state (0 closed, 1 half-open, 2 open), with transitions
+ * and rejections counted, all tagged with the breaker's name.
+ */
+public class CircuitBreaker {
+
+	public enum State { CLOSED, HALF_OPEN, OPEN }
+
+	private final String name;
+	private final double failureRateThreshold;
+	private final int minimumCalls;
+	private final long openNanos;
+	private final boolean[] window;
+	private int next;
+	private int recorded;
+	private int failures;
+	private State state = State.CLOSED;
+	private long openedAtNanos;
+	private boolean trialInFlight;
+	private long generation;
+
+	private final Counter rejected;
+	private final Counter opened;
+	private final Counter halfOpened;
+	private final Counter closed;
+
+	public CircuitBreaker(String name, double failureRateThreshold, int windowSize, int minimumCalls,
+	                      long openMillis, MeterRegistry meterRegistry) {
+		this.name = name;
+		this.failureRateThreshold = failureRateThreshold;
+		this.window = new boolean[Math.max(1, windowSize)];
+		this.minimumCalls = Math.max(1, Math.min(minimumCalls, window.length));
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+		Gauge.builder("circuit.breaker.state", this, breaker -> breaker.state().ordinal())
+				.tag("name", name)
+				.description("0 closed, 1 half-open, 2 open")
+				.register(meterRegistry);
+		this.rejected = Counter.builder("circuit.breaker.rejected").tag("name", name)
+				.description("Calls refused while the breaker was open").register(meterRegistry);
+		this.opened = transitions(meterRegistry, State.OPEN);
+		this.halfOpened = transitions(meterRegistry, State.HALF_OPEN);
+		this.closed = transitions(meterRegistry, State.CLOSED);
+	}
+
+	private Counter transitions(MeterRegistry meterRegistry, State to) {
+		return Counter.builder("circuit.breaker.transitions")
+				.tag("name", name)
+				.tag("state", to.name().toLowerCase())
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Throws {@link CircuitOpenException} unless a call may be made now; otherwise returns
+	 * the permit to report the call's outcome with.
+	 */
+	public synchronized long acquirePermission() {
+		if (state == State.OPEN) {
+			long elapsed = System.nanoTime() - openedAtNanos;
+			if (elapsed < openNanos) {
+				throw rejection(openNanos - elapsed);
+			}
+			state = State.HALF_OPEN;
+			halfOpened.increment();
+		}
+		if (state == State.HALF_OPEN) {
+			if (trialInFlight) {
+				throw rejection(0);
+			}
+			trialInFlight = true;
+		}
+		return generation;
+	}
+
+	public synchronized void onSuccess(long permit) {
+		if (permit != generation) {
+			return;
+		}
+		if (state == State.HALF_OPEN) {
+			close();
+			return;
+		}
+		record(false);
+	}
+
+	public synchronized void onFailure(long permit) {
+		if (permit != generation) {
+			return;
+		}
+		if (state == State.HALF_OPEN) {
+			open();
+			return;
+		}
+		record(true);
+		if (state == State.CLOSED && recorded >= minimumCalls
+				&& failures >= failureRateThreshold * recorded) {
+			open();
+		}
+	}
+
+	/** Releases the permission without recording an outcome. */
+	public synchronized void onIgnored(long permit) {
+		if (permit != generation) {
+			return;
+		}
+		trialInFlight = false;
+	}
+
+	public synchronized State state() {
+		return state;
+	}
+
+	private void record(boolean failure) {
+		if (recorded == window.length) {
+			if (window[next]) {
+				failures--;
+			}
+		} else {
+			recorded++;
+		}
+		window[next] = failure;
+		if (failure) {
+			failures++;
+		}
+		next = (next + 1) % window.length;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		generation++;
+		openedAtNanos = System.nanoTime();
+		trialInFlight = false;
+		opened.increment();
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		generation++;
+		trialInFlight = false;
+		next = 0;
+		recorded = 0;
+		failures = 0;
+		closed.increment();
+	}
+
+	private CircuitOpenException rejection(long remainingNanos) {
+		rejected.increment();
+		return new CircuitOpenException(name, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remainingNanos + 999_999_999)));
+	}
+}
@@ -0,0 +1,53 @@
+package com.cloud.webapp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import com.cloud.webapp.model.File;
+
+/**
+ * Strong entity tags for file metadata: {@code "<id>.<digest>"}, where the digest covers
+ * the fields that are served (id, file_name, url, upload_date). None of them changes once
+ * the row is written, so a tag stays valid for as long as its row exists.
+ */
+public final class FileETags {
+
+	private static final int DIGEST_HEX_CHARS = 16;
+
+	private FileETags() {
+	}
+
+	public static String of(File file) {
+		String fields = file.getId() + "\n" + file.getFileName() + "\n" + file.getUrl() + "\n" + file.getUploadDate();
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(fields.getBytes(StandardCharsets.UTF_8));
+			return "\"" + file.getId() + "." + HexFormat.of().formatHex(digest).substring(0, DIGEST_HEX_CHARS) + "\"";
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * True if an If-None-Match value matches {@code etag}, including {@code *}. Weak tags are
+	 * compared by their opaque part, as RFC 9110 requires for If-None-Match.
+	 */
+	public static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			String opaque = opaque(tag);
+			if (opaque.equals("*") || opaque.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String opaque(String tag) {
+		String trimmed = tag.trim();
+		return trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed;
+	}
+}
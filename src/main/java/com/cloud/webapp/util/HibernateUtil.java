@@ -1,33 +1,39 @@
 package com.cloud.webapp.util;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.sql.DataSource;
+
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.service.ServiceRegistry;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
 
 import com.cloud.webapp.model.*;
+import com.zaxxer.hikari.HikariConfig;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class HibernateUtil {
 
-	public static SessionFactory buildSessionFactory(){
-        Map<String, Object> settings = new HashMap<>();
-        
+	/**
+	 * Resolves the JDBC url and credentials for the active profile (RDS in prod,
+	 * DB_URL/DB_USERNAME/DB_PASSWORD otherwise) into a pool configuration.
+	 */
+	public static HikariConfig buildPoolConfig() {
         Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
         
-        String activeProfile = System.getProperty("spring.profiles.active", "dev");
+        String activeProfiles = System.getProperty("spring.profiles.active", "dev");
         
         
         String dbUrl, dbUsername, dbPassword;
-        if ("prod".equalsIgnoreCase(activeProfile)) {
+        // spring.profiles.active may list several profiles, e.g. prod,faststart
+        if (Arrays.stream(activeProfiles.split(",")).map(String::trim).anyMatch("prod"::equalsIgnoreCase)) {
             String rdsEndpoint = dotenv.get("RDS_DB_ENDPOINT");
             if (rdsEndpoint == null || rdsEndpoint.isEmpty()) {
                 throw new RuntimeException("RDS_DB_ENDPOINT is not set for production.");
@@ -46,29 +52,53 @@ public class HibernateUtil {
             dbUsername = dotenv.get("DB_USERNAME", "root");
             dbPassword = dotenv.get("DB_PASSWORD", "root");
         }
-        
-        
-      	settings.put("hibernate.connection.url", dbUrl);
-      	settings.put("hibernate.connection.driver_class", "com.mysql.cj.jdbc.Driver");
-      	settings.put("hibernate.connection.username", dbUsername);
-      	settings.put("hibernate.connection.password",dbPassword);
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(dbUrl);
+        config.setDriverClassName("com.mysql.cj.jdbc.Driver");
+        config.setUsername(dbUsername);
+        config.setPassword(dbPassword);
+        return config;
+	}
+
+	/**
+	 * Builds the application's single SessionFactory on top of a pooled DataSource.
+	 * Hibernate borrows connections from the pool instead of opening its own. The schema is
+	 * migrated (hbm2ddl update) unless the overrides set another hibernate.hbm2ddl.auto.
+	 */
+	public static SessionFactory buildSessionFactory(DataSource dataSource, Map<String, Object> overrides){
+		return buildMetadata(dataSource, overrides).getSessionFactoryBuilder().build();
+	}
+
+	/**
+	 * Runs a hibernate.hbm2ddl.auto action (update, validate, ...) against the database of a
+	 * SessionFactory that was built from the given metadata with the action set to none.
+	 */
+	public static void applySchemaAction(Metadata metadata, SessionFactory sessionFactory, String action) {
+		Map<String, Object> settings = new HashMap<>();
+		settings.put("hibernate.hbm2ddl.auto", action);
+		SchemaManagementToolCoordinator.process(metadata,
+				sessionFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry(), settings, dropAction -> { });
+	}
+
+	public static Metadata buildMetadata(DataSource dataSource, Map<String, Object> overrides){
+        Map<String, Object> settings = new HashMap<>();
+
+      	settings.put("hibernate.connection.datasource", dataSource);
 
         settings.put("hibernate.hbm2ddl.auto", "update");
         settings.put("hibernate.dialect", "org.hibernate.dialect.MySQL8Dialect");
         settings.put("hibernate.dialect.storage_engine", "innodb");
         settings.put("hibernate.show-sql", "true");
+        settings.putAll(overrides);
 
         ServiceRegistry serviceRegistry = new StandardServiceRegistryBuilder().applySettings(settings).build();
 
         MetadataSources metadataSources = new MetadataSources(serviceRegistry);
-        metadataSources.addPackage("com.cloud.assignmentOne.model");
         metadataSources.addAnnotatedClasses(Health.class);
         metadataSources.addAnnotatedClasses(File.class);
-        Metadata metadata = metadataSources.buildMetadata();
-
-        SessionFactory sessionFactory = metadata.getSessionFactoryBuilder().build();
-
-        return sessionFactory;
+        metadataSources.addAnnotatedClasses(FileVariant.class);
+        return metadataSources.buildMetadata();
     }
 	
 }
@@ -0,0 +1,46 @@
+package com.cloud.webapp.util;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.http.Outcome;
+
+/**
+ * Common tag sets so every timer can be split by result: API timers by HTTP status and
+ * outcome (same values as Spring's http.server.requests), service and DAO timers by
+ * success/failure and exception, and transfer meters by payload size class.
+ */
+public final class MetricTags {
+
+	private static final long KIB = 1024;
+	private static final long MIB = 1024 * KIB;
+
+	private MetricTags() {
+	}
+
+	public static Tags forStatus(int status) {
+		return Tags.of(Outcome.forStatus(status).asTag(), Tag.of("status", String.valueOf(status)));
+	}
+
+	public static Tags forResult(Throwable error) {
+		if (error == null) {
+			return Tags.of("outcome", "success", "exception", "none");
+		}
+		Throwable cause = error;
+		while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return Tags.of("outcome", "failure", "exception", cause.getClass().getSimpleName());
+	}
+
+	/** Coarse, fixed buckets so the tag stays low-cardinality: lt_64k, lt_1m, lt_16m, ge_16m. */
+	public static Tag sizeClass(long bytes) {
+		String value = bytes < 64 * KIB ? "lt_64k"
+				: bytes < MIB ? "lt_1m"
+				: bytes < 16 * MIB ? "lt_16m"
+				: "ge_16m";
+		return Tag.of("size_class", value);
+	}
+}
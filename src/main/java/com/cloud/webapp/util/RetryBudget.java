@@ -0,0 +1,42 @@
+package com.cloud.webapp.util;
+
+/**
+ * Caps retries to a fraction of the call rate. Every call deposits {@code ratio} tokens,
+ * up to {@code capacity}, and every retry (or hedged duplicate) spends one, so during an
+ * outage at most about {@code ratio} extra requests per call reach the dependency instead
+ * of {@code maxAttempts - 1}. The bucket starts full so a cold instance can still retry.
+ *
+ * Tokens are counted in thousandths so that repeated deposits add up exactly (ten
+ * deposits of 0.1 in doubles come to slightly less than one token).
+ */
+public class RetryBudget {
+
+	private static final long UNITS_PER_TOKEN = 1000;
+
+	private final long ratioUnits;
+	private final long capacityUnits;
+	private long units;
+
+	public RetryBudget(double ratio, double capacity) {
+		this.ratioUnits = Math.max(0, Math.round(ratio * UNITS_PER_TOKEN));
+		this.capacityUnits = Math.round(Math.max(1, capacity) * UNITS_PER_TOKEN);
+		this.units = capacityUnits;
+	}
+
+	public synchronized void deposit() {
+		units = Math.min(capacityUnits, units + ratioUnits);
+	}
+
+	/** Spends one token if available; false means the retry must not be sent. */
+	public synchronized boolean tryWithdraw() {
+		if (units < UNITS_PER_TOKEN) {
+			return false;
+		}
+		units -= UNITS_PER_TOKEN;
+		return true;
+	}
+
+	public synchronized double available() {
+		return (double) units / UNITS_PER_TOKEN;
+	}
+}
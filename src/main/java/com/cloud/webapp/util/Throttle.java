@@ -0,0 +1,29 @@
+package com.cloud.webapp.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out calls to at most {@code permitsPerSecond}. A rate of zero or less
+ * disables throttling. Meant for background jobs, so waiting callers simply sleep.
+ */
+public class Throttle {
+
+	private final long intervalNanos;
+	private long nextPermitNanos = System.nanoTime();
+
+	public Throttle(double permitsPerSecond) {
+		this.intervalNanos = permitsPerSecond <= 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+	}
+
+	public synchronized void acquire() throws InterruptedException {
+		if (intervalNanos == 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		if (nextPermitNanos > now) {
+			TimeUnit.NANOSECONDS.sleep(nextPermitNanos - now);
+			now = nextPermitNanos;
+		}
+		nextPermitNanos = now + intervalNanos;
+	}
+}
@@ -0,0 +1,112 @@
+package com.cloud.webapp.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.cloud.webapp.service.FileService;
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.Bulkhead;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+class S3ControllerTest {
+
+	private static final String BUCKET = "bucket";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryS3Client s3Client = spy(new InMemoryS3Client(false));
+	private final Bulkhead s3Bulkhead = new Bulkhead("s3", 2, 8, 10000, meterRegistry);
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final S3Controller controller = new S3Controller(BUCKET, s3Client, s3Bulkhead, mock(FileService.class),
+			100, 10000, 65536, 86400, objectMapper, meterRegistry);
+
+	private final Set<String> listingThreads = ConcurrentHashMap.newKeySet();
+
+	@BeforeEach
+	void setUp() {
+		doAnswer(invocation -> {
+			listingThreads.add(Thread.currentThread().getName().replaceAll("-\\d+$", ""));
+			return invocation.callRealMethod();
+		}).when(s3Client).listObjectsV2(any(ListObjectsV2Request.class));
+		for (int i = 0; i < 2500; i++) {
+			s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key(String.format("key-%04d", i)).build(),
+					RequestBody.fromString("x"));
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		s3Bulkhead.shutdown();
+	}
+
+	@Test
+	void streamWithoutLimitListsEveryKeyPageByPage() throws IOException {
+		List<String> lines = stream(null, null);
+
+		assertEquals(2500, lines.size());
+		verify(s3Client, times(3)).listObjectsV2(any(ListObjectsV2Request.class));
+		assertEquals(Set.of("bulkhead-s3"), listingThreads);
+	}
+
+	@Test
+	void streamStopsAfterLimitKeysWithATokenToResumeFrom() throws IOException {
+		List<String> lines = stream(5, null);
+
+		assertEquals(6, lines.size());
+		assertTrue(lines.get(4).contains("\"key-0004\""));
+		String token = objectMapper.readTree(lines.get(5)).get("next_continuation_token").asText();
+		verify(s3Client, times(1)).listObjectsV2(any(ListObjectsV2Request.class));
+
+		List<String> resumed = stream(5, token);
+		assertTrue(resumed.get(0).contains("\"key-0005\""));
+	}
+
+	@Test
+	void lastPageHasNoToken() throws IOException {
+		List<String> lines = stream(1000, "key-2494");
+
+		assertEquals(5, lines.size());
+		assertTrue(lines.get(4).contains("\"key-2499\""));
+	}
+
+	private List<String> stream(Integer limit, String continuationToken) throws IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.setParameter("stream", "true");
+		if (limit != null) {
+			request.setParameter("limit", limit.toString());
+		}
+		if (continuationToken != null) {
+			request.setParameter("continuationToken", continuationToken);
+		}
+		ResponseEntity<StreamingResponseBody> response = controller.streamObjects(limit, null, continuationToken, request);
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		response.getBody().writeTo(out);
+		return out.toString(StandardCharsets.UTF_8).lines().toList();
+	}
+}
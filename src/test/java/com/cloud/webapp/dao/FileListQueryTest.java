@@ -0,0 +1,53 @@
+package com.cloud.webapp.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.model.File;
+
+class FileListQueryTest {
+
+	@Test
+	void parsesFiltersAndTreatsAnEmptyPrefixAsNone() {
+		assertEquals(new FileListQuery("rep", LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31), null, null),
+				FileListQuery.parse("rep", "2024-01-01", "2024-01-31", null));
+		assertEquals(new FileListQuery(null, null, null, null, null), FileListQuery.parse("", null, null, null));
+	}
+
+	@Test
+	void continuationTokenRoundTripsToTheNextPage() {
+		File last = new File("a/b-id", "name.txt", "bucket/a/b-id/name.txt");
+		last.setUploadDate(LocalDate.of(2024, 3, 4));
+		String token = FileListQuery.continuationToken(last);
+
+		FileListQuery query = FileListQuery.parse("na", null, "2024-12-31", token);
+		assertEquals(new FileListQuery("na", null, LocalDate.of(2024, 12, 31), null, null).after(last), query);
+		assertEquals("a/b-id", query.afterId());
+	}
+
+	@Test
+	void rejectsMalformedDatesAndTokens() {
+		assertNull(FileListQuery.parse(null, "2024-13-01", null, null));
+		assertNull(FileListQuery.parse(null, null, "yesterday", null));
+		assertNull(FileListQuery.parse(null, null, null, "not base64!"));
+		assertNull(FileListQuery.parse(null, null, null, encode("2024-01-01")));
+		assertNull(FileListQuery.parse(null, null, null, encode("soon/id")));
+	}
+
+	@Test
+	void positionNeedsBothDateAndId() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new FileListQuery(null, null, null, LocalDate.of(2024, 1, 1), null));
+	}
+
+	private static String encode(String position) {
+		return Base64.getUrlEncoder().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+}
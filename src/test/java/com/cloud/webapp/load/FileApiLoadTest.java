@@ -0,0 +1,76 @@
+package com.cloud.webapp.load;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import com.cloud.webapp.WebappApplication;
+
+/**
+ * Drives /v1/file POST, GET, DELETE and /healthz against the full application (H2 and an
+ * in-memory S3 stand-in underneath), writes target/load-report.json and fails when the
+ * run regresses past src/test/resources/load/baseline.json. No baseline is committed,
+ * since latency and throughput depend on the machine: the first run on a machine should
+ * pass -Dload.update-baseline=true to record one there. Until then only the error rate
+ * is gated.
+ *
+ * Excluded from the normal build; run with {@code mvn -Pload test}. Shape the run with
+ * -Dload.concurrency, -Dload.duration-seconds, -Dload.warmup-seconds, -Dload.mix,
+ * -Dload.payload-sizes; gate with -Dload.tolerance (relative, default 0.25) and
+ * -Dload.max-error-rate (default 0.01). -Dload.update-baseline=true stores the run as the
+ * new baseline instead of comparing against it.
+ */
+@Tag("load")
+// LoadTestConfig is listed after the application so its beans replace the real ones
+@SpringBootTest(classes = {WebappApplication.class, LoadTestConfig.class},
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+		"spring.main.allow-bean-definition-overriding=true",
+		"reconciler.enabled=false",
+		"upload.journal.path=target/load-upload-journal.log",
+		"logging.level.com.cloud.webapp=WARN",
+		"management.metrics.export.statsd.enabled=false"
+})
+class FileApiLoadTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileApiLoadTest.class);
+
+	@LocalServerPort
+	private int port;
+
+	@Test
+	void fileApiMeetsBaseline() throws Exception {
+		LoadDriver.Settings settings = LoadDriver.Settings.fromSystemProperties();
+		LoadReport report = new LoadDriver(URI.create("http://localhost:" + port), settings).run();
+
+		Path reportPath = Path.of(System.getProperty("load.report", "target/load-report.json"));
+		Path baselinePath = Path.of(System.getProperty("load.baseline", "src/test/resources/load/baseline.json"));
+		report.write(reportPath);
+		logger.warn("Load test results ({}):\n{}", reportPath, report.summary());
+
+		if (Boolean.getBoolean("load.update-baseline")) {
+			Files.createDirectories(baselinePath.getParent());
+			Files.copy(reportPath, baselinePath, StandardCopyOption.REPLACE_EXISTING);
+			logger.warn("Stored load baseline: {}", baselinePath);
+			return;
+		}
+		if (!Files.exists(baselinePath)) {
+			logger.warn("No load baseline at {}, gating on error rate only; "
+					+ "rerun with -Dload.update-baseline=true to record one", baselinePath);
+		}
+		List<String> regressions = report.regressionsAgainst(baselinePath,
+				Double.parseDouble(System.getProperty("load.tolerance", "0.25")),
+				Double.parseDouble(System.getProperty("load.max-error-rate", "0.01")));
+		assertTrue(regressions.isEmpty(), "Load test regressed:\n" + String.join("\n", regressions));
+	}
+}
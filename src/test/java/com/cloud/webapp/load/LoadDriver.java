@@ -0,0 +1,285 @@
+package com.cloud.webapp.load;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Closed-loop load generator: {@code concurrency} workers each send one request at a time
+ * for the configured duration, choosing the operation from a weighted mix. Uploads carry
+ * random payloads of the configured sizes (made unique per request so deduplication does
+ * not skip the S3 transfer); GET and DELETE target files uploaded earlier in the run. A
+ * file is never chosen for deletion while a GET of it is in flight, and is no longer
+ * offered to GETs once chosen, so a GET never races a DELETE into a 404.
+ * Only requests started after the warm-up are recorded.
+ */
+class LoadDriver {
+
+	enum Operation {
+		UPLOAD, GET, DELETE, HEALTH;
+
+		String key() {
+			return name().toLowerCase();
+		}
+	}
+
+	/**
+	 * Run parameters, read from system properties so a run can be reshaped from the
+	 * command line, e.g. {@code -Dload.concurrency=64 -Dload.mix=get=90,upload=10}.
+	 */
+	record Settings(int concurrency, Duration warmup, Duration duration, Map<Operation, Integer> mix,
+	                int[] payloadSizes, int seedFiles) {
+
+		static Settings fromSystemProperties() {
+			Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+			for (String entry : System.getProperty("load.mix", "upload=20,get=60,delete=10,health=10").split(",")) {
+				String[] pair = entry.trim().split("=");
+				mix.put(Operation.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+			}
+			String[] sizes = System.getProperty("load.payload-sizes", "1024,65536,1048576").split(",");
+			int[] payloadSizes = new int[sizes.length];
+			for (int i = 0; i < sizes.length; i++) {
+				payloadSizes[i] = Integer.parseInt(sizes[i].trim());
+			}
+			return new Settings(
+					Integer.getInteger("load.concurrency", 16),
+					Duration.ofSeconds(Long.getLong("load.warmup-seconds", 10)),
+					Duration.ofSeconds(Long.getLong("load.duration-seconds", 30)),
+					mix, payloadSizes,
+					Integer.getInteger("load.seed-files", 200));
+		}
+
+		Map<String, Object> describe() {
+			Map<String, Object> description = new LinkedHashMap<>();
+			description.put("concurrency", concurrency);
+			description.put("warmup_seconds", warmup.toSeconds());
+			description.put("duration_seconds", duration.toSeconds());
+			Map<String, Integer> weights = new LinkedHashMap<>();
+			mix.forEach((operation, weight) -> weights.put(operation.key(), weight));
+			description.put("mix", weights);
+			description.put("payload_sizes", payloadSizes);
+			return description;
+		}
+	}
+
+	private static final String BOUNDARY = "load-test-boundary";
+
+	private final URI baseUri;
+	private final Settings settings;
+	private final ExecutorService clientExecutor;
+	private final HttpClient client;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final IdPool ids = new IdPool();
+	private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+	private final Operation[] weightedOperations;
+
+	LoadDriver(URI baseUri, Settings settings) {
+		this.baseUri = baseUri;
+		this.settings = settings;
+		this.clientExecutor = Executors.newFixedThreadPool(Math.max(2, settings.concurrency() / 4));
+		this.client = HttpClient.newBuilder()
+				.connectTimeout(Duration.ofSeconds(5))
+				.executor(clientExecutor)
+				.build();
+		List<Operation> weighted = new ArrayList<>();
+		settings.mix().forEach((operation, weight) -> {
+			for (int i = 0; i < weight; i++) {
+				weighted.add(operation);
+			}
+		});
+		this.weightedOperations = weighted.toArray(new Operation[0]);
+		for (Operation operation : Operation.values()) {
+			stats.put(operation, new OperationStats());
+		}
+	}
+
+	LoadReport run() throws Exception {
+		Worker seeder = new Worker();
+		for (int i = 0; i < settings.seedFiles(); i++) {
+			seeder.execute(Operation.UPLOAD, false);
+		}
+
+		long start = System.nanoTime();
+		long recordFrom = start + settings.warmup().toNanos();
+		long deadline = recordFrom + settings.duration().toNanos();
+		ExecutorService workers = Executors.newFixedThreadPool(settings.concurrency());
+		try {
+			List<Future<?>> running = new ArrayList<>();
+			for (int i = 0; i < settings.concurrency(); i++) {
+				running.add(workers.submit(() -> {
+					Worker worker = new Worker();
+					long now;
+					while ((now = System.nanoTime()) < deadline) {
+						worker.execute(nextOperation(), now >= recordFrom);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> worker : running) {
+				worker.get();
+			}
+		} finally {
+			workers.shutdownNow();
+			clientExecutor.shutdownNow();
+		}
+		return new LoadReport(settings, settings.duration(), stats);
+	}
+
+	private Operation nextOperation() {
+		Operation operation = weightedOperations[ThreadLocalRandom.current().nextInt(weightedOperations.length)];
+		// GET and DELETE need an existing file; fall back to creating one
+		if ((operation == Operation.GET || operation == Operation.DELETE) && ids.isEmpty()) {
+			return Operation.UPLOAD;
+		}
+		return operation;
+	}
+
+	// One per thread: owns the payload buffers it mutates
+	private class Worker {
+		private final Map<Integer, byte[]> payloads = new LinkedHashMap<>();
+		private final Random random = new Random();
+
+		Worker() {
+			for (int size : settings.payloadSizes()) {
+				byte[] payload = new byte[size];
+				random.nextBytes(payload);
+				payloads.put(size, payload);
+			}
+		}
+
+		void execute(Operation operation, boolean record) throws IOException, InterruptedException {
+			String id = switch (operation) {
+				case GET -> ids.acquireRandom();
+				case DELETE -> ids.removeRandom();
+				default -> null;
+			};
+			if ((operation == Operation.GET || operation == Operation.DELETE) && id == null) {
+				return;
+			}
+			try {
+				send(operation, id, record);
+			} finally {
+				if (operation == Operation.GET) {
+					ids.release(id);
+				}
+			}
+		}
+
+		private void send(Operation operation, String id, boolean record) throws IOException, InterruptedException {
+			HttpRequest request = switch (operation) {
+				case UPLOAD -> uploadRequest();
+				case GET -> HttpRequest.newBuilder(baseUri.resolve("/v1/file/" + id)).GET().build();
+				case DELETE -> HttpRequest.newBuilder(baseUri.resolve("/v1/file/" + id)).DELETE().build();
+				case HEALTH -> HttpRequest.newBuilder(baseUri.resolve("/healthz")).GET().build();
+			};
+			long started = System.nanoTime();
+			HttpResponse<byte[]> response;
+			try {
+				response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+			} catch (IOException e) {
+				if (record) {
+					stats.get(operation).record(System.nanoTime() - started, false);
+				}
+				return;
+			}
+			long elapsed = System.nanoTime() - started;
+			boolean success = response.statusCode() == expectedStatus(operation);
+			if (success && operation == Operation.UPLOAD) {
+				ids.add(objectMapper.readTree(response.body()).get("id").asText());
+			}
+			if (record) {
+				stats.get(operation).record(elapsed, success);
+			}
+		}
+
+		private HttpRequest uploadRequest() {
+			int[] sizes = settings.payloadSizes();
+			byte[] payload = payloads.get(sizes[random.nextInt(sizes.length)]);
+			// Unique leading bytes give every upload a new content hash
+			ByteBuffer.wrap(payload).putLong(0, random.nextLong());
+			String head = "--" + BOUNDARY + "\r\n"
+					+ "Content-Disposition: form-data; name=\"profilePic\"; filename=\"" + UUID.randomUUID() + ".bin\"\r\n"
+					+ "Content-Type: application/octet-stream\r\n\r\n";
+			String tail = "\r\n--" + BOUNDARY + "--\r\n";
+			return HttpRequest.newBuilder(baseUri.resolve("/v1/file"))
+					.header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+					.POST(HttpRequest.BodyPublishers.ofByteArrays(List.of(
+							head.getBytes(StandardCharsets.UTF_8), payload, tail.getBytes(StandardCharsets.UTF_8))))
+					.build();
+		}
+	}
+
+	private static int expectedStatus(Operation operation) {
+		return switch (operation) {
+			case UPLOAD -> 201;
+			case DELETE -> 204;
+			case GET, HEALTH -> 200;
+		};
+	}
+
+	// Ids of files that currently exist, with the GETs in flight for each; random access and
+	// O(1) removal. An id leaves the pool before its DELETE is sent.
+	private static class IdPool {
+		// Random picks before a DELETE gives up when every candidate is being read
+		private static final int DELETE_ATTEMPTS = 8;
+
+		private final List<String> ids = new ArrayList<>();
+		private final Map<String, Integer> readers = new HashMap<>();
+
+		synchronized void add(String id) {
+			ids.add(id);
+		}
+
+		synchronized boolean isEmpty() {
+			return ids.isEmpty();
+		}
+
+		/** A random id, held for reading until {@link #release}; null when the pool is empty. */
+		synchronized String acquireRandom() {
+			if (ids.isEmpty()) {
+				return null;
+			}
+			String id = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+			readers.merge(id, 1, Integer::sum);
+			return id;
+		}
+
+		synchronized void release(String id) {
+			readers.computeIfPresent(id, (ignored, count) -> count > 1 ? count - 1 : null);
+		}
+
+		/** Removes and returns a random id that is not being read, or null if none was found. */
+		synchronized String removeRandom() {
+			for (int attempt = 0; attempt < DELETE_ATTEMPTS && !ids.isEmpty(); attempt++) {
+				int index = ThreadLocalRandom.current().nextInt(ids.size());
+				String id = ids.get(index);
+				if (readers.containsKey(id)) {
+					continue;
+				}
+				ids.set(index, ids.get(ids.size() - 1));
+				ids.remove(ids.size() - 1);
+				return id;
+			}
+			return null;
+		}
+	}
+}
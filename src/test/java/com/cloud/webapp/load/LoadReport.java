@@ -0,0 +1,94 @@
+package com.cloud.webapp.load;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.webapp.load.LoadDriver.Operation;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Machine-readable result of a load run. A previous report doubles as a baseline: every
+ * operation present in the baseline is gated on its p95/p99 latency and throughput within
+ * a relative tolerance, and on an absolute error rate limit. Without a baseline only the
+ * error rate is gated.
+ */
+class LoadReport {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+	private static final String[] LATENCY_GATES = {"p95_ms", "p99_ms"};
+
+	private final Map<String, Object> document = new LinkedHashMap<>();
+	private final Map<String, Map<String, Object>> operations = new LinkedHashMap<>();
+
+	LoadReport(LoadDriver.Settings settings, Duration measured, Map<Operation, OperationStats> stats) {
+		document.put("generated_at", Instant.now().toString());
+		document.put("settings", settings.describe());
+		stats.forEach((operation, operationStats) -> operations.put(operation.key(), operationStats.summarize(measured)));
+		document.put("operations", operations);
+	}
+
+	void write(Path path) throws IOException {
+		if (path.getParent() != null) {
+			Files.createDirectories(path.getParent());
+		}
+		MAPPER.writeValue(path.toFile(), document);
+	}
+
+	String summary() {
+		StringBuilder text = new StringBuilder(String.format("%-8s %10s %8s %10s %9s %9s %9s %9s%n",
+				"op", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "p999 ms"));
+		operations.forEach((name, values) -> text.append(String.format("%-8s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+				name, values.get("requests"), values.get("errors"), values.get("throughput_rps"),
+				values.get("p50_ms"), values.get("p95_ms"), values.get("p99_ms"), values.get("p999_ms"))));
+		return text.toString();
+	}
+
+	/** Human-readable list of every gate this run fails; empty when it passes. */
+	List<String> regressionsAgainst(Path baselinePath, double tolerance, double maxErrorRate) throws IOException {
+		List<String> regressions = new ArrayList<>();
+		operations.forEach((name, values) -> {
+			long requests = (Long) values.get("requests");
+			double errorRate = (Double) values.get("error_rate");
+			if (requests > 0 && errorRate > maxErrorRate) {
+				regressions.add(String.format("%s: error rate %.2f%% exceeds %.2f%%", name, errorRate * 100, maxErrorRate * 100));
+			}
+		});
+		if (!Files.exists(baselinePath)) {
+			return regressions;
+		}
+		JsonNode baseline = MAPPER.readTree(baselinePath.toFile()).path("operations");
+		for (Iterator<String> names = baseline.fieldNames(); names.hasNext();) {
+			String name = names.next();
+			JsonNode expected = baseline.get(name);
+			Map<String, Object> actual = operations.get(name);
+			if (actual == null || (Long) actual.get("requests") == 0 || expected.path("requests").asLong() == 0) {
+				continue;
+			}
+			for (String gate : LATENCY_GATES) {
+				double limit = expected.path(gate).asDouble() * (1 + tolerance);
+				double value = (Double) actual.get(gate);
+				if (value > limit) {
+					regressions.add(String.format("%s: %s %.2f exceeds baseline %.2f (+%.0f%%)",
+							name, gate, value, expected.path(gate).asDouble(), tolerance * 100));
+				}
+			}
+			double minimum = expected.path("throughput_rps").asDouble() * (1 - tolerance);
+			double throughput = (Double) actual.get("throughput_rps");
+			if (throughput < minimum) {
+				regressions.add(String.format("%s: throughput %.1f req/s below baseline %.1f (-%.0f%%)",
+						name, throughput, expected.path("throughput_rps").asDouble(), tolerance * 100));
+			}
+		}
+		return regressions;
+	}
+}
@@ -0,0 +1,67 @@
+package com.cloud.webapp.load;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.HibernateUtil;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import software.amazon.awssdk.services.s3.S3Client;
+
+/**
+ * Replaces the MySQL pool, its SessionFactory and the S3 client with local stand-ins
+ * (in-memory H2 in MySQL mode and {@link InMemoryS3Client}); everything above them is the
+ * application as it is deployed. Bean names match DatabaseConfig and S3Config so these
+ * definitions override theirs.
+ */
+@TestConfiguration
+public class LoadTestConfig {
+
+	@Bean(destroyMethod = "close")
+	public HikariDataSource dataSource(@Value("${db.pool.maximum-size:10}") int maximumPoolSize,
+	                                   MeterRegistry meterRegistry) {
+		HikariConfig config = new HikariConfig();
+		config.setPoolName("load-test-pool");
+		config.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		config.setMaximumPoolSize(maximumPoolSize);
+		config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+		return new HikariDataSource(config);
+	}
+
+	@Bean(destroyMethod = "close")
+	public SessionFactory sessionFactory(DataSource dataSource,
+	                                     @Value("${db.hibernate.jdbc-batch-size:50}") int jdbcBatchSize) {
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		overrides.put("hibernate.show-sql", "false");
+		overrides.put("hibernate.jdbc.batch_size", String.valueOf(jdbcBatchSize));
+		overrides.put("hibernate.order_inserts", "true");
+		return HibernateUtil.buildSessionFactory(dataSource, overrides);
+	}
+
+	// Object bytes are discarded so long runs do not fill the heap
+	@Bean(destroyMethod = "close")
+	@Primary
+	public S3Client s3Client() {
+		return new InMemoryS3Client(false);
+	}
+
+	// The retry-free client used by S3Resilience talks to the same fake bucket
+	@Bean(destroyMethod = "")
+	public S3Client s3RequestClient(S3Client s3Client) {
+		return s3Client;
+	}
+}
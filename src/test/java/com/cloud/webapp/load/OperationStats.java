@@ -0,0 +1,49 @@
+package com.cloud.webapp.load;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency histogram (microsecond resolution, 3 significant digits) and request/error
+ * counts for one operation, safe to record from many threads.
+ */
+class OperationStats {
+
+	private final ConcurrentHistogram latencyMicros = new ConcurrentHistogram(3);
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+
+	void record(long elapsedNanos, boolean success) {
+		latencyMicros.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(elapsedNanos)));
+		requests.increment();
+		if (!success) {
+			errors.increment();
+		}
+	}
+
+	Map<String, Object> summarize(Duration measured) {
+		Histogram snapshot = latencyMicros.copy();
+		long count = requests.sum();
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("requests", count);
+		summary.put("errors", errors.sum());
+		summary.put("error_rate", count == 0 ? 0.0 : (double) errors.sum() / count);
+		summary.put("throughput_rps", count / (measured.toMillis() / 1000.0));
+		summary.put("p50_ms", millis(snapshot, 50.0));
+		summary.put("p95_ms", millis(snapshot, 95.0));
+		summary.put("p99_ms", millis(snapshot, 99.0));
+		summary.put("p999_ms", millis(snapshot, 99.9));
+		summary.put("max_ms", snapshot.getMaxValue() / 1000.0);
+		return summary;
+	}
+
+	private static double millis(Histogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / 1000.0;
+	}
+}
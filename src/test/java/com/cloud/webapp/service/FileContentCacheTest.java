@@ -0,0 +1,184 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FileContentCacheTest {
+
+	private static final int MEMORY_MAX_OBJECT_BYTES = 16;
+	private static final int MEMORY_MAX_CAPTURE_BYTES = 32;
+
+	@TempDir
+	Path directory;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	void completeCaptureIsServedFromMemory() throws IOException {
+		FileContentCache cache = cache();
+		byte[] bytes = "small object".getBytes(StandardCharsets.UTF_8);
+		capture(cache, "a", bytes);
+
+		FileContentCache.Content content = cache.get("a");
+		assertNotNull(content);
+		assertNull(content.file());
+		assertTrue(content.buffer().isDirect());
+		assertTrue(content.buffer().isReadOnly());
+		assertEquals("text/plain", content.contentType());
+		assertEquals("\"etag\"", content.eTag());
+		assertArrayEquals(bytes, read(content));
+	}
+
+	@Test
+	void largerObjectIsServedFromDisk() throws IOException {
+		FileContentCache cache = cache();
+		byte[] bytes = bytes(1000);
+		capture(cache, "a", bytes);
+
+		FileContentCache.Content content = cache.get("a");
+		assertNotNull(content.file());
+		assertArrayEquals(bytes, read(content));
+		assertEquals(1.0, meterRegistry.get("file.content.cache.requests").tag("result", "disk").counter().count());
+	}
+
+	@Test
+	void incompleteOrOverlongCapturesAreDropped() throws IOException {
+		FileContentCache cache = cache();
+		FileContentCache.Capture shorter = cache.startCapture("short", 10L, null, null, null);
+		shorter.write(bytes(5), 0, 5);
+		shorter.complete();
+		FileContentCache.Capture longer = cache.startCapture("long", 4L, null, null, null);
+		longer.write(bytes(5), 0, 5);
+		longer.complete();
+		FileContentCache.Capture aborted = cache.startCapture("disk", 1000L, null, null, null);
+		aborted.write(bytes(1000), 0, 1000);
+		aborted.abort();
+
+		assertNull(cache.get("short"));
+		assertNull(cache.get("long"));
+		assertNull(cache.get("disk"));
+		assertEquals(0, cacheFiles());
+	}
+
+	@Test
+	void memoryCapturesBeyondTheBudgetAreSkippedUntilBytesAreReleased() {
+		FileContentCache cache = cache();
+		FileContentCache.Capture first = cache.startCapture("a", 16L, null, null, null);
+		FileContentCache.Capture second = cache.startCapture("b", 16L, null, null, null);
+		assertNotNull(first);
+		assertNotNull(second);
+
+		assertNull(cache.startCapture("c", 1L, null, null, null));
+		assertEquals(1.0, meterRegistry.get("file.content.cache.capture.skipped").counter().count());
+		assertEquals(32.0, meterRegistry.get("file.content.cache.capture.bytes").gauge().value());
+
+		first.abort();
+		second.write(bytes(16), 0, 16);
+		second.complete();
+		assertEquals(0.0, meterRegistry.get("file.content.cache.capture.bytes").gauge().value());
+		assertNotNull(cache.startCapture("c", 16L, null, null, null));
+	}
+
+	@Test
+	void captureBuffersAreReusedWithoutLeakingEarlierContent() throws IOException {
+		FileContentCache cache = cache();
+		byte[] longer = bytes(16);
+		byte[] shorter = "short".getBytes(StandardCharsets.UTF_8);
+		for (int i = 0; i < 4; i++) {
+			capture(cache, "long" + i, longer);
+			capture(cache, "short" + i, shorter);
+		}
+
+		for (int i = 0; i < 4; i++) {
+			assertArrayEquals(longer, read(cache.get("long" + i)));
+			assertArrayEquals(shorter, read(cache.get("short" + i)));
+		}
+		assertEquals(0.0, meterRegistry.get("file.content.cache.capture.skipped").counter().count());
+		assertEquals(0.0, meterRegistry.get("file.content.cache.capture.bytes").gauge().value());
+	}
+
+	@Test
+	void openBodySurvivesEvictionAndLaterOpensMiss() throws IOException {
+		FileContentCache cache = cache();
+		byte[] bytes = bytes(1000);
+		capture(cache, "a", bytes);
+		FileContentCache.Content content = cache.get("a");
+
+		try (FileContentCache.Body body = content.open()) {
+			cache.invalidate("a");
+			awaitNoCacheFiles();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(1000, body.writeTo(out));
+			assertArrayEquals(bytes, out.toByteArray());
+		}
+		assertNull(content.open());
+		assertNull(cache.get("a"));
+	}
+
+	private FileContentCache cache() {
+		try {
+			return new FileContentCache(true, 1024, MEMORY_MAX_OBJECT_BYTES, MEMORY_MAX_CAPTURE_BYTES,
+					directory.toString(), 1024 * 1024, 64 * 1024, meterRegistry);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void capture(FileContentCache cache, String id, byte[] bytes) {
+		FileContentCache.Capture capture = cache.startCapture(id, (long) bytes.length, "text/plain", "\"etag\"",
+				Instant.parse("2024-01-02T00:00:00Z"));
+		// In two writes, as the controller copies through a buffer
+		capture.write(bytes, 0, bytes.length / 2);
+		capture.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+		capture.complete();
+	}
+
+	private static byte[] read(FileContentCache.Content content) throws IOException {
+		try (FileContentCache.Body body = content.open()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(content.length(), body.writeTo(out));
+			return out.toByteArray();
+		}
+	}
+
+	private static byte[] bytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) i;
+		}
+		return bytes;
+	}
+
+	// Caffeine runs removal listeners, which delete the files, asynchronously
+	private void awaitNoCacheFiles() throws IOException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (cacheFiles() > 0 && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		assertEquals(0, cacheFiles());
+	}
+
+	private long cacheFiles() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.count();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.dao.FileVariantDAO;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.support.InMemoryS3Client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+class FileReconcilerTest {
+
+	private static final String BUCKET = "bucket";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryS3Client s3Client = new InMemoryS3Client(false);
+	private final FileDAO fileDAO = mock(FileDAO.class);
+	private final FileVariantDAO fileVariantDAO = mock(FileVariantDAO.class);
+	private final FileMetadataCache fileCache = new FileMetadataCache(100, 3600, 100, 30, meterRegistry);
+	private final File kept = row("kept", "a/kept");
+	private final File missingObject = row("gone", "z/gone");
+
+	@BeforeEach
+	void setUp() {
+		putObject("a/kept");
+		putObject("b/orphan");
+		putObject("c/raced");
+		putObject(ImageVariantService.KEY_PREFIX + "kept/160.jpg");
+		when(fileDAO.findByUrlRange(any(), any(), anyInt())).thenReturn(List.of(kept, missingObject));
+		// A row for c/raced was inserted after the range query ran
+		when(fileDAO.existsByUrl(anyString())).thenAnswer(invocation -> invocation.getArgument(0).equals(BUCKET + "/c/raced"));
+		when(fileVariantDAO.findExistingUrls(any())).thenReturn(Set.of());
+		fileCache.put(missingObject);
+	}
+
+	@Test
+	void repairRemovesConfirmedOrphansOnly() {
+		reconciler(true).sweep();
+
+		assertTrue(exists("a/kept"));
+		assertTrue(exists("c/raced"));
+		assertFalse(exists("b/orphan"));
+		assertFalse(exists(ImageVariantService.KEY_PREFIX + "kept/160.jpg"));
+		verify(fileDAO).delete(missingObject);
+		verify(fileDAO, never()).delete(kept);
+		assertTrue(fileCache.isKnownMissing("gone"));
+		assertEquals(2.0, repaired("object"));
+		assertEquals(1.0, repaired("row"));
+	}
+
+	@Test
+	void withoutRepairOrphansAreOnlyCounted() {
+		reconciler(false).sweep();
+
+		assertEquals(4, s3Client.size());
+		verify(fileDAO, never()).delete(any());
+		// c/raced is only told apart from a real orphan by the lookup repair makes
+		assertEquals(3.0, meterRegistry.get("reconciler.orphans.found").tag("type", "object").counter().count());
+		assertEquals(1.0, meterRegistry.get("reconciler.orphans.found").tag("type", "row").counter().count());
+		assertEquals(0.0, repaired("object"));
+		assertEquals(0.0, repaired("row"));
+	}
+
+	private FileReconciler reconciler(boolean repair) {
+		// A negative grace period puts every object and row past it
+		return new FileReconciler(fileDAO, fileVariantDAO, fileCache, s3Client, BUCKET, true, repair, 1000, 10000,
+				-1, 1000, 1000, meterRegistry);
+	}
+
+	private double repaired(String type) {
+		return meterRegistry.get("reconciler.orphans.repaired").tag("type", type).counter().count();
+	}
+
+	private boolean exists(String key) {
+		try {
+			s3Client.headObject(HeadObjectRequest.builder().bucket(BUCKET).key(key).build());
+			return true;
+		} catch (NoSuchKeyException e) {
+			return false;
+		}
+	}
+
+	private void putObject(String key) {
+		s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key(key).build(), RequestBody.fromString(key));
+	}
+
+	private static File row(String id, String key) {
+		File file = new File(id, key, BUCKET + "/" + key);
+		file.setUploadDate(LocalDate.now().minusDays(7));
+		return file;
+	}
+}
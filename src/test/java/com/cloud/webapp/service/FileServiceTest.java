@@ -0,0 +1,335 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.dao.FileVariantDAO;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.model.FileVariant;
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.Bulkhead;
+import com.cloud.webapp.util.HibernateUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * FileService against an in-memory H2 database (MySQL mode) and {@link InMemoryS3Client},
+ * wired by hand like the benchmarks. In async mode S3AsyncClient is a mock that forwards
+ * to the same in-memory bucket.
+ */
+class FileServiceTest {
+
+	private static final String BUCKET = "bucket";
+
+	@TempDir
+	Path directory;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryS3Client s3Client = new InMemoryS3Client(true);
+	private final S3AsyncClient s3AsyncClient = mock(S3AsyncClient.class);
+	private final Bulkhead s3Bulkhead = new Bulkhead("s3", 4, 16, 10000, meterRegistry);
+	private final Bulkhead s3ReadBulkhead = new Bulkhead("s3-read", 4, 16, 10000, meterRegistry);
+	private final Bulkhead dbBulkhead = new Bulkhead("db", 4, 16, 10000, meterRegistry);
+	private final Bulkhead imageBulkhead = new Bulkhead("image", 1, 10, 10000, meterRegistry);
+	private final Bulkhead uploadPartBulkhead = new Bulkhead("upload-part", 4, 16, 10000, meterRegistry);
+	private final Bulkhead batchUploadBulkhead = new Bulkhead("batch-upload", 4, 16, 10000, meterRegistry);
+	private final Bulkhead asyncIoBulkhead = new Bulkhead("async-io", 2, 16, 10000, meterRegistry);
+	private HikariDataSource dataSource;
+	private SessionFactory sessionFactory;
+	private FileDAO fileDAO;
+	private FileVariantDAO fileVariantDAO;
+	private ImageVariantService imageVariants;
+	private UploadJournal uploadJournal;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		HikariConfig poolConfig = new HikariConfig();
+		poolConfig.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		poolConfig.setMaximumPoolSize(4);
+		dataSource = new HikariDataSource(poolConfig);
+		Map<String, Object> overrides = new HashMap<>();
+		overrides.put("hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+		overrides.put("hibernate.show-sql", "false");
+		sessionFactory = HibernateUtil.buildSessionFactory(dataSource, overrides);
+		fileDAO = new FileDAO(sessionFactory, dbBulkhead, 500, meterRegistry);
+		fileVariantDAO = new FileVariantDAO(sessionFactory, dbBulkhead, meterRegistry);
+		uploadJournal = new UploadJournal(new ObjectMapper(), true, directory.resolve("journal.log").toString(),
+				8L * 1024 * 1024, meterRegistry);
+
+		when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenAnswer(invocation -> {
+			PutObjectRequest request = invocation.getArgument(0);
+			AsyncRequestBody body = invocation.getArgument(1);
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			return body.subscribe(buffer -> {
+				byte[] bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				content.writeBytes(bytes);
+			}).thenApply(done -> s3Client.putObject(request, RequestBody.fromBytes(content.toByteArray())));
+		});
+		when(s3AsyncClient.deleteObject(any(DeleteObjectRequest.class))).thenAnswer(invocation ->
+				CompletableFuture.completedFuture(s3Client.deleteObject((DeleteObjectRequest) invocation.getArgument(0))));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		uploadJournal.close();
+		sessionFactory.close();
+		dataSource.close();
+		s3Bulkhead.shutdown();
+		s3ReadBulkhead.shutdown();
+		dbBulkhead.shutdown();
+		imageBulkhead.shutdown();
+		uploadPartBulkhead.shutdown();
+		batchUploadBulkhead.shutdown();
+		asyncIoBulkhead.shutdown();
+	}
+
+	@Test
+	void duplicateUploadReusesTheStoredObject() throws Exception {
+		FileService service = service(false);
+
+		File original = service.uploadFile(part("a.txt", "same bytes"));
+		File duplicate = service.uploadFile(part("b.txt", "same bytes"));
+
+		assertEquals(original.getUrl(), duplicate.getUrl());
+		assertEquals(original.getContentHash(), fileDAO.findById(duplicate.getId()).getContentHash());
+		assertEquals(1, s3Client.size());
+		assertEquals(1.0, meterRegistry.get("s3.operation.upload.deduplicated").counter().count());
+	}
+
+	@Test
+	void deletingOneOfTwoRowsKeepsTheSharedObject() throws Exception {
+		FileService service = service(false);
+		File original = service.uploadFile(part("a.txt", "same bytes"));
+		File duplicate = service.uploadFile(part("b.txt", "same bytes"));
+
+		assertTrue(service.deleteFile(original.getId()));
+
+		assertNull(fileDAO.findById(original.getId()));
+		assertArrayEquals(bytes("same bytes"), content(duplicate));
+	}
+
+	@Test
+	void deletingTheLastRowRemovesTheObject() throws Exception {
+		FileService service = service(false);
+		File original = service.uploadFile(part("a.txt", "same bytes"));
+		File duplicate = service.uploadFile(part("b.txt", "same bytes"));
+
+		service.deleteFile(original.getId());
+		assertTrue(service.deleteFile(duplicate.getId()));
+
+		assertEquals(0, rowCount());
+		assertEquals(0, s3Client.size());
+	}
+
+	@Test
+	void duplicateUploadSharesTheVariantsInsteadOfReprocessing() throws Exception {
+		FileService service = service(false);
+		File original = service.uploadFile(part("a.txt", "same bytes"));
+		String variantKey = ImageVariantService.KEY_PREFIX + original.getId() + "/160.jpg";
+		s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key(variantKey).build(), RequestBody.fromString("v"));
+		fileVariantDAO.saveAll(List.of(new FileVariant(UUID.randomUUID().toString(), original, 160, 90, "image/jpeg",
+				BUCKET + "/" + variantKey, 1)));
+
+		File duplicate = service.uploadFile(part("b.txt", "same bytes"));
+
+		verify(imageVariants, never()).submit(eq(duplicate), any(), anyLong());
+		assertEquals(List.of(BUCKET + "/" + variantKey),
+				fileVariantDAO.findByFileId(duplicate.getId()).stream().map(FileVariant::getUrl).toList());
+
+		// The variant object goes with the last row pointing at it, like the original
+		service.deleteFile(original.getId());
+		assertEquals(List.of(160), fileVariantDAO.findByFileId(duplicate.getId()).stream().map(FileVariant::getWidth).toList());
+		service.deleteFile(duplicate.getId());
+		awaitObjectCount(0);
+		assertEquals(0, s3Client.size());
+	}
+
+	@Test
+	void batchDeleteRemovesOnlyObjectsNoRemainingRowShares() throws Exception {
+		FileService service = service(false);
+		File shared = service.uploadFile(part("a.txt", "shared"));
+		File sharedCopy = service.uploadFile(part("b.txt", "shared"));
+		File keptCopy = service.uploadFile(part("c.txt", "kept"));
+		File deletedCopy = service.uploadFile(part("d.txt", "kept"));
+		File unique = service.uploadFile(part("e.txt", "unique"));
+
+		List<BatchDeleteResult> results = service.deleteFiles(
+				List.of(shared.getId(), sharedCopy.getId(), deletedCopy.getId(), unique.getId(), "missing"));
+
+		assertEquals(List.of(BatchDeleteResult.Status.DELETED, BatchDeleteResult.Status.DELETED,
+				BatchDeleteResult.Status.DELETED, BatchDeleteResult.Status.DELETED, BatchDeleteResult.Status.NOT_FOUND),
+				results.stream().map(BatchDeleteResult::status).toList());
+		// Both rows of "shared" went in one batch, so its object goes too; "kept" still has a row
+		assertEquals(1, rowCount());
+		assertEquals(1, s3Client.size());
+		assertArrayEquals(bytes("kept"), content(keptCopy));
+	}
+
+	@Test
+	void batchDeleteReportsEveryRowOfAnObjectS3RefusedToDelete() throws Exception {
+		FileService service = service(false);
+		File refused = service.uploadFile(part("a.txt", "refused"));
+		File refusedCopy = service.uploadFile(part("b.txt", "refused"));
+		File deleted = service.uploadFile(part("c.txt", "deleted"));
+		s3Client.refuseDelete(refused.getUrl().substring(BUCKET.length() + 1));
+
+		List<BatchDeleteResult> results = service.deleteFiles(
+				List.of(refused.getId(), deleted.getId(), refusedCopy.getId()));
+
+		assertEquals(List.of(BatchDeleteResult.Status.PENDING_CLEANUP, BatchDeleteResult.Status.DELETED,
+				BatchDeleteResult.Status.PENDING_CLEANUP),
+				results.stream().map(BatchDeleteResult::status).toList());
+		assertEquals(0, rowCount());
+		assertEquals(1, s3Client.size());
+	}
+
+	@Test
+	void asyncUploadSendsTheSpooledPartAndRecordsItsHash() throws IOException {
+		FileService service = service(true);
+
+		File saved = service.uploadFileAsync(part("a.txt", "hello")).join();
+
+		assertArrayEquals(bytes("hello"), content(saved));
+		assertNotNull(fileDAO.findById(saved.getId()).getContentHash());
+		assertEquals(0, uploadJournal.openCount());
+		verify(s3AsyncClient).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+	}
+
+	@Test
+	void asyncUploadRollsBackTheRowWhenThePutIsRefused() throws IOException {
+		when(s3AsyncClient.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+				.thenReturn(CompletableFuture.failedFuture(S3Exception.builder().statusCode(403).build()));
+		FileService service = service(true);
+
+		assertThrows(CompletionException.class, () -> service.uploadFileAsync(part("a.txt", "hello")).join());
+
+		assertEquals(0, rowCount());
+		assertEquals(0, s3Client.size());
+		assertEquals(0, uploadJournal.openCount());
+	}
+
+	@Test
+	void asyncDeleteRemovesTheRowAndTheObject() throws IOException {
+		FileService service = service(true);
+		File saved = service.uploadFileAsync(part("a.txt", "hello")).join();
+
+		assertTrue(service.deleteFileAsync(saved.getId()).join());
+
+		assertNull(fileDAO.findById(saved.getId()));
+		assertEquals(0, s3Client.size());
+		assertNull(service.getFileByIdAsync(saved.getId()).join());
+	}
+
+	@Test
+	void asyncDeleteRetriesAndThenLeavesTheObjectToTheReconciler() throws IOException {
+		FileService service = service(true);
+		File saved = service.uploadFileAsync(part("a.txt", "hello")).join();
+		when(s3AsyncClient.deleteObject(any(DeleteObjectRequest.class)))
+				.thenReturn(CompletableFuture.failedFuture(S3Exception.builder().statusCode(503).build()));
+
+		assertTrue(service.deleteFileAsync(saved.getId()).join());
+
+		assertNull(fileDAO.findById(saved.getId()));
+		assertEquals(1, s3Client.size());
+		verify(s3AsyncClient, times(3)).deleteObject(any(DeleteObjectRequest.class));
+	}
+
+	@Test
+	void asyncDeleteOfAnUnknownIdDoesNotCallS3() throws IOException {
+		FileService service = service(true);
+
+		assertEquals(false, service.deleteFileAsync("missing").join());
+		assertNull(service.getFileByIdAsync("missing").join());
+		verify(s3AsyncClient, never()).deleteObject(any(DeleteObjectRequest.class));
+	}
+
+	private FileService service(boolean async) throws IOException {
+		FileMetadataCache fileCache = new FileMetadataCache(1000, 3600, 1000, 30, meterRegistry);
+		FileContentCache contentCache = new FileContentCache(false, 1024 * 1024, 64 * 1024, 1024 * 1024,
+				directory.resolve("content-cache").toString(), 0, 0, meterRegistry);
+		imageVariants = spy(new ImageVariantService(fileVariantDAO, s3Client, imageBulkhead, BUCKET, true,
+				new int[] {160}, 1024 * 1024, 40000000, 0.8f, 1000, 30, meterRegistry));
+		UploadRecovery uploadRecovery = new UploadRecovery(uploadJournal, fileDAO, fileCache, s3Client, s3Bulkhead,
+				BUCKET, 21600000, meterRegistry);
+		S3Resilience s3Resilience = new S3Resilience(s3Client, async ? Optional.of(s3AsyncClient) : Optional.empty(),
+				s3Bulkhead, s3ReadBulkhead, 30000, 3, 1, 0.1, 20, true, 0.95, 10, 1000, 0.5, 50, 20, 10000, meterRegistry);
+		return new FileService(fileDAO, fileCache, contentCache, imageVariants, s3Client, s3Bulkhead, s3Resilience,
+				uploadJournal, uploadRecovery, BUCKET, 8L * 1024 * 1024, 2, 16L * 1024 * 1024, uploadPartBulkhead,
+				async, asyncIoBulkhead, batchUploadBulkhead, meterRegistry);
+	}
+
+	// Variant objects are removed in the background, on the image bulkhead; the shared one
+	// must still be there while the duplicate's row points at it
+	private void awaitObjectCount(int count) {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (s3Client.size() != count && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	private byte[] content(File file) {
+		String key = file.getUrl().substring(BUCKET.length() + 1);
+		return s3Client.getObjectAsBytes(GetObjectRequest.builder().bucket(BUCKET).key(key).build()).asByteArray();
+	}
+
+	private long rowCount() {
+		try (Session session = sessionFactory.openSession()) {
+			return session.createQuery("select count(f) from File f", Long.class).getSingleResult();
+		}
+	}
+
+	private static MockMultipartFile part(String name, String content) {
+		return new MockMultipartFile("file", name, "text/plain", bytes(content));
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+}
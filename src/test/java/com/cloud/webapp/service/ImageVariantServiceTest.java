@@ -0,0 +1,137 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.dao.FileVariantDAO;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.Bulkhead;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+class ImageVariantServiceTest {
+
+	private static final String BUCKET = "bucket";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final FileVariantDAO fileVariantDAO = mock(FileVariantDAO.class);
+	private final InMemoryS3Client s3Client = new InMemoryS3Client(true);
+	private final Bulkhead imageBulkhead = new Bulkhead("image", 1, 10, 60000, meterRegistry);
+
+	@AfterEach
+	void tearDown() {
+		imageBulkhead.shutdown();
+	}
+
+	@Test
+	void filesThatAreNotImagesNeverReachTheDatabase() {
+		ImageVariantService service = service(30);
+		service.submit(file("doc"), "application/pdf", 1000);
+
+		assertNull(service.findVariant("doc", 100));
+		assertNull(service.findVariant("doc", 100));
+		verify(fileVariantDAO, never()).findByFileId(anyString());
+	}
+
+	@Test
+	void emptyLookupIsRememberedForTheNegativeTtl() {
+		when(fileVariantDAO.findByFileId("a")).thenReturn(List.of());
+		ImageVariantService service = service(30);
+
+		assertNull(service.findVariant("a", 100));
+		assertNull(service.findVariant("a", 100));
+		verify(fileVariantDAO, times(1)).findByFileId("a");
+	}
+
+	@Test
+	void emptyLookupIsRetriedOnceTheNegativeTtlHasPassed() {
+		when(fileVariantDAO.findByFileId("a")).thenReturn(List.of());
+		ImageVariantService service = service(0);
+
+		assertNull(service.findVariant("a", 100));
+		assertNull(service.findVariant("a", 100));
+		verify(fileVariantDAO, times(2)).findByFileId("a");
+	}
+
+	@Test
+	void processedImageIsServedFromTheCacheNarrowestFirst() throws IOException {
+		File file = file("img");
+		byte[] png = png(800, 600);
+		s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key("img/name").build(), RequestBody.fromBytes(png));
+		ImageVariantService service = service(30);
+
+		service.submit(file, "image/png", png.length);
+		awaitProcessed();
+
+		assertEquals(160, service.findVariant("img", 100).getWidth());
+		assertEquals(480, service.findVariant("img", 161).getWidth());
+		assertNull(service.findVariant("img", 1025));
+		verify(fileVariantDAO, never()).findByFileId(anyString());
+	}
+
+	@Test
+	void imageTooSmallForAnyVariantIsRememberedAsHavingNone() throws IOException {
+		File file = file("tiny");
+		byte[] png = png(100, 80);
+		s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key("tiny/name").build(), RequestBody.fromBytes(png));
+		ImageVariantService service = service(30);
+
+		service.submit(file, "image/png", png.length);
+		awaitProcessed();
+
+		assertNull(service.findVariant("tiny", 50));
+		verify(fileVariantDAO, never()).findByFileId(anyString());
+		verify(fileVariantDAO, never()).saveAll(any());
+	}
+
+	private ImageVariantService service(long negativeTtlSeconds) {
+		return new ImageVariantService(fileVariantDAO, s3Client, imageBulkhead, BUCKET, true,
+				new int[] {160, 480, 1024}, 20L * 1024 * 1024, 40000000, 0.8f, 100, negativeTtlSeconds, meterRegistry);
+	}
+
+	private void awaitProcessed() {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (processed() == 0 && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		assertTrue(processed() > 0, "image was not processed");
+	}
+
+	private long processed() {
+		return meterRegistry.find("image.variants.process.timer").timers().stream().mapToLong(timer -> timer.count()).sum();
+	}
+
+	private static File file(String id) {
+		return new File(id, "name", BUCKET + "/" + id + "/name");
+	}
+
+	private static byte[] png(int width, int height) throws IOException {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+}
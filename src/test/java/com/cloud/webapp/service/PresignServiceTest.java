@@ -0,0 +1,115 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+import java.util.Optional;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.exceptions.DataAccessException;
+import com.cloud.webapp.exceptions.ObjectTooLargeException;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.Bulkhead;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+class PresignServiceTest {
+
+	private static final String BUCKET = "bucket";
+	private static final String ID = "3f1c2a9e-0000-4000-8000-000000000001";
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryS3Client s3Client = new InMemoryS3Client(false);
+	private final Bulkhead s3Bulkhead = new Bulkhead("s3", 2, 8, 10000, meterRegistry);
+	private final Bulkhead s3ReadBulkhead = new Bulkhead("s3-read", 2, 8, 10000, meterRegistry);
+	private final FileDAO fileDAO = mock(FileDAO.class);
+	private final ImageVariantService imageVariants = mock(ImageVariantService.class);
+	private final FileMetadataCache fileCache = new FileMetadataCache(100, 3600, 100, 30, meterRegistry);
+	private final PresignService service = new PresignService(fileDAO, fileCache, imageVariants,
+			new S3Resilience(s3Client, Optional.empty(), s3Bulkhead, s3ReadBulkhead, 30000, 3, 1, 0.1, 20, false, 0.95,
+					10, 1000, 0.5, 50, 20, 10000, meterRegistry),
+			BUCKET, "us-east-1", false, 900, 60, DataSize.ofBytes(16), meterRegistry);
+
+	@AfterEach
+	void tearDown() {
+		s3Bulkhead.shutdown();
+		s3ReadBulkhead.shutdown();
+	}
+
+	@Test
+	void completedUploadIsRecorded() {
+		putObject(ID + "/a.txt", "hello");
+
+		File file = service.completeUpload(ID, "a.txt");
+
+		assertEquals(BUCKET + "/" + ID + "/a.txt", file.getUrl());
+		verify(fileDAO).save(file);
+		verify(imageVariants).submit(file, "text/plain", 5);
+		assertSame(file, fileCache.get(ID));
+	}
+
+	@Test
+	void missingObjectIsNotRecorded() {
+		assertNull(service.completeUpload(ID, "a.txt"));
+		verify(fileDAO, never()).save(any());
+	}
+
+	@Test
+	void objectOverTheLimitIsDeletedAndRejected() {
+		putObject(ID + "/big.bin", "seventeen bytes!!");
+
+		ObjectTooLargeException error = assertThrows(ObjectTooLargeException.class,
+				() -> service.completeUpload(ID, "big.bin"));
+
+		assertEquals(17, error.getSize());
+		assertEquals(0, s3Client.size());
+		verify(fileDAO, never()).save(any());
+	}
+
+	@Test
+	void concurrentCompletionReturnsTheRowWrittenFirst() {
+		putObject(ID + "/a.txt", "hello");
+		File winner = new File(ID, "a.txt", BUCKET + "/" + ID + "/a.txt");
+		// Not there when this completion looks, inserted before it saves
+		when(fileDAO.findById(ID)).thenReturn(null, winner);
+		doThrow(new DataAccessException("Failed to save file",
+				new ConstraintViolationException("Duplicate entry", new SQLException("Duplicate entry"), "PRIMARY")))
+				.when(fileDAO).save(any());
+
+		assertSame(winner, service.completeUpload(ID, "a.txt"));
+		verify(imageVariants, never()).submit(any(), anyString(), anyLong());
+	}
+
+	@Test
+	void otherSaveFailuresPropagate() {
+		putObject(ID + "/a.txt", "hello");
+		doThrow(new DataAccessException("Failed to save file", new IllegalStateException("connection lost")))
+				.when(fileDAO).save(any());
+
+		assertThrows(DataAccessException.class, () -> service.completeUpload(ID, "a.txt"));
+	}
+
+	private void putObject(String key, String content) {
+		s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key(key).contentType("text/plain").build(),
+				RequestBody.fromString(content));
+	}
+}
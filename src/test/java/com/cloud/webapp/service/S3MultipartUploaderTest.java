@@ -0,0 +1,105 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.Bulkhead;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+class S3MultipartUploaderTest {
+
+	private static final String BUCKET = "bucket";
+	private static final int PART_SIZE = 5 * 1024 * 1024;
+
+	private final InMemoryS3Client s3Client = spy(new InMemoryS3Client(true));
+	private final Bulkhead partBulkhead = new Bulkhead("upload-part", 2, 8, 10000, new SimpleMeterRegistry());
+	private final S3MultipartUploader uploader = new S3MultipartUploader(s3Client, BUCKET, PART_SIZE, 2, PART_SIZE,
+			partBulkhead.asExecutor());
+	private final byte[] content = randomBytes(2 * PART_SIZE + 1024);
+
+	@AfterEach
+	void tearDown() {
+		partBulkhead.shutdown();
+	}
+
+	@Test
+	void largeUploadIsSentInPartsAndCompleted() throws IOException {
+		uploader.upload("key", content.length, "application/octet-stream", () -> new ByteArrayInputStream(content));
+
+		assertArrayEquals(content, s3Client.getObjectAsBytes(GetObjectRequest.builder().bucket(BUCKET).key("key").build())
+				.asByteArray());
+		verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+	}
+
+	@Test
+	void failedPartAbortsTheUpload() {
+		doThrow(S3Exception.builder().statusCode(500).message("part failed").build())
+				.when(s3Client).uploadPart(argThat((UploadPartRequest request) -> request.partNumber() == 2), any(RequestBody.class));
+
+		S3Exception error = assertThrows(S3Exception.class, () ->
+				uploader.upload("key", content.length, "application/octet-stream", () -> new ByteArrayInputStream(content)));
+
+		assertEquals(500, error.statusCode());
+		verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+		assertEquals(0, s3Client.size());
+	}
+
+	@Test
+	void sourceFailingMidStreamAbortsTheUpload() {
+		IOException error = assertThrows(IOException.class, () ->
+				uploader.upload("key", content.length, "application/octet-stream", () -> failingAfter(PART_SIZE + 1)));
+
+		assertEquals("client went away", error.getMessage());
+		verify(s3Client).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+		verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+		assertEquals(0, s3Client.size());
+	}
+
+	// The content, failing once more than {@code limit} bytes have been read
+	private InputStream failingAfter(int limit) {
+		return new FilterInputStream(new ByteArrayInputStream(content)) {
+			private int read;
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				if (read >= limit) {
+					throw new IOException("client went away");
+				}
+				int count = super.read(buffer, offset, Math.min(length, limit - read + 1));
+				read += Math.max(count, 0);
+				return count;
+			}
+		};
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(42).nextBytes(bytes);
+		return bytes;
+	}
+}
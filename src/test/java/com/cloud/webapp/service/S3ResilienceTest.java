@@ -0,0 +1,184 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.util.Bulkhead;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+class S3ResilienceTest {
+
+	private static final long HEDGE_DELAY_MS = 20;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final S3Client s3Client = mock(S3Client.class);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private Bulkhead s3Bulkhead;
+	private Bulkhead s3ReadBulkhead;
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		if (s3Bulkhead != null) {
+			s3Bulkhead.shutdown();
+			s3ReadBulkhead.shutdown();
+		}
+	}
+
+	@Test
+	void slowReadIsHedgedAndTheLosingResponseAborted() {
+		S3Resilience resilience = resilience(4);
+		ResponseInputStream<GetObjectResponse> slow = stream();
+		ResponseInputStream<GetObjectResponse> fast = stream();
+		when(s3Client.getObject(any(GetObjectRequest.class)))
+				.thenAnswer(invocation -> {
+					awaitRelease();
+					return slow;
+				})
+				.thenReturn(fast);
+
+		assertSame(fast, resilience.getObject(request()));
+		assertEquals(1.0, hedgeCount("sent"));
+
+		release.countDown();
+		verify(slow, timeout(5000)).abort();
+		verify(fast, never()).abort();
+		assertEquals(1.0, hedgeCount("won"));
+	}
+
+	@Test
+	void hedgeStillQueuedWhenThePrimaryAnswersIsNeverSent() throws Exception {
+		// One thread: the hedge waits behind the primary and must be dropped once it answers
+		S3Resilience resilience = resilience(1);
+		ResponseInputStream<GetObjectResponse> primary = stream();
+		when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+			Thread.sleep(HEDGE_DELAY_MS * 5);
+			return primary;
+		});
+
+		assertSame(primary, resilience.getObject(request()));
+		assertEquals(1.0, hedgeCount("sent"));
+		// Queued behind the hedge, so this returns once the hedge has been dropped
+		assertEquals("done", s3ReadBulkhead.execute(() -> "done"));
+		assertEquals(1.0, hedgeCount("skipped"));
+		verify(s3Client, times(1)).getObject(any(GetObjectRequest.class));
+	}
+
+	@Test
+	void readWithNoAnswerByTheDeadlineIsAbandonedAndRetried() {
+		S3Resilience resilience = resilience(4, 50);
+		ResponseInputStream<GetObjectResponse> late = stream();
+		ResponseInputStream<GetObjectResponse> ok = stream();
+		when(s3Client.getObject(any(GetObjectRequest.class)))
+				.thenAnswer(invocation -> {
+					awaitRelease();
+					return late;
+				})
+				.thenAnswer(invocation -> {
+					awaitRelease();
+					return late;
+				})
+				.thenReturn(ok);
+
+		assertSame(ok, resilience.getObject(request()));
+		assertEquals(1.0, meterRegistry.get("s3.timeouts").tag("operation", "get").counter().count());
+		assertEquals(1.0, meterRegistry.get("s3.retry").tag("operation", "get").tag("result", "attempted")
+				.counter().count());
+
+		// Both abandoned attempts answer eventually and are aborted, not returned
+		release.countDown();
+		verify(late, timeout(5000).times(2)).abort();
+	}
+
+	@Test
+	void slowDeleteIsNeverDuplicated() {
+		S3Resilience resilience = resilience(4);
+		when(s3Client.deleteObject(any(DeleteObjectRequest.class))).thenAnswer(invocation -> {
+			Thread.sleep(HEDGE_DELAY_MS * 5);
+			return DeleteObjectResponse.builder().build();
+		});
+
+		resilience.deleteObject(DeleteObjectRequest.builder().bucket("bucket").key("key").build());
+
+		verify(s3Client, times(1)).deleteObject(any(DeleteObjectRequest.class));
+		assertEquals(0.0, hedgeCount("sent"));
+	}
+
+	@Test
+	void transientFailuresAreRetriedAndClientErrorsAreNot() {
+		// No hedges, so a slow first attempt cannot be rescued by one instead of a retry
+		S3Resilience resilience = resilience(4, 30000, 10000);
+		ResponseInputStream<GetObjectResponse> ok = stream();
+		when(s3Client.getObject(any(GetObjectRequest.class)))
+				.thenThrow(S3Exception.builder().statusCode(503).build())
+				.thenReturn(ok)
+				.thenThrow(S3Exception.builder().statusCode(404).build());
+
+		assertSame(ok, resilience.getObject(request()));
+		S3Exception missing = assertThrows(S3Exception.class, () -> resilience.getObject(request()));
+		assertEquals(404, missing.statusCode());
+		verify(s3Client, times(3)).getObject(any(GetObjectRequest.class));
+		assertEquals(1.0, meterRegistry.get("s3.retry").tag("operation", "get").tag("result", "attempted")
+				.counter().count());
+	}
+
+	private S3Resilience resilience(int threads) {
+		return resilience(threads, 30000);
+	}
+
+	private S3Resilience resilience(int readThreads, long socketTimeoutMs) {
+		return resilience(readThreads, socketTimeoutMs, HEDGE_DELAY_MS);
+	}
+
+	private S3Resilience resilience(int readThreads, long socketTimeoutMs, long hedgeDelayMs) {
+		s3Bulkhead = new Bulkhead("s3", 4, 4, 5000, meterRegistry);
+		s3ReadBulkhead = new Bulkhead("s3-read", readThreads, 4, 5000, meterRegistry);
+		return new S3Resilience(s3Client, Optional.empty(), s3Bulkhead, s3ReadBulkhead, socketTimeoutMs, 3, 1, 0.1, 20, true, 0.95, hedgeDelayMs, hedgeDelayMs,
+				0.5, 50, 20, 10000, meterRegistry);
+	}
+
+	private double hedgeCount(String result) {
+		return meterRegistry.get("s3.hedge").tag("operation", "get").tag("result", result).counter().count();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ResponseInputStream<GetObjectResponse> stream() {
+		return mock(ResponseInputStream.class);
+	}
+
+	private static GetObjectRequest request() {
+		return GetObjectRequest.builder().bucket("bucket").key("key").build();
+	}
+
+	private void awaitRelease() {
+		try {
+			assertTrue(release.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
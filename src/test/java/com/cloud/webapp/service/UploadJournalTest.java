@@ -0,0 +1,163 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.cloud.webapp.model.File;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class UploadJournalTest {
+
+	@TempDir
+	Path directory;
+
+	private final List<UploadJournal> journals = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() throws IOException {
+		for (UploadJournal journal : journals) {
+			journal.close();
+		}
+	}
+
+	@Test
+	void openEntriesSurviveARestartAndEndedOnesDoNot() throws IOException {
+		UploadJournal journal = open(8L * 1024 * 1024);
+		journal.begin(file("a"));
+		journal.begin(file("b"));
+		journal.end("a");
+		journal.close();
+
+		UploadJournal reopened = open(8L * 1024 * 1024);
+		List<UploadJournal.Entry> pending = reopened.pending(0);
+		assertEquals(1, pending.size());
+		UploadJournal.Entry entry = pending.get(0);
+		assertEquals("b", entry.id());
+		assertEquals("bucket/b/name", entry.url());
+		assertEquals("hash-b", entry.contentHash());
+		assertTrue(entry.fromPreviousRun());
+	}
+
+	@Test
+	void tornLastLineIsIgnoredOnReplay() throws IOException {
+		UploadJournal journal = open(8L * 1024 * 1024);
+		journal.begin(file("a"));
+		journal.close();
+		Files.writeString(path(), "{\"op\":\"begin\",\"id\":\"b\",\"fi", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		UploadJournal reopened = open(8L * 1024 * 1024);
+		assertEquals(List.of("a"), ids(reopened.pending(0)));
+	}
+
+	@Test
+	void uploadsInProgressAreNotPendingUntilAbandoned() throws IOException {
+		UploadJournal journal = open(8L * 1024 * 1024);
+		journal.begin(file("a"));
+		journal.begin(file("b"));
+		long startedBefore = System.currentTimeMillis() - 60_000;
+
+		assertTrue(journal.pending(startedBefore).isEmpty());
+		journal.abandon("b");
+		assertEquals(List.of("b"), ids(journal.pending(startedBefore)));
+		// Past the backstop age every open entry is pending
+		assertEquals(List.of("a", "b"), ids(journal.pending(System.currentTimeMillis() + 1)));
+
+		journal.end("b");
+		journal.abandon("b");
+		assertTrue(journal.pending(startedBefore).isEmpty());
+		assertEquals(1, journal.openCount());
+	}
+
+	@Test
+	void concurrentBeginsAreAllDurable() throws Exception {
+		UploadJournal journal = open(8L * 1024 * 1024);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> begins = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				String id = "f" + i;
+				begins.add(pool.submit(() -> journal.begin(file(id))));
+			}
+			for (Future<?> begin : begins) {
+				begin.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		journal.close();
+
+		UploadJournal reopened = open(8L * 1024 * 1024);
+		assertEquals(200, reopened.openCount());
+	}
+
+	@Test
+	void compactionKeepsOnlyOpenEntries() throws IOException {
+		UploadJournal journal = open(1024);
+		journal.begin(file("kept"));
+		for (int i = 0; i < 50; i++) {
+			journal.begin(file("done" + i));
+			journal.end("done" + i);
+		}
+		long before = Files.size(path());
+		journal.compactIfNeeded();
+		assertTrue(Files.size(path()) < before);
+		// Appends after compaction still reach the file
+		journal.begin(file("later"));
+		journal.close();
+
+		UploadJournal reopened = open(1024);
+		assertEquals(Set.of("kept", "later"), Set.copyOf(ids(reopened.pending(0))));
+	}
+
+	@Test
+	void disabledJournalWritesNothing() throws IOException {
+		UploadJournal journal = new UploadJournal(new ObjectMapper(), false, path().toString(), 1024,
+				new SimpleMeterRegistry());
+		journals.add(journal);
+		journal.begin(file("a"));
+		journal.end("a");
+		assertFalse(Files.exists(path()));
+		assertEquals(0, journal.openCount());
+	}
+
+	private UploadJournal open(long compactBytes) throws IOException {
+		UploadJournal journal = new UploadJournal(new ObjectMapper(), true, path().toString(), compactBytes,
+				new SimpleMeterRegistry());
+		journals.add(journal);
+		return journal;
+	}
+
+	private Path path() {
+		return directory.resolve("upload-journal.log");
+	}
+
+	private static File file(String id) {
+		File file = new File(id, "name", "bucket/" + id + "/name");
+		file.setContentHash("hash-" + id);
+		return file;
+	}
+
+	private static List<String> ids(List<UploadJournal.Entry> entries) {
+		return entries.stream().map(UploadJournal.Entry::id).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,182 @@
+package com.cloud.webapp.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.cloud.webapp.dao.FileDAO;
+import com.cloud.webapp.exceptions.DataAccessException;
+import com.cloud.webapp.model.File;
+import com.cloud.webapp.support.InMemoryS3Client;
+import com.cloud.webapp.util.Bulkhead;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+class UploadRecoveryTest {
+
+	private static final String BUCKET = "bucket";
+
+	@TempDir
+	Path directory;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final InMemoryS3Client s3Client = new InMemoryS3Client(false);
+	private final FileDAO fileDAO = mock(FileDAO.class);
+	private final Bulkhead s3Bulkhead = new Bulkhead("s3", 2, 10, 5000, meterRegistry);
+	private UploadJournal journal;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		journal = openJournal();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		journal.close();
+		s3Bulkhead.shutdown();
+	}
+
+	@Test
+	void completeUploadFromAPreviousRunIsRolledForwardWithItsHash() throws IOException {
+		File file = file("a");
+		journal.begin(file);
+		restart();
+		putObject(file);
+		when(fileDAO.findById("a")).thenReturn(file);
+
+		recovery(3_600_000).recover();
+
+		verify(fileDAO).updateContentHash("a", "hash-a");
+		verify(fileDAO, never()).deleteReferences(any());
+		assertEquals(0, journal.openCount());
+		assertEquals(1, s3Client.size());
+	}
+
+	@Test
+	void uploadWithoutItsObjectIsRolledBack() throws IOException {
+		File file = file("a");
+		journal.begin(file);
+		restart();
+		when(fileDAO.findById("a")).thenReturn(file);
+		when(fileDAO.deleteReferences(any())).thenReturn(Set.of(file.getUrl()));
+
+		recovery(3_600_000).recover();
+
+		verify(fileDAO).deleteReferences(any());
+		verify(fileDAO, never()).updateContentHash(any(), any());
+		assertEquals(0, journal.openCount());
+	}
+
+	@Test
+	void rollBackDeletesTheUnreferencedObject() {
+		File file = file("a");
+		journal.begin(file);
+		putObject(file);
+		when(fileDAO.deleteReferences(any())).thenReturn(Set.of(file.getUrl()));
+
+		assertTrue(recovery(3_600_000).rollBack(file));
+
+		assertEquals(0, s3Client.size());
+		assertEquals(0, journal.openCount());
+	}
+
+	@Test
+	void asyncRollBackDeletesTheUnreferencedObject() {
+		File file = file("a");
+		journal.begin(file);
+		putObject(file);
+		when(fileDAO.deleteReferencesAsync(any())).thenReturn(CompletableFuture.completedFuture(Set.of(file.getUrl())));
+
+		assertTrue(recovery(3_600_000).rollBackAsync(file).join());
+
+		assertEquals(0, s3Client.size());
+		assertEquals(0, journal.openCount());
+	}
+
+	@Test
+	void failedAsyncRollBackIsLeftForRecovery() {
+		File file = file("a");
+		journal.begin(file);
+		when(fileDAO.deleteReferencesAsync(any()))
+				.thenReturn(CompletableFuture.failedFuture(new DataAccessException("down", new RuntimeException())));
+
+		assertFalse(recovery(3_600_000).rollBackAsync(file).join());
+
+		assertEquals(List.of("a"), journal.pending(0).stream().map(UploadJournal.Entry::id).toList());
+		assertEquals(1.0, meterRegistry.get("upload.journal.settle.failures").counter().count());
+	}
+
+	@Test
+	void uploadInProgressIsLeftAlone() {
+		journal.begin(file("a"));
+
+		recovery(3_600_000).recover();
+
+		verify(fileDAO, never()).findById(any());
+		verify(fileDAO, never()).deleteReferences(any());
+		assertEquals(1, journal.openCount());
+	}
+
+	@Test
+	void failedRollbackIsRetriedByTheNextPass() {
+		File file = file("a");
+		journal.begin(file);
+		UploadRecovery recovery = recovery(3_600_000);
+		when(fileDAO.deleteReferences(any()))
+				.thenThrow(new DataAccessException("down", new RuntimeException()))
+				.thenReturn(Set.of(file.getUrl()));
+
+		assertFalse(recovery.rollBack(file));
+		assertEquals(List.of("a"), journal.pending(0).stream().map(UploadJournal.Entry::id).toList());
+
+		recovery.recover();
+
+		assertEquals(0, journal.openCount());
+		assertEquals(1.0, meterRegistry.get("upload.journal.settle.failures").counter().count());
+	}
+
+	private UploadRecovery recovery(long minAgeMs) {
+		FileMetadataCache fileCache = new FileMetadataCache(100, 60, 100, 30, meterRegistry);
+		return new UploadRecovery(journal, fileDAO, fileCache, s3Client, s3Bulkhead, BUCKET, minAgeMs, meterRegistry);
+	}
+
+	private void restart() throws IOException {
+		journal.close();
+		journal = openJournal();
+	}
+
+	private UploadJournal openJournal() throws IOException {
+		return new UploadJournal(new ObjectMapper(), true, directory.resolve("upload-journal.log").toString(),
+				8L * 1024 * 1024, meterRegistry);
+	}
+
+	private void putObject(File file) {
+		s3Client.putObject(PutObjectRequest.builder().bucket(BUCKET).key(file.getUrl().substring(BUCKET.length() + 1)).build(),
+				RequestBody.fromString("content"));
+	}
+
+	private static File file(String id) {
+		File file = new File(id, "name", BUCKET + "/" + id + "/name");
+		file.setContentHash("hash-" + id);
+		return file;
+	}
+}
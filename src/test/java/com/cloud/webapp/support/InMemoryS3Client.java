@@ -0,0 +1,256 @@
+package com.cloud.webapp.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectResponse;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.DeletedObject;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+/**
+ * Single-bucket, in-process stand-in for S3 covering the calls the application makes.
+ * Request bodies are always read to the end, so upload cost on the application side is
+ * realistic; with {@code retainContent=false} only the object length is kept, which lets
+ * upload benchmarks run for a long time without filling the heap.
+ */
+public class InMemoryS3Client implements S3Client {
+
+	private record StoredObject(byte[] content, long size, String contentType, String eTag, Instant lastModified) {}
+	private record Part(byte[] content, long size) {}
+
+	private final boolean retainContent;
+	private final NavigableMap<String, StoredObject> objects = new ConcurrentSkipListMap<>();
+	private final Map<String, NavigableMap<Integer, Part>> uploads = new ConcurrentHashMap<>();
+	private final Set<String> undeletableKeys = ConcurrentHashMap.newKeySet();
+
+	public InMemoryS3Client(boolean retainContent) {
+		this.retainContent = retainContent;
+	}
+
+	// DeleteObjects reports AccessDenied for this key from now on
+	public void refuseDelete(String key) {
+		undeletableKeys.add(key);
+	}
+
+	public int size() {
+		return objects.size();
+	}
+
+	public void clear() {
+		objects.clear();
+		uploads.clear();
+	}
+
+	@Override
+	public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+		StoredObject object = store(read(body), request.contentType());
+		objects.put(request.key(), object);
+		return PutObjectResponse.builder().eTag(object.eTag()).build();
+	}
+
+	@Override
+	public <ReturnT> ReturnT getObject(GetObjectRequest request,
+	                                   ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+		StoredObject object = find(request.key());
+		byte[] content = object.content() != null ? object.content() : new byte[(int) object.size()];
+		GetObjectResponse response = GetObjectResponse.builder()
+				.contentLength((long) content.length)
+				.contentType(object.contentType())
+				.eTag(object.eTag())
+				.lastModified(object.lastModified())
+				.build();
+		try {
+			return transformer.transform(response, AbortableInputStream.create(new ByteArrayInputStream(content)));
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public HeadObjectResponse headObject(HeadObjectRequest request) {
+		StoredObject object = find(request.key());
+		return HeadObjectResponse.builder()
+				.contentLength(object.size())
+				.contentType(object.contentType())
+				.eTag(object.eTag())
+				.lastModified(object.lastModified())
+				.build();
+	}
+
+	@Override
+	public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+		objects.remove(request.key());
+		return DeleteObjectResponse.builder().build();
+	}
+
+	@Override
+	public DeleteObjectsResponse deleteObjects(DeleteObjectsRequest request) {
+		List<DeletedObject> deleted = new ArrayList<>();
+		List<S3Error> errors = new ArrayList<>();
+		for (ObjectIdentifier identifier : request.delete().objects()) {
+			if (undeletableKeys.contains(identifier.key())) {
+				errors.add(S3Error.builder().key(identifier.key()).code("AccessDenied").build());
+				continue;
+			}
+			objects.remove(identifier.key());
+			deleted.add(DeletedObject.builder().key(identifier.key()).build());
+		}
+		return DeleteObjectsResponse.builder()
+				.deleted(Boolean.TRUE.equals(request.delete().quiet()) ? List.of() : deleted)
+				.errors(errors)
+				.build();
+	}
+
+	@Override
+	public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+		String uploadId = UUID.randomUUID().toString();
+		uploads.put(uploadId, new ConcurrentSkipListMap<>());
+		return CreateMultipartUploadResponse.builder().bucket(request.bucket()).key(request.key()).uploadId(uploadId).build();
+	}
+
+	@Override
+	public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody body) {
+		byte[] content = read(body);
+		upload(request.uploadId()).put(request.partNumber(), new Part(retainContent ? content : null, content.length));
+		return UploadPartResponse.builder().eTag(newETag()).build();
+	}
+
+	@Override
+	public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+		NavigableMap<Integer, Part> parts = uploads.remove(request.uploadId());
+		if (parts == null) {
+			throw NoSuchUploadException.builder().statusCode(404).message("No such upload").build();
+		}
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		long size = 0;
+		for (CompletedPart completed : request.multipartUpload().parts()) {
+			Part part = parts.get(completed.partNumber());
+			size += part.size();
+			if (retainContent) {
+				content.writeBytes(part.content());
+			}
+		}
+		StoredObject object = new StoredObject(retainContent ? content.toByteArray() : null, size, null, newETag(), Instant.now());
+		objects.put(request.key(), object);
+		return CompleteMultipartUploadResponse.builder().key(request.key()).eTag(object.eTag()).build();
+	}
+
+	@Override
+	public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+		uploads.remove(request.uploadId());
+		return AbortMultipartUploadResponse.builder().build();
+	}
+
+	@Override
+	public ListObjectsV2Response listObjectsV2(ListObjectsV2Request request) {
+		int maxKeys = request.maxKeys() != null ? request.maxKeys() : 1000;
+		String prefix = request.prefix() != null ? request.prefix() : "";
+		NavigableMap<String, StoredObject> range = request.continuationToken() != null
+				? objects.tailMap(request.continuationToken(), false) : objects;
+		List<S3Object> contents = new ArrayList<>();
+		String nextToken = null;
+		for (Map.Entry<String, StoredObject> entry : range.entrySet()) {
+			if (!entry.getKey().startsWith(prefix)) {
+				continue;
+			}
+			if (contents.size() == maxKeys) {
+				nextToken = contents.get(contents.size() - 1).key();
+				break;
+			}
+			contents.add(S3Object.builder()
+					.key(entry.getKey())
+					.size(entry.getValue().size())
+					.eTag(entry.getValue().eTag())
+					.lastModified(entry.getValue().lastModified())
+					.build());
+		}
+		return ListObjectsV2Response.builder()
+				.contents(contents)
+				.keyCount(contents.size())
+				.isTruncated(nextToken != null)
+				.nextContinuationToken(nextToken)
+				.build();
+	}
+
+	@Override
+	public String serviceName() {
+		return SERVICE_NAME;
+	}
+
+	@Override
+	public void close() {
+		clear();
+	}
+
+	private StoredObject store(byte[] content, String contentType) {
+		return new StoredObject(retainContent ? content : null, content.length, contentType, newETag(), Instant.now());
+	}
+
+	private StoredObject find(String key) {
+		StoredObject object = objects.get(key);
+		if (object == null) {
+			throw NoSuchKeyException.builder().statusCode(404).message("The specified key does not exist.").build();
+		}
+		return object;
+	}
+
+	private NavigableMap<Integer, Part> upload(String uploadId) {
+		NavigableMap<Integer, Part> parts = uploads.get(uploadId);
+		if (parts == null) {
+			throw NoSuchUploadException.builder().statusCode(404).message("No such upload").build();
+		}
+		return parts;
+	}
+
+	private static byte[] read(RequestBody body) {
+		try (InputStream in = body.contentStreamProvider().newStream()) {
+			return in.readAllBytes();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String newETag() {
+		return "\"" + UUID.randomUUID().toString().replace("-", "") + "\"";
+	}
+}
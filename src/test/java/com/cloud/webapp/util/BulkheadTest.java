@@ -0,0 +1,127 @@
+package com.cloud.webapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.exceptions.BulkheadFullException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BulkheadTest {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final CountDownLatch release = new CountDownLatch(1);
+	private Bulkhead bulkhead;
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		if (bulkhead != null) {
+			bulkhead.shutdown();
+		}
+	}
+
+	@Test
+	void executeReturnsTheResultAndRethrowsCheckedExceptionsUnchanged() {
+		bulkhead = new Bulkhead("test", 1, 1, 1000, meterRegistry);
+		assertEquals("ok", bulkhead.execute(() -> "ok"));
+
+		IOException failure = new IOException("boom");
+		IOException thrown = assertThrows(IOException.class, () -> bulkhead.execute(() -> {
+			throw failure;
+		}));
+		assertSame(failure, thrown);
+	}
+
+	@Test
+	void rejectsWhenThreadsAndQueueAreFull() throws Exception {
+		bulkhead = new Bulkhead("test", 1, 1, 1000, meterRegistry);
+		CountDownLatch started = new CountDownLatch(1);
+		bulkhead.submit(() -> {
+			started.countDown();
+			awaitRelease();
+			return null;
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		bulkhead.submit(() -> null);
+
+		BulkheadFullException rejected = assertThrows(BulkheadFullException.class, () -> bulkhead.execute(() -> "late"));
+		assertEquals("test", rejected.getBulkhead());
+		CompletableFuture<Object> refused = bulkhead.submit(() -> "late");
+		CompletionException error = assertThrows(CompletionException.class, refused::join);
+		assertTrue(BulkheadFullException.isCause(error));
+		assertEquals(2.0, meterRegistry.get("bulkhead.rejected").tag("name", "test").counter().count());
+	}
+
+	@Test
+	void timedOutCallIsCancelledAndFailsAsBulkheadFull() throws Exception {
+		bulkhead = new Bulkhead("test", 1, 1, 100, meterRegistry);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		assertThrows(BulkheadFullException.class, () -> bulkhead.execute(() -> {
+			try {
+				Thread.sleep(10_000);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return null;
+		}));
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS), "the running task should be interrupted");
+		assertEquals(1.0, meterRegistry.get("bulkhead.timeouts").tag("name", "test").counter().count());
+		// The thread is free again afterwards
+		assertEquals("next", bulkhead.execute(() -> "next"));
+	}
+
+	@Test
+	void timeoutIncludesTimeSpentQueued() throws Exception {
+		bulkhead = new Bulkhead("test", 1, 1, 100, meterRegistry);
+		CountDownLatch started = new CountDownLatch(1);
+		bulkhead.submit(() -> {
+			started.countDown();
+			awaitRelease();
+			return null;
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		boolean[] ran = new boolean[1];
+		assertThrows(BulkheadFullException.class, () -> bulkhead.execute(() -> {
+			ran[0] = true;
+			return null;
+		}));
+		release.countDown();
+		// The cancelled call leaves the queue without running
+		assertEquals("after", bulkhead.execute(() -> "after"));
+		assertFalse(ran[0]);
+	}
+
+	@Test
+	void asExecutorThrowsBulkheadFullOnRejection() throws Exception {
+		bulkhead = new Bulkhead("test", 1, 1, 1000, meterRegistry);
+		CountDownLatch started = new CountDownLatch(1);
+		bulkhead.asExecutor().execute(() -> {
+			started.countDown();
+			awaitRelease();
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		bulkhead.asExecutor().execute(() -> { });
+		assertThrows(BulkheadFullException.class, () -> bulkhead.asExecutor().execute(() -> { }));
+	}
+
+	private void awaitRelease() {
+		try {
+			release.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.cloud.webapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.exceptions.CircuitOpenException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class CircuitBreakerTest {
+
+	private static final long OPEN_MILLIS = 50;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final CircuitBreaker breaker = new CircuitBreaker("test", 0.5, 4, 4, OPEN_MILLIS, meterRegistry);
+
+	@Test
+	void opensOnceTheFailureRateIsReachedAndRejectsCalls() {
+		breaker.onSuccess(breaker.acquirePermission());
+		breaker.onSuccess(breaker.acquirePermission());
+		breaker.onFailure(breaker.acquirePermission());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		breaker.onFailure(breaker.acquirePermission());
+
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+		CircuitOpenException rejected = assertThrows(CircuitOpenException.class, breaker::acquirePermission);
+		assertEquals("test", rejected.getCircuit());
+		assertEquals(1.0, meterRegistry.get("circuit.breaker.rejected").tag("name", "test").counter().count());
+	}
+
+	@Test
+	void halfOpenLetsExactlyOneProbeThrough() throws InterruptedException {
+		open();
+		Thread.sleep(OPEN_MILLIS + 20);
+
+		long probe = breaker.acquirePermission();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+		assertThrows(CircuitOpenException.class, breaker::acquirePermission);
+		assertThrows(CircuitOpenException.class, breaker::acquirePermission);
+
+		breaker.onSuccess(probe);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+		breaker.acquirePermission();
+	}
+
+	@Test
+	void failedProbeOpensTheBreakerAgain() throws InterruptedException {
+		open();
+		Thread.sleep(OPEN_MILLIS + 20);
+
+		breaker.onFailure(breaker.acquirePermission());
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+		assertThrows(CircuitOpenException.class, breaker::acquirePermission);
+	}
+
+	@Test
+	void ignoredProbeFreesTheTrialSlot() throws InterruptedException {
+		open();
+		Thread.sleep(OPEN_MILLIS + 20);
+
+		breaker.onIgnored(breaker.acquirePermission());
+		breaker.acquirePermission();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+	}
+
+	@Test
+	void callsFromBeforeTheBreakerOpenedDoNotDecideTheProbe() throws InterruptedException {
+		long slow = breaker.acquirePermission();
+		long slower = breaker.acquirePermission();
+		open();
+		Thread.sleep(OPEN_MILLIS + 20);
+		breaker.acquirePermission();
+
+		breaker.onSuccess(slow);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+		breaker.onIgnored(slower);
+		assertThrows(CircuitOpenException.class, breaker::acquirePermission);
+	}
+
+	private void open() {
+		for (int i = 0; i < 4; i++) {
+			breaker.onFailure(breaker.acquirePermission());
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+	}
+}
@@ -0,0 +1,58 @@
+package com.cloud.webapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+import com.cloud.webapp.model.File;
+
+class FileETagsTest {
+
+	@Test
+	void tagIsStableAndQuotedWithTheIdPrefix() {
+		String etag = FileETags.of(file("hash"));
+		assertEquals(etag, FileETags.of(file("hash")));
+		assertTrue(etag.startsWith("\"id-1."));
+		assertTrue(etag.endsWith("\""));
+	}
+
+	@Test
+	void tagCoversServedFieldsOnly() {
+		// The content hash is settled after the upload and is not part of the response
+		assertEquals(FileETags.of(file(null)), FileETags.of(file("hash")));
+		File renamed = file("hash");
+		renamed.setFileName("other.txt");
+		assertNotEquals(FileETags.of(file("hash")), FileETags.of(renamed));
+	}
+
+	@Test
+	void matchesExactWeakListedAndWildcardTags() {
+		String etag = FileETags.of(file("hash"));
+		assertTrue(FileETags.matches(etag, etag));
+		assertTrue(FileETags.matches("W/" + etag, etag));
+		assertTrue(FileETags.matches("\"other\", " + etag, etag));
+		assertTrue(FileETags.matches("*", etag));
+	}
+
+	@Test
+	void doesNotMatchAnotherFilesTagOrAnUnquotedTag() {
+		File other = file("hash");
+		other.setId("id-2");
+		String current = FileETags.of(file("hash"));
+		assertFalse(FileETags.matches(FileETags.of(other), current));
+		assertFalse(FileETags.matches(null, current));
+		assertFalse(FileETags.matches(current.substring(1, current.length() - 1), current));
+	}
+
+	private static File file(String contentHash) {
+		File file = new File("id-1", "name.txt", "bucket/id-1/name.txt");
+		file.setUploadDate(LocalDate.of(2024, 1, 2));
+		file.setContentHash(contentHash);
+		return file;
+	}
+}
@@ -0,0 +1,44 @@
+package com.cloud.webapp.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RetryBudgetTest {
+
+	@Test
+	void startsFullAndRunsDry() {
+		RetryBudget budget = new RetryBudget(0.1, 2);
+		assertTrue(budget.tryWithdraw());
+		assertTrue(budget.tryWithdraw());
+		assertFalse(budget.tryWithdraw());
+		assertEquals(0.0, budget.available());
+	}
+
+	@Test
+	void refillsOneRetryPerTenCallsAtRatioOneTenth() {
+		RetryBudget budget = new RetryBudget(0.1, 1);
+		assertTrue(budget.tryWithdraw());
+		for (int call = 1; call < 10; call++) {
+			budget.deposit();
+			assertFalse(budget.tryWithdraw(), "no retry after " + call + " calls");
+		}
+		budget.deposit();
+		assertTrue(budget.tryWithdraw());
+	}
+
+	@Test
+	void depositsStopAtCapacity() {
+		RetryBudget budget = new RetryBudget(0.5, 3);
+		for (int call = 0; call < 100; call++) {
+			budget.deposit();
+		}
+		assertEquals(3.0, budget.available());
+		assertTrue(budget.tryWithdraw());
+		assertTrue(budget.tryWithdraw());
+		assertTrue(budget.tryWithdraw());
+		assertFalse(budget.tryWithdraw());
+	}
+}